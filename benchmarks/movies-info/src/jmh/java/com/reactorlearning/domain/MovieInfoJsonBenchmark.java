@@ -0,0 +1,73 @@
+package com.reactorlearning.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Jackson round trips of {@link MovieInfo} with the same mapper setup Spring Boot gives WebFlux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MovieInfoJsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private MovieInfo movieInfo;
+    private List<MovieInfo> movieInfos;
+    private byte[] movieInfoJson;
+    private byte[] movieInfosJson;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        movieInfo = new MovieInfo("62a4ad7c1bd6ff2d5e9a2a11", "Batman Begins",
+                2005, List.of("Christian Bale", "Michael Cane", "Liam Neeson"), LocalDate.parse("2005-06-15"));
+        movieInfos = IntStream.range(0, 100)
+                .mapToObj(i -> new MovieInfo(String.valueOf(i), "Batman Begins " + i,
+                        2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15")))
+                .collect(Collectors.toList());
+        movieInfoJson = objectMapper.writeValueAsBytes(movieInfo);
+        movieInfosJson = objectMapper.writeValueAsBytes(movieInfos);
+    }
+
+    @Benchmark
+    public byte[] serializeMovieInfo() throws Exception {
+
+        return objectMapper.writeValueAsBytes(movieInfo);
+    }
+
+    @Benchmark
+    public MovieInfo deserializeMovieInfo() throws Exception {
+
+        return objectMapper.readValue(movieInfoJson, MovieInfo.class);
+    }
+
+    @Benchmark
+    public byte[] serializeMovieInfoPage() throws Exception {
+
+        return objectMapper.writeValueAsBytes(movieInfos);
+    }
+
+    @Benchmark
+    public MovieInfo[] deserializeMovieInfoPage() throws Exception {
+
+        return objectMapper.readValue(movieInfosJson, MovieInfo[].class);
+    }
+}
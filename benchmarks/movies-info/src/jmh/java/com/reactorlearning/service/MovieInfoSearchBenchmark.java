@@ -0,0 +1,157 @@
+package com.reactorlearning.service;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.reactorlearning.config.MongoIndexes;
+import com.reactorlearning.domain.KeysetPage;
+import com.reactorlearning.domain.MovieInfo;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfig;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Feature;
+import de.flapdoodle.embed.mongo.distribution.Versions;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import javax.validation.Validation;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search queries of {@link MoviesInfoService} against an embedded mongod holding a million
+ * movie infos, next to what the search UI did before: reading every movie info and filtering them
+ * on the client.
+ * <p>
+ * Seeding and indexing take a few minutes and the mongod binary is downloaded on first use,
+ * {@code -p documents=100000} makes for a quicker run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MovieInfoSearchBenchmark {
+
+    private static final int PAGE_LIMIT = 100;
+    private static final int SEED_BATCH_SIZE = 10_000;
+    private static final int CAST_SIZE = 10_000;
+    private static final List<String> WORDS = List.of("the", "dark", "night", "return", "of", "last", "city",
+            "star", "lost", "king", "red", "river", "silent", "storm", "iron", "ghost", "golden", "empire",
+            "shadow", "secret", "wild", "frozen", "broken", "crimson", "midnight");
+
+    @Param("1000000")
+    private int documents;
+
+    @Param("3.5.5")
+    private String mongoVersion;
+
+    private MongodExecutable mongodExecutable;
+    private MongoClient mongoClient;
+    private MoviesInfoService moviesInfoService;
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        var port = Network.getFreeServerPort();
+        mongodExecutable = MongodStarter.getDefaultInstance().prepare(MongodConfig.builder()
+                .version(Versions.withFeatures(Version.of(mongoVersion), Feature.SYNC_DELAY, Feature.STORAGE_ENGINE))
+                .net(new Net("localhost", port, Network.localhostIsIPv6()))
+                .build());
+        mongodExecutable.start();
+        mongoClient = MongoClients.create("mongodb://localhost:" + port);
+        reactiveMongoTemplate = new ReactiveMongoTemplate(mongoClient, "benchmark");
+
+        var random = new Random(42);
+        Flux.range(0, documents)
+                .map(i -> movieInfo(i, random))
+                .buffer(SEED_BATCH_SIZE)
+                .concatMap(batch -> reactiveMongoTemplate.insert(batch, MovieInfo.class).then())
+                .blockLast(Duration.ofMinutes(30));
+
+        // building the indexes over the seeded collection is quicker than maintaining them while seeding
+        var mongoMappingContext = (MongoMappingContext) reactiveMongoTemplate.getConverter().getMappingContext();
+        mongoMappingContext.getRequiredPersistentEntity(MovieInfo.class);
+        new MongoIndexes(reactiveMongoTemplate, mongoMappingContext, Duration.ofMinutes(30)).afterSingletonsInstantiated();
+
+        moviesInfoService = new MoviesInfoService(null, null, reactiveMongoTemplate,
+                Validation.buildDefaultValidatorFactory().getValidator(), 500, null, Schedulers.immediate());
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        mongoClient.close();
+        mongodExecutable.stop();
+    }
+
+    private static MovieInfo movieInfo(int i, Random random) {
+
+        var name = word(random) + " " + word(random) + " " + i;
+        var cast = List.of("Actor " + random.nextInt(CAST_SIZE), "Actor " + random.nextInt(CAST_SIZE),
+                "Actor " + random.nextInt(CAST_SIZE));
+        var year = 1950 + random.nextInt(75);
+        return new MovieInfo(null, name, year, cast, LocalDate.of(year, 1 + random.nextInt(12), 1));
+    }
+
+    private static String word(Random random) {
+
+        var word = WORDS.get(random.nextInt(WORDS.size()));
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    @Benchmark
+    public KeysetPage<MovieInfo> search_namePrefix() {
+
+        return moviesInfoService.searchMovieInfos("Dark Ni", null, null, null, null, PAGE_LIMIT).block();
+    }
+
+    @Benchmark
+    public KeysetPage<MovieInfo> search_namePrefixAndYearRange() {
+
+        return moviesInfoService.searchMovieInfos("dark", null, 1990, 1999, null, PAGE_LIMIT).block();
+    }
+
+    @Benchmark
+    public KeysetPage<MovieInfo> search_cast() {
+
+        return moviesInfoService.searchMovieInfos(null, "Actor 42", null, null, null, PAGE_LIMIT).block();
+    }
+
+    @Benchmark
+    public KeysetPage<MovieInfo> search_castAndYearRange() {
+
+        return moviesInfoService.searchMovieInfos(null, "Actor 42", 1990, 1999, null, PAGE_LIMIT).block();
+    }
+
+    @Benchmark
+    public KeysetPage<MovieInfo> search_yearRange() {
+
+        return moviesInfoService.searchMovieInfos(null, null, 1990, 1999, null, PAGE_LIMIT).block();
+    }
+
+    @Benchmark
+    public List<MovieInfo> findAllAndFilter_namePrefix() {
+
+        // every movie info crosses the wire, as with getAllMovieInfos filtered in the browser
+        return reactiveMongoTemplate.findAll(MovieInfo.class)
+                .filter(movieInfo -> movieInfo.getName().toLowerCase().startsWith("dark ni"))
+                .collectList()
+                .block();
+    }
+}
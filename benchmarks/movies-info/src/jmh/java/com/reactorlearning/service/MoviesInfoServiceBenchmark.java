@@ -0,0 +1,96 @@
+package com.reactorlearning.service;
+
+import com.reactorlearning.cache.MovieInfoCache;
+import com.reactorlearning.domain.KeysetPage;
+import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.repository.MovieInfoRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.validation.Validation;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The Reactor chains of {@link MoviesInfoService} over in-memory data, so only the operators,
+ * the cache and the paging logic are measured, not Mongo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MoviesInfoServiceBenchmark {
+
+    private static final int STREAM_SIZE = 10_000;
+    private static final int PAGE_LIMIT = 100;
+
+    private MoviesInfoService moviesInfoService;
+    private String cachedMovieInfoId;
+
+    @Setup
+    public void setUp() {
+
+        var movieInfos = IntStream.range(0, STREAM_SIZE)
+                .mapToObj(i -> new MovieInfo(String.format("%06d", i), "Batman Begins " + i,
+                        2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15")))
+                .collect(Collectors.toList());
+
+        var movieInfoRepository = mock(MovieInfoRepository.class);
+        when(movieInfoRepository.findById(anyString())).thenReturn(Mono.just(movieInfos.get(0)));
+        when(movieInfoRepository.findByMovieInfoIdGreaterThan(anyString(), any(Pageable.class)))
+                .thenReturn(Flux.fromIterable(movieInfos.subList(0, PAGE_LIMIT + 1)));
+
+        var reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(reactiveMongoTemplate.find(any(Query.class), eq(MovieInfo.class)))
+                .thenReturn(Flux.fromIterable(movieInfos));
+
+        var movieInfoCache = new MovieInfoCache(movieInfoRepository, new SimpleMeterRegistry(),
+                true, 10_000, Duration.ofMinutes(10));
+        moviesInfoService = new MoviesInfoService(movieInfoRepository, movieInfoCache, reactiveMongoTemplate,
+                Validation.buildDefaultValidatorFactory().getValidator(), 500, null, Schedulers.immediate());
+        ReflectionTestUtils.setField(moviesInfoService, "streamBatchSize", 256);
+
+        cachedMovieInfoId = movieInfos.get(0).getMovieInfoId();
+        moviesInfoService.getMovieInfoById(cachedMovieInfoId).block();
+    }
+
+    @Benchmark
+    public MovieInfo getMovieInfoById_cacheHit() {
+
+        return moviesInfoService.getMovieInfoById(cachedMovieInfoId).block();
+    }
+
+    @Benchmark
+    public KeysetPage<MovieInfo> getMovieInfosPage() {
+
+        return moviesInfoService.getMovieInfosPage(null, "62a4ad7c1bd6ff2d5e9a2a11", PAGE_LIMIT).block();
+    }
+
+    @Benchmark
+    public Long streamMovieInfos() {
+
+        return moviesInfoService.streamMovieInfos(null).count().block();
+    }
+}
@@ -0,0 +1,70 @@
+package com.reactorlearning.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Jackson round trips of {@link Review} with the same mapper setup Spring Boot gives WebFlux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReviewJsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private Review review;
+    private List<Review> reviews;
+    private byte[] reviewJson;
+    private byte[] reviewsJson;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        review = new Review("62a4ad7c1bd6ff2d5e9a2a11", 1L, "Awesome Movie", 9.0);
+        reviews = IntStream.range(0, 100)
+                .mapToObj(i -> new Review(String.valueOf(i), 1L, "Awesome Movie " + i, 9.0))
+                .collect(Collectors.toList());
+        reviewJson = objectMapper.writeValueAsBytes(review);
+        reviewsJson = objectMapper.writeValueAsBytes(reviews);
+    }
+
+    @Benchmark
+    public byte[] serializeReview() throws Exception {
+
+        return objectMapper.writeValueAsBytes(review);
+    }
+
+    @Benchmark
+    public Review deserializeReview() throws Exception {
+
+        return objectMapper.readValue(reviewJson, Review.class);
+    }
+
+    @Benchmark
+    public byte[] serializeReviewPage() throws Exception {
+
+        return objectMapper.writeValueAsBytes(reviews);
+    }
+
+    @Benchmark
+    public Review[] deserializeReviewPage() throws Exception {
+
+        return objectMapper.readValue(reviewsJson, Review[].class);
+    }
+}
@@ -0,0 +1,57 @@
+package com.reactorlearning.handler;
+
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.exception.ReviewDataException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.validation.Validation;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ReviewHandler#validate} for a valid review and for one violating both constraints,
+ * which also pays for building the error message and the exception.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReviewHandlerValidateBenchmark {
+
+    private ReviewHandler reviewHandler;
+    private Review validReview;
+    private Review invalidReview;
+
+    @Setup
+    public void setUp() {
+
+        reviewHandler = new ReviewHandler(null, null, null, null, null, null);
+        ReflectionTestUtils.setField(reviewHandler, "validator",
+                Validation.buildDefaultValidatorFactory().getValidator());
+        validReview = new Review(null, 1L, "Awesome Movie", 9.0);
+        invalidReview = new Review(null, null, "Awesome Movie", -9.0);
+    }
+
+    @Benchmark
+    public Review validate_valid() {
+
+        reviewHandler.validate(validReview);
+        return validReview;
+    }
+
+    @Benchmark
+    public String validate_invalid() {
+
+        try {
+            reviewHandler.validate(invalidReview);
+            return null;
+        } catch (ReviewDataException e) {
+            return e.getMessage();
+        }
+    }
+}
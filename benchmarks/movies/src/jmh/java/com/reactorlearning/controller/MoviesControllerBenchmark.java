@@ -0,0 +1,191 @@
+package com.reactorlearning.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.reactorlearning.client.MovieInfoRestClient;
+import com.reactorlearning.client.ReviewsRestClient;
+import com.reactorlearning.config.AggregationMode;
+import com.reactorlearning.config.MovieCacheProperties;
+import com.reactorlearning.config.RestClientProperties;
+import com.reactorlearning.domain.Movie;
+import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.domain.ReviewSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * {@link MoviesController} aggregation through the real rest clients, with the WebClient
+ * exchanges answered in memory. Measures request building, the resilience and collapsing
+ * layers, JSON decoding and the aggregation itself, without any network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MoviesControllerBenchmark {
+
+    private static final String MOVIES_INFO_URL = "http://localhost:8080/v1/movieinfos";
+    private static final String REVIEWS_URL = "http://localhost:8081/v1/reviews";
+    private static final int REVIEWS_PER_MOVIE = 10;
+
+    @Param({"SEQUENTIAL", "PARALLEL"})
+    private AggregationMode aggregationMode;
+
+    @Param({"true", "false"})
+    private boolean collapsing;
+
+    private ObjectMapper objectMapper;
+    private Map<URI, String> responseBodies = new ConcurrentHashMap<>();
+    private MoviesController moviesController;
+    private MoviesController cachingMoviesController;
+    private List<String> movieIds;
+
+    @Setup
+    public void setUp() {
+
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+
+        var webClient = WebClient.builder()
+                .exchangeFunction(stubExchange())
+                .build();
+        var meterRegistry = new SimpleMeterRegistry();
+        var restClientProperties = new RestClientProperties();
+
+        var movieInfoRestClient = new MovieInfoRestClient(webClient, meterRegistry, restClientProperties, collapsing);
+        ReflectionTestUtils.setField(movieInfoRestClient, "moviesInfoUrl", MOVIES_INFO_URL);
+        var reviewsRestClient = new ReviewsRestClient(webClient, meterRegistry, restClientProperties, collapsing);
+        ReflectionTestUtils.setField(reviewsRestClient, "reviewsUrl", REVIEWS_URL);
+
+        var uncached = new MovieCacheProperties();
+        uncached.setEnabled(false);
+        moviesController = moviesController(movieInfoRestClient, reviewsRestClient, meterRegistry, uncached);
+        cachingMoviesController = moviesController(movieInfoRestClient, reviewsRestClient, meterRegistry,
+                new MovieCacheProperties());
+
+        movieIds = IntStream.rangeClosed(1, 100)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public Movie retrieveMovieById() {
+
+        return moviesController.retrieveMovieById("1").block().getBody();
+    }
+
+    @Benchmark
+    public Movie retrieveMovieById_cacheHit() {
+
+        return cachingMoviesController.retrieveMovieById("1").block().getBody();
+    }
+
+    @Benchmark
+    public List<Movie> retrieveMoviesByIds() {
+
+        return moviesController.retrieveMoviesByIds(movieIds).collectList().block();
+    }
+
+    private MoviesController moviesController(MovieInfoRestClient movieInfoRestClient, ReviewsRestClient reviewsRestClient,
+                                              SimpleMeterRegistry meterRegistry, MovieCacheProperties movieCacheProperties) {
+
+        var controller = new MoviesController(movieInfoRestClient, reviewsRestClient, meterRegistry,
+                movieCacheProperties, objectMapper);
+        ReflectionTestUtils.setField(controller, "aggregationMode", aggregationMode);
+        ReflectionTestUtils.setField(controller, "batchSize", 50);
+        ReflectionTestUtils.setField(controller, "batchConcurrency", 4);
+        ReflectionTestUtils.setField(controller, "reviewsFallback", true);
+        ReflectionTestUtils.setField(controller, "reviewsLimit", 0);
+        ReflectionTestUtils.setField(controller, "maxEmbeddedReviews", 100);
+        return controller;
+    }
+
+    private ExchangeFunction stubExchange() {
+
+        // bodies are rendered once per distinct url, so the benchmark does not measure the stub
+        return request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(responseBodies.computeIfAbsent(request.url(), this::responseBody))
+                .build());
+    }
+
+    private String responseBody(URI uri) {
+
+        var queryParams = UriComponentsBuilder.fromUri(uri).build().getQueryParams();
+        try {
+            if(uri.toString().startsWith(MOVIES_INFO_URL)) {
+                if(queryParams.containsKey("ids")) {
+                    return objectMapper.writeValueAsString(ids(queryParams.getFirst("ids")).stream()
+                            .map(this::movieInfo)
+                            .collect(Collectors.toList()));
+                }
+                var path = uri.getPath();
+                return objectMapper.writeValueAsString(movieInfo(path.substring(path.lastIndexOf('/') + 1)));
+            }
+            var reviewedIds = queryParams.containsKey("movieInfoIds")
+                    ? ids(queryParams.getFirst("movieInfoIds"))
+                    : List.of(queryParams.getFirst("movieInfoId"));
+            if(uri.getPath().endsWith("/stats")) {
+                if(queryParams.containsKey("movieInfoIds")) {
+                    return objectMapper.writeValueAsString(reviewedIds.stream()
+                            .map(movieInfoId -> Map.of("movieInfoId", Long.valueOf(movieInfoId),
+                                    "count", (long) REVIEWS_PER_MOVIE, "mean", 9.0, "version", 1L))
+                            .collect(Collectors.toList()));
+                }
+                return objectMapper.writeValueAsString(new ReviewSummary((long) REVIEWS_PER_MOVIE, 9.0, 1L));
+            }
+            var limit = queryParams.containsKey("limit") ? Long.parseLong(queryParams.getFirst("limit")) : Long.MAX_VALUE;
+            return objectMapper.writeValueAsString(reviewedIds.stream()
+                    .flatMap(movieInfoId -> reviews(movieInfoId).stream().limit(limit))
+                    .collect(Collectors.toList()));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<String> ids(String commaSeparatedIds) {
+
+        return Arrays.asList(commaSeparatedIds.split(","));
+    }
+
+    private MovieInfo movieInfo(String movieInfoId) {
+
+        return new MovieInfo(movieInfoId, "Batman Begins " + movieInfoId,
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
+    }
+
+    private List<Review> reviews(String movieInfoId) {
+
+        return IntStream.range(0, REVIEWS_PER_MOVIE)
+                .mapToObj(i -> new Review(movieInfoId + "-" + i, Long.valueOf(movieInfoId), "Awesome Movie", 9.0))
+                .collect(Collectors.toList());
+    }
+}
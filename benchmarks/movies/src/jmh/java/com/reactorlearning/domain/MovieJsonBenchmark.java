@@ -0,0 +1,62 @@
+package com.reactorlearning.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Jackson round trips of an aggregated {@link Movie} with a growing number of reviews.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MovieJsonBenchmark {
+
+    @Param({"0", "10", "100"})
+    private int reviewCount;
+
+    private ObjectMapper objectMapper;
+    private Movie movie;
+    private byte[] movieJson;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        var movieInfo = new MovieInfo("1", "Batman Begins",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
+        var reviews = IntStream.range(0, reviewCount)
+                .mapToObj(i -> new Review(String.valueOf(i), 1L, "Awesome Movie " + i, 9.0))
+                .collect(Collectors.toList());
+        movie = new Movie(movieInfo, reviews);
+        movieJson = objectMapper.writeValueAsBytes(movie);
+    }
+
+    @Benchmark
+    public byte[] serializeMovie() throws Exception {
+
+        return objectMapper.writeValueAsBytes(movie);
+    }
+
+    @Benchmark
+    public Movie deserializeMovie() throws Exception {
+
+        return objectMapper.readValue(movieJson, Movie.class);
+    }
+}
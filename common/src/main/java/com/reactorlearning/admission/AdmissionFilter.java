@@ -0,0 +1,224 @@
+package com.reactorlearning.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Sheds load before any handler runs, answering {@code 429 Too Many Requests} with a
+ * {@code Retry-After} header:
+ * <ul>
+ *     <li>every client has a token bucket per route, see {@link AdmissionProperties}, clients are
+ *     told apart by their address unless they send the key of one of the configured clients</li>
+ *     <li>the requests in flight across all clients are capped by a limit that shrinks while
+ *     responses are slow and grows back while they are fast, a request holds its slot until its
+ *     response has been written unless its route releases it on commit</li>
+ * </ul>
+ * The buckets and the limit are updated by compare-and-set, admitting a request never takes a
+ * lock. Runs right after the request logging, so rejected requests are still logged.
+ * <p>
+ * Publishes {@code admission.rejections} tagged {@code reason=RATE_LIMITED|CONCURRENCY_LIMITED},
+ * and the {@code admission.concurrency.limit}, {@code admission.inFlight} and
+ * {@code admission.buckets} gauges.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@EnableConfigurationProperties(AdmissionProperties.class)
+public class AdmissionFilter implements WebFilter {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private AdmissionProperties admissionProperties;
+    private LongSupplier nanoTime;
+    private Route defaultRoute;
+    private List<Route> routes;
+    private List<Route> releaseOnCommitRoutes;
+    private Map<String, Route> clientRoutes;
+    private Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private AtomicLong lastSweep;
+    private ConcurrencyLimit concurrencyLimit;
+    private Counter rateLimited;
+    private Counter concurrencyLimited;
+
+    @Autowired
+    public AdmissionFilter(AdmissionProperties admissionProperties, MeterRegistry meterRegistry) {
+        this(admissionProperties, meterRegistry, System::nanoTime);
+    }
+
+    AdmissionFilter(AdmissionProperties admissionProperties, MeterRegistry meterRegistry, LongSupplier nanoTime) {
+        this.admissionProperties = admissionProperties;
+        this.nanoTime = nanoTime;
+        this.defaultRoute = new Route("*", null, null, admissionProperties.getDefaultRate());
+        this.routes = admissionProperties.getRoutes().entrySet().stream()
+                .map(route -> route(route.getKey(), route.getValue()))
+                .sorted(Comparator.comparing(Route::getPattern, PathPattern.SPECIFICITY_COMPARATOR)
+                        // a route of one method is more specific than the same pattern for all of them
+                        .thenComparing(route -> route.getMethod() == null))
+                .collect(Collectors.toList());
+        this.releaseOnCommitRoutes = admissionProperties.getConcurrency().getReleaseOnCommit().stream()
+                .map(route -> route(route, null))
+                .collect(Collectors.toList());
+        this.clientRoutes = admissionProperties.getClients().entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, client -> new Route("client", null, null, client.getValue())));
+        this.lastSweep = new AtomicLong(nanoTime.getAsLong());
+        this.concurrencyLimit = new ConcurrencyLimit(admissionProperties.getConcurrency(), nanoTime.getAsLong());
+
+        this.rateLimited = Counter.builder("admission.rejections")
+                .tag("reason", "RATE_LIMITED")
+                .register(meterRegistry);
+        this.concurrencyLimited = Counter.builder("admission.rejections")
+                .tag("reason", "CONCURRENCY_LIMITED")
+                .register(meterRegistry);
+        Gauge.builder("admission.concurrency.limit", concurrencyLimit, ConcurrencyLimit::getLimit)
+                .register(meterRegistry);
+        Gauge.builder("admission.inFlight", concurrencyLimit, ConcurrencyLimit::getInFlight)
+                .register(meterRegistry);
+        Gauge.builder("admission.buckets", buckets, Map::size)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+        if(!admissionProperties.isEnabled()) {
+            return chain.filter(exchange);
+        }
+
+        var start = nanoTime.getAsLong();
+        var apiKey = exchange.getRequest().getHeaders().getFirst(admissionProperties.getClientHeader());
+        var clientRoute = apiKey == null ? null : clientRoutes.get(apiKey);
+        var route = clientRoute == null ? route(exchange) : clientRoute;
+        if(route.getRate().getPerSecond() > 0) {
+            var wait = bucket(clientRoute == null ? addressKey(exchange) : "key:" + apiKey, route, start).tryAcquire(start);
+            if(wait > 0) {
+                rateLimited.increment();
+                return reject(exchange, wait);
+            }
+        }
+
+        if(!admissionProperties.getConcurrency().isEnabled()) {
+            return chain.filter(exchange);
+        }
+        if(!concurrencyLimit.tryAcquire()) {
+            concurrencyLimited.increment();
+            return reject(exchange, TimeUnit.SECONDS.toNanos(1));
+        }
+        // the latency is the time to the headers, a streamed body does not count as slow
+        var observed = new AtomicBoolean();
+        Runnable observe = () -> {
+            if(observed.compareAndSet(false, true)) {
+                concurrencyLimit.observe(start, nanoTime.getAsLong());
+            }
+        };
+        var released = new AtomicBoolean();
+        Runnable release = () -> {
+            observe.run();
+            if(released.compareAndSet(false, true)) {
+                concurrencyLimit.release();
+            }
+        };
+        var releaseOnCommit = releaseOnCommitRoutes.stream().anyMatch(releasing -> matches(releasing, exchange));
+        exchange.getResponse().beforeCommit(() -> Mono.fromRunnable(releaseOnCommit ? release : observe));
+        return chain.filter(exchange)
+                .doFinally(signalType -> release.run());
+    }
+
+    private Route route(ServerWebExchange exchange) {
+
+        return routes.stream()
+                .filter(route -> matches(route, exchange))
+                .findFirst()
+                .orElse(defaultRoute);
+    }
+
+    private static boolean matches(Route route, ServerWebExchange exchange) {
+
+        var request = exchange.getRequest();
+        return (route.getMethod() == null || route.getMethod() == request.getMethod())
+                && route.getPattern().matches(request.getPath().pathWithinApplication());
+    }
+
+    private TokenBucket bucket(String clientKey, Route route, long now) {
+
+        var key = clientKey + ' ' + route.getKey();
+        var bucket = buckets.get(key);
+        if(bucket != null) {
+            return bucket;
+        }
+        if(buckets.size() >= admissionProperties.getMaxClients()) {
+            var last = lastSweep.get();
+            if(now - last >= SWEEP_INTERVAL_NANOS && lastSweep.compareAndSet(last, now)) {
+                buckets.values().removeIf(idle -> idle.isFull(now));
+            }
+            if(buckets.size() >= admissionProperties.getMaxClients()) {
+                // new clients share a bucket of the route, so a flood of client ids cannot grow the map
+                key = "overflow " + route.getKey();
+            }
+        }
+        return buckets.computeIfAbsent(key, newKey -> new TokenBucket(route.getRate(), now));
+    }
+
+    private String addressKey(ServerWebExchange exchange) {
+
+        var remoteAddress = exchange.getRequest().getRemoteAddress();
+        return remoteAddress == null || remoteAddress.getAddress() == null
+                ? "ip:unknown"
+                : "ip:" + remoteAddress.getAddress().getHostAddress();
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange, long waitNanos) {
+
+        var response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+                String.valueOf(Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1))));
+        return response.setComplete();
+    }
+
+    private static Route route(String route, AdmissionProperties.Rate rate) {
+
+        var separator = route.indexOf(' ');
+        var method = separator < 0 ? null : HttpMethod.resolve(route.substring(0, separator).toUpperCase());
+        if(separator >= 0 && method == null) {
+            throw new IllegalArgumentException("Unknown method in admission route " + route);
+        }
+        var pattern = PathPatternParser.defaultInstance.parse(separator < 0 ? route : route.substring(separator + 1).trim());
+        return new Route(route, method, pattern, rate);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Route {
+
+        private String key;
+        private HttpMethod method;
+        private PathPattern pattern;
+        private AdmissionProperties.Rate rate;
+    }
+}
@@ -0,0 +1,101 @@
+package com.reactorlearning.admission;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admission control settings, bound from {@code admission.*}.
+ */
+@Data
+@ConfigurationProperties(prefix = "admission")
+public class AdmissionProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Header identifying the clients listed in {@code clients}, every other request is limited per
+     * remote address whatever the header holds. The value is not authenticated, the keys of the
+     * clients are shared secrets.
+     */
+    private String clientHeader = "X-Api-Key";
+
+    /**
+     * Rate of every client across all the routes not listed below.
+     */
+    private Rate defaultRate = new Rate(100, 50);
+
+    /**
+     * Rate per route, e.g. {@code "[GET /v1/movieinfos]"} or {@code "[/actuator/**]"} for every
+     * method. The most specific matching pattern wins, every client has a bucket of its own per
+     * route.
+     */
+    private Map<String, Rate> routes = new LinkedHashMap<>();
+
+    /**
+     * Rate per client key, replacing the route rates for the client, e.g. to give another service
+     * calling this one the headroom of all the users it serves. Only these keys are honoured, a
+     * client cannot escape the limit of its address by making keys up.
+     */
+    private Map<String, Rate> clients = new LinkedHashMap<>();
+
+    /**
+     * Buckets kept before the idle ones are dropped. Past it, clients without a bucket share one
+     * per route until the idle buckets have been dropped.
+     */
+    private int maxClients = 10_000;
+
+    private Concurrency concurrency = new Concurrency();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Rate {
+
+        /**
+         * Requests a client can make at once after being idle.
+         */
+        private int burst;
+
+        /**
+         * Requests per second a client can sustain, 0 leaves the route unlimited.
+         */
+        private double perSecond;
+    }
+
+    /**
+     * Limit of the requests in flight across all clients, adapted to the observed latency: it
+     * shrinks by {@code backoffRatio} when a response takes longer than {@code latencyThreshold},
+     * at most once per round trip, and grows by one per limit's worth of fast responses.
+     */
+    @Data
+    public static class Concurrency {
+
+        private boolean enabled = true;
+        private int initialLimit = 100;
+        private int minLimit = 10;
+        private int maxLimit = 1000;
+
+        /**
+         * Time to the response headers past which a request counts as congestion, streamed
+         * bodies are not waited for.
+         */
+        private Duration latencyThreshold = Duration.ofMillis(500);
+
+        private double backoffRatio = 0.9;
+
+        /**
+         * Routes in the format of {@code routes} whose requests give their slot back once the
+         * headers are written, e.g. change streams open for as long as the client listens. Every
+         * other request holds its slot until its body has been written.
+         */
+        private List<String> releaseOnCommit = new ArrayList<>();
+    }
+}
@@ -0,0 +1,99 @@
+package com.reactorlearning.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Additive increase, multiplicative decrease limit of the requests in flight. Both the count and
+ * the limit are updated by compare-and-set.
+ * <p>
+ * The limit shrinks at most once per round trip: the requests already in flight when it shrank
+ * were admitted under the old limit, their slow responses are the same congestion and are not
+ * counted again.
+ */
+class ConcurrencyLimit {
+
+    private AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The limit as the bits of a double, so additive increases smaller than one accumulate.
+     */
+    private AtomicLong limit;
+    private int minLimit;
+    private int maxLimit;
+    private long latencyThresholdNanos;
+    private double backoffRatio;
+
+    /**
+     * When the limit last shrank, only requests started since can shrink it again.
+     */
+    private AtomicLong decreasedAt;
+
+    ConcurrencyLimit(AdmissionProperties.Concurrency concurrency, long nowNanos) {
+        this.minLimit = concurrency.getMinLimit();
+        this.maxLimit = concurrency.getMaxLimit();
+        this.latencyThresholdNanos = concurrency.getLatencyThreshold().toNanos();
+        this.backoffRatio = concurrency.getBackoffRatio();
+        this.limit = new AtomicLong(Double.doubleToLongBits(
+                Math.max(minLimit, Math.min(maxLimit, concurrency.getInitialLimit()))));
+        this.decreasedAt = new AtomicLong(nowNanos);
+    }
+
+    boolean tryAcquire() {
+
+        while(true) {
+            var current = inFlight.get();
+            if(current >= (int) getLimit()) {
+                return false;
+            }
+            if(inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adapts the limit to the latency of a request that still holds its slot.
+     */
+    void observe(long startNanos, long endNanos) {
+
+        var holding = inFlight.get();
+        if(endNanos - startNanos > latencyThresholdNanos) {
+            var last = decreasedAt.get();
+            if(startNanos - last >= 0 && decreasedAt.compareAndSet(last, endNanos)) {
+                update(current -> Math.max(minLimit, current * backoffRatio));
+            }
+            return;
+        }
+        // only a limit that is being used is grown, an idle service keeps the one it has
+        update(current -> holding >= current / 2 ? Math.min(maxLimit, current + 1 / current) : current);
+    }
+
+    void release() {
+
+        inFlight.decrementAndGet();
+    }
+
+    private void update(DoubleUnaryOperator function) {
+
+        while(true) {
+            var currentBits = limit.get();
+            var current = Double.longBitsToDouble(currentBits);
+            var next = function.applyAsDouble(current);
+            if(next == current || limit.compareAndSet(currentBits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    double getLimit() {
+
+        return Double.longBitsToDouble(limit.get());
+    }
+
+    int getInFlight() {
+
+        return inFlight.get();
+    }
+}
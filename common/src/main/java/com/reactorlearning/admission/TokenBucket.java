@@ -0,0 +1,47 @@
+package com.reactorlearning.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as the time at which it will be full again (the generic cell rate
+ * algorithm), so taking a token is a single compare-and-set and concurrent requests of a client
+ * never wait on each other.
+ */
+class TokenBucket {
+
+    private long emissionIntervalNanos;
+    private long burstNanos;
+    private AtomicLong fullAt;
+
+    TokenBucket(AdmissionProperties.Rate rate, long nowNanos) {
+        this.emissionIntervalNanos = (long) (1_000_000_000 / rate.getPerSecond());
+        this.burstNanos = emissionIntervalNanos * Math.max(1, rate.getBurst());
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * @return 0 when a token was taken, otherwise the nanos until the next one is available
+     */
+    long tryAcquire(long nowNanos) {
+
+        while(true) {
+            var current = fullAt.get();
+            var next = Math.max(current, nowNanos) + emissionIntervalNanos;
+            var wait = next - nowNanos - burstNanos;
+            if(wait > 0) {
+                return wait;
+            }
+            if(fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * A full bucket is in the state a new one starts in, it can be dropped without losing anything.
+     */
+    boolean isFull(long nowNanos) {
+
+        return fullAt.get() - nowNanos <= 0;
+    }
+}
@@ -0,0 +1,44 @@
+package com.reactorlearning.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import reactor.core.publisher.BufferOverflowStrategy;
+
+import java.time.Duration;
+
+/**
+ * Live change feed settings, bound from {@code changeFeed.*}.
+ */
+@Data
+@ConfigurationProperties(prefix = "change-feed")
+public class ChangeFeedProperties {
+
+    /**
+     * Number of most recent changes kept in memory, a subscriber resuming from one of them is
+     * replayed what it missed without opening a change stream of its own.
+     */
+    private int replaySize = 1000;
+
+    /**
+     * Changes buffered per subscriber that does not keep up.
+     */
+    private int bufferSize = 256;
+
+    /**
+     * What happens once a subscriber's buffer is full. ERROR ends its feed, the subscriber
+     * reconnects and resumes from its last event without losing any. DROP_OLDEST and DROP_LATEST
+     * keep it connected but lose changes.
+     */
+    private BufferOverflowStrategy overflow = BufferOverflowStrategy.ERROR;
+
+    /**
+     * Consecutive failed attempts at resuming the shared change stream before its subscribers get
+     * the error, they reconnect and resume from their last event. A lost history is never retried.
+     */
+    private long maxRetries = 10;
+
+    /**
+     * Interval of the comment lines keeping idle connections open through proxies.
+     */
+    private Duration heartbeat = Duration.ofSeconds(15);
+}
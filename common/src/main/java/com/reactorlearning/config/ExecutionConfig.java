@@ -0,0 +1,78 @@
+package com.reactorlearning.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The scheduler handlers and services move their blocking or CPU heavy stages to, keeping the
+ * Netty event loops free for I/O.
+ */
+@Configuration
+@Slf4j
+public class ExecutionConfig {
+
+    static final String BLOCKING_SCHEDULER_NAME = "blocking";
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler blockingScheduler(@Value("${execution.mode:VIRTUAL_THREADS}") ExecutionMode executionMode) {
+
+        return blockingScheduler(executionMode, ExecutionConfig::newVirtualThreadPerTaskExecutor);
+    }
+
+    static Scheduler blockingScheduler(ExecutionMode executionMode, VirtualThreads virtualThreads) {
+
+        switch (executionMode) {
+            case EVENT_LOOP:
+                return Schedulers.immediate();
+            case VIRTUAL_THREADS:
+                try {
+                    return Schedulers.fromExecutorService(virtualThreads.newExecutor(), BLOCKING_SCHEDULER_NAME);
+                } catch (UnsupportedOperationException e) {
+                    log.warn("Virtual threads are not available on Java {}, falling back to bounded elastic : {}",
+                            Runtime.version(), e.getMessage());
+                    return boundedElastic();
+                }
+            default:
+                return boundedElastic();
+        }
+    }
+
+    private static Scheduler boundedElastic() {
+
+        return Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+                Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, BLOCKING_SCHEDULER_NAME);
+    }
+
+    /**
+     * Looked up reflectively so the service still builds and runs on Java 17, virtual threads are
+     * final from Java 21 and a preview on 19 and 20.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("Executors.newVirtualThreadPerTaskExecutor is missing", e);
+        } catch (InvocationTargetException e) {
+            // a preview JDK started without --enable-preview
+            throw new UnsupportedOperationException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @FunctionalInterface
+    interface VirtualThreads {
+
+        /**
+         * @throws UnsupportedOperationException when the JDK has no virtual threads
+         */
+        ExecutorService newExecutor();
+    }
+}
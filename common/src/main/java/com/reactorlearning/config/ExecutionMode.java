@@ -0,0 +1,22 @@
+package com.reactorlearning.config;
+
+/**
+ * Where the blocking or CPU heavy stages of a request run, bound from {@code execution.mode}.
+ */
+public enum ExecutionMode {
+
+    /**
+     * On the thread of the surrounding pipeline, usually a Netty event loop.
+     */
+    EVENT_LOOP,
+
+    /**
+     * On Reactor's bounded elastic workers, capped at ten threads per core.
+     */
+    BOUNDED_ELASTIC,
+
+    /**
+     * One virtual thread per task, falling back to {@link #BOUNDED_ELASTIC} on JDKs without them.
+     */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,52 @@
+package com.reactorlearning.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+
+/**
+ * Creates the indexes declared on the {@code @Document} classes before the server starts.
+ * <p>
+ * Spring Data's own auto index creation is asynchronous with the reactive driver and only logs its
+ * failures, this blocks startup until every index exists and fails it when one cannot be created,
+ * e.g. a unique index over existing duplicates. Skipped by the services without Mongo on their classpath.
+ */
+@Slf4j
+@Component
+@ConditionalOnClass(ReactiveMongoTemplate.class)
+public class MongoIndexes implements SmartInitializingSingleton {
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    private MongoMappingContext mongoMappingContext;
+    private Duration timeout;
+
+    public MongoIndexes(ReactiveMongoTemplate reactiveMongoTemplate, MongoMappingContext mongoMappingContext,
+                        @Value("${mongo.indexes.timeout:PT1M}") Duration timeout) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.mongoMappingContext = mongoMappingContext;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+
+        var indexResolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
+        var created = Flux.fromIterable(mongoMappingContext.getPersistentEntities())
+                .filter(entity -> entity.isAnnotationPresent(Document.class))
+                .concatMap(entity -> Flux.fromIterable(indexResolver.resolveIndexFor(entity.getTypeInformation()))
+                        .concatMap(index -> reactiveMongoTemplate.indexOps(entity.getType()).ensureIndex(index)))
+                .collectList()
+                .block(timeout);
+
+        log.info("Ensured Mongo indexes : {}", created);
+    }
+}
@@ -0,0 +1,209 @@
+package com.reactorlearning.config;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ResolvableType;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Fails startup when a repository query method cannot use an index.
+ * <p>
+ * Every query method declared on a {@link ReactiveMongoRepository} interface of this application is
+ * called once with placeholder arguments, the commands it sends are captured from the driver and
+ * explained, and any plan containing a {@code COLLSCAN} stage is reported. Enabled with
+ * {@code mongo.queryPlanVerification.enabled=true}, which the integration tests do; it is meant for
+ * tests and pre-production environments, not for every production start.
+ */
+@Slf4j
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(ReactiveMongoTemplate.class)
+@ConditionalOnProperty(name = "mongo.query-plan-verification.enabled", havingValue = "true")
+public class QueryPlanVerifier {
+
+    private static final Set<String> QUERY_COMMANDS = Set.of("find", "aggregate", "count", "distinct");
+
+    private Queue<Document> capturedCommands = new ConcurrentLinkedQueue<>();
+    private volatile boolean capturing;
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer queryPlanVerifierCommandCapture() {
+
+        return builder -> builder.addCommandListener(new CommandListener() {
+            @Override
+            public void commandStarted(CommandStartedEvent event) {
+                if(capturing && QUERY_COMMANDS.contains(event.getCommandName())) {
+                    capturedCommands.add(Document.parse(event.getCommand().toJson()));
+                }
+            }
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void verifyOnStartup(ApplicationReadyEvent event) {
+
+        var context = event.getApplicationContext();
+        var collectionScans = verify(context, context.getBean(ReactiveMongoTemplate.class),
+                context.getBean(MongoMappingContext.class))
+                .block(Duration.ofMinutes(1));
+
+        if(collectionScans != null && !collectionScans.isEmpty()) {
+            throw new IllegalStateException("Repository queries without a usable index : " + collectionScans);
+        }
+        log.info("Query plans verified, no repository query scans a whole collection");
+    }
+
+    /**
+     * @return {@code Repository.method : plan} for every query method whose plan scans a collection
+     */
+    public Mono<List<String>> verify(ApplicationContext context, ReactiveMongoTemplate reactiveMongoTemplate,
+                                     MongoMappingContext mongoMappingContext) {
+
+        return Flux.fromIterable(context.getBeansOfType(ReactiveMongoRepository.class).values())
+                .concatMap(repository -> {
+                    var repositoryInterface = repositoryInterface(repository);
+                    var domainType = ResolvableType.forClass(repositoryInterface)
+                            .as(ReactiveMongoRepository.class).resolveGeneric(0);
+                    var idProperty = mongoMappingContext.getRequiredPersistentEntity(domainType)
+                            .getRequiredIdProperty().getName();
+
+                    return Flux.fromArray(repositoryInterface.getDeclaredMethods())
+                            .filter(method -> !method.isDefault() && !Modifier.isStatic(method.getModifiers()))
+                            .sort(Comparator.comparing(Method::getName))
+                            .concatMap(method -> explain(repository, method, idProperty, reactiveMongoTemplate)
+                                    .filter(plan -> !collectionScans(plan).isEmpty())
+                                    .map(plan -> repositoryInterface.getSimpleName() + "." + method.getName()
+                                            + " : " + plan.toJson()));
+                })
+                .collectList();
+    }
+
+    private Flux<Document> explain(Object repository, Method method, String idProperty,
+                                   ReactiveMongoTemplate reactiveMongoTemplate) {
+
+        return Flux.defer(() -> {
+                    capturedCommands.clear();
+                    capturing = true;
+                    return Flux.from(invoke(repository, method, idProperty));
+                })
+                .then(Mono.fromRunnable(() -> capturing = false))
+                .thenMany(Flux.defer(() -> Flux.fromIterable(new ArrayList<>(capturedCommands))))
+                .concatMap(command -> reactiveMongoTemplate.executeCommand(new Document("explain", explainable(command))
+                        .append("verbosity", "queryPlanner")))
+                .map(explained -> explained.get("queryPlanner", Document.class).get("winningPlan", Document.class));
+    }
+
+    private Publisher<?> invoke(Object repository, Method method, String idProperty) {
+
+        var arguments = new Object[method.getParameterCount()];
+        for(int i = 0; i < arguments.length; i++) {
+            arguments[i] = sampleArgument(ResolvableType.forMethodParameter(method, i), idProperty);
+        }
+        try {
+            return (Publisher<?>) method.invoke(repository, arguments);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not call " + method, e);
+        }
+    }
+
+    /**
+     * A value of the parameter's type, the plan depends on the shape of the query rather than on the values.
+     */
+    static Object sampleArgument(ResolvableType type, String idProperty) {
+
+        var rawType = type.resolve(Object.class);
+        if(Collection.class.isAssignableFrom(rawType)) {
+            return List.of(sampleArgument(type.asCollection().getGeneric(0), idProperty));
+        }
+        if(Pageable.class.isAssignableFrom(rawType)) {
+            // the pages are always ordered by id
+            return PageRequest.of(0, 1, Sort.by(idProperty));
+        }
+        if(rawType == String.class) {
+            return "0";
+        }
+        if(rawType == Integer.class || rawType == int.class) {
+            return 0;
+        }
+        if(rawType == Long.class || rawType == long.class) {
+            return 0L;
+        }
+        if(rawType == Double.class || rawType == double.class) {
+            return 0.0;
+        }
+        throw new IllegalArgumentException("No sample value for query method parameters of type " + rawType.getName());
+    }
+
+    /**
+     * The captured command minus the fields the driver adds for the session and the target database.
+     */
+    static Document explainable(Document command) {
+
+        var explainable = new Document();
+        command.forEach((key, value) -> {
+            if(!key.startsWith("$") && !key.equals("lsid") && !key.equals("txnNumber")) {
+                explainable.append(key, value);
+            }
+        });
+        return explainable;
+    }
+
+    /**
+     * @return the {@code COLLSCAN} stages of a winning plan, however deeply nested
+     */
+    static List<Document> collectionScans(Document plan) {
+
+        var collectionScans = new ArrayList<Document>();
+        if("COLLSCAN".equals(plan.getString("stage"))) {
+            collectionScans.add(plan);
+        }
+        plan.values().forEach(value -> {
+            if(value instanceof Document) {
+                collectionScans.addAll(collectionScans((Document) value));
+            } else if(value instanceof List) {
+                ((List<?>) value).stream()
+                        .filter(Document.class::isInstance)
+                        .forEach(stage -> collectionScans.addAll(collectionScans((Document) stage)));
+            }
+        });
+        return collectionScans;
+    }
+
+    private static Class<?> repositoryInterface(Object repository) {
+
+        return Arrays.stream(AopProxyUtils.proxiedUserInterfaces(repository))
+                .filter(ReactiveMongoRepository.class::isAssignableFrom)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Not a repository proxy : " + repository));
+    }
+}
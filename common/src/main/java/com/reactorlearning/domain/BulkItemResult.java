@@ -0,0 +1,19 @@
+package com.reactorlearning.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkItemResult {
+
+    /**
+     * Zero based position of the item in the request body.
+     */
+    private Long index;
+    private String id;
+    private BulkItemStatus status;
+    private String error;
+}
@@ -0,0 +1,22 @@
+package com.reactorlearning.domain;
+
+public enum BulkItemStatus {
+
+    INSERTED,
+    UPDATED,
+
+    /**
+     * The document failed validation and was not sent to Mongo.
+     */
+    INVALID,
+
+    /**
+     * Mongo rejected the write, e.g. a duplicate id on insert.
+     */
+    FAILED,
+
+    /**
+     * Not attempted because an earlier item of an ordered request failed.
+     */
+    SKIPPED
+}
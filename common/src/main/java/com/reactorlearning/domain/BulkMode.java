@@ -0,0 +1,17 @@
+package com.reactorlearning.domain;
+
+/**
+ * How a bulk ingestion request writes its documents.
+ */
+public enum BulkMode {
+
+    /**
+     * Insert every document, documents whose id already exists fail.
+     */
+    INSERT,
+
+    /**
+     * Replace documents whose id already exists and insert the others.
+     */
+    UPSERT
+}
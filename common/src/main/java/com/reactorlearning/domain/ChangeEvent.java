@@ -0,0 +1,22 @@
+package com.reactorlearning.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One change of a document, as sent by the live change feeds.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeEvent<T> {
+
+    private ChangeOperation operation;
+    private String id;
+
+    /**
+     * The document after the change, null for deletes and resets.
+     */
+    private T document;
+}
@@ -0,0 +1,19 @@
+package com.reactorlearning.domain;
+
+public enum ChangeOperation {
+
+    INSERT,
+    UPDATE,
+    REPLACE,
+
+    /**
+     * Only the id of a deleted document is known.
+     */
+    DELETE,
+
+    /**
+     * The feed could not resume where the subscriber left off, changes may have been missed and
+     * whatever the subscriber holds has to be reloaded.
+     */
+    RESET
+}
@@ -0,0 +1,33 @@
+package com.reactorlearning.domain;
+
+import com.reactorlearning.util.KeysetCursor;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset (seek) paginated listing.
+ * <p>
+ * Pages are read with {@code limit + 1} documents past the cursor key, the extra document only
+ * tells whether another page exists and is never returned.
+ */
+@Data
+@AllArgsConstructor
+public class KeysetPage<T> {
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private List<T> items;
+    private String nextCursor;
+
+    public static <T> KeysetPage<T> of(List<T> limitPlusOne, int limit, Function<T, String> keyExtractor) {
+
+        if(limitPlusOne.size() <= limit) {
+            return new KeysetPage<>(limitPlusOne, null);
+        }
+        var items = limitPlusOne.subList(0, limit);
+        return new KeysetPage<>(items, KeysetCursor.encode(keyExtractor.apply(items.get(limit - 1))));
+    }
+}
@@ -0,0 +1,149 @@
+package com.reactorlearning.logging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Writes one line per request to the {@code requestLog} logger: method, path, matched route,
+ * status, duration and request id as {@code key=value} pairs.
+ * <p>
+ * Requests are sampled per route, see {@link RequestLoggingProperties}. The request id is taken
+ * from the {@value #REQUEST_ID_HEADER} header or generated, echoed in the response and put in the
+ * Reactor Context for {@link SignalTracing}.
+ */
+@Slf4j(topic = "requestLog")
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@EnableConfigurationProperties(RequestLoggingProperties.class)
+public class RequestLoggingFilter implements WebFilter {
+
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    private static final Pattern VALID_REQUEST_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private RequestLoggingProperties requestLoggingProperties;
+    private List<Map.Entry<PathPattern, Double>> routeSampleRates;
+    private Set<String> tracedRequestIds = ConcurrentHashMap.newKeySet();
+
+    public RequestLoggingFilter(RequestLoggingProperties requestLoggingProperties) {
+        this.requestLoggingProperties = requestLoggingProperties;
+        this.routeSampleRates = requestLoggingProperties.getRoutes().entrySet().stream()
+                .map(route -> Map.entry(PathPatternParser.defaultInstance.parse(route.getKey()), route.getValue()))
+                .sorted(Map.Entry.comparingByKey(PathPattern.SPECIFICITY_COMPARATOR))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+        var requestId = requestId(exchange);
+        exchange.getResponse().getHeaders().set(REQUEST_ID_HEADER, requestId);
+        var traced = !tracedRequestIds.isEmpty() && tracedRequestIds.contains(requestId);
+
+        if(!requestLoggingProperties.isEnabled() && !traced) {
+            return chain.filter(exchange)
+                    .contextWrite(context -> context.put(SignalTracing.REQUEST_ID, requestId));
+        }
+
+        var sampled = traced || ThreadLocalRandom.current().nextDouble() < sampleRate(exchange);
+        var start = System.nanoTime();
+
+        return chain.filter(exchange)
+                .doOnSuccess(done -> log(exchange, requestId, start, sampled, null))
+                .doOnError(error -> {
+                    // the error handlers run after the filters, the status is only final once they commit
+                    if(exchange.getResponse().isCommitted()) {
+                        log(exchange, requestId, start, sampled, error.getClass().getSimpleName());
+                    } else {
+                        exchange.getResponse().beforeCommit(() -> Mono.fromRunnable(
+                                () -> log(exchange, requestId, start, sampled, error.getClass().getSimpleName())));
+                    }
+                })
+                // a committed response was complete as far as the client is concerned
+                .doOnCancel(() -> log(exchange, requestId, start, sampled,
+                        exchange.getResponse().isCommitted() ? null : "CANCELLED"))
+                .contextWrite(context -> context
+                        .put(SignalTracing.REQUEST_ID, requestId)
+                        .put(SignalTracing.TRACED, traced));
+    }
+
+    public Set<String> tracedRequestIds() {
+
+        return Set.copyOf(tracedRequestIds);
+    }
+
+    public boolean trace(String requestId) {
+
+        // bounded so a forgotten toggle cannot grow without limit
+        if(tracedRequestIds.size() >= requestLoggingProperties.getMaxTracedRequests()) {
+            return false;
+        }
+        return tracedRequestIds.add(requestId);
+    }
+
+    public boolean untrace(String requestId) {
+
+        return tracedRequestIds.remove(requestId);
+    }
+
+    private String requestId(ServerWebExchange exchange) {
+
+        var requestId = exchange.getRequest().getHeaders().getFirst(REQUEST_ID_HEADER);
+        if(requestId != null && VALID_REQUEST_ID.matcher(requestId).matches()) {
+            return requestId;
+        }
+        var random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private double sampleRate(ServerWebExchange exchange) {
+
+        if(routeSampleRates.isEmpty()) {
+            return requestLoggingProperties.getSampleRate();
+        }
+        var path = exchange.getRequest().getPath().pathWithinApplication();
+        return routeSampleRates.stream()
+                .filter(route -> route.getKey().matches(path))
+                .findFirst()
+                .map(Map.Entry::getValue)
+                .orElse(requestLoggingProperties.getSampleRate());
+    }
+
+    private void log(ServerWebExchange exchange, String requestId, long start, boolean sampled, String failure) {
+
+        var durationNanos = System.nanoTime() - start;
+        var status = exchange.getResponse().getRawStatusCode();
+        var serverError = status != null && HttpStatus.Series.resolve(status) == HttpStatus.Series.SERVER_ERROR;
+        if(!sampled && !serverError && durationNanos < requestLoggingProperties.getSlowThreshold().toNanos()) {
+            return;
+        }
+
+        var request = exchange.getRequest();
+        var route = exchange.getAttributeOrDefault(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, (Object) "UNKNOWN");
+        log.info("method={} path={} route={} status={} durationMs={} requestId={}{}",
+                request.getMethodValue(), request.getPath().value(), route, status == null ? "-" : status,
+                String.format("%.3f", durationNanos / (double) TimeUnit.MILLISECONDS.toNanos(1)), requestId,
+                failure == null ? "" : " failure=" + failure);
+    }
+}
@@ -0,0 +1,40 @@
+package com.reactorlearning.logging;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Request log settings, bound from {@code requestLogging.*}.
+ */
+@Data
+@ConfigurationProperties(prefix = "request-logging")
+public class RequestLoggingProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Fraction of requests logged when no route below matches, between 0 and 1.
+     */
+    private double sampleRate = 1.0;
+
+    /**
+     * Sample rate per path pattern, e.g. {@code "[/actuator/**]": 0.0}. The most specific
+     * matching pattern wins.
+     */
+    private Map<String, Double> routes = new LinkedHashMap<>();
+
+    /**
+     * Requests taking at least this long are logged whatever their sample rate, as are server
+     * errors and traced requests.
+     */
+    private Duration slowThreshold = Duration.ofSeconds(1);
+
+    /**
+     * Maximum number of request ids traced at the same time through the requesttracing endpoint.
+     */
+    private int maxTracedRequests = 100;
+}
@@ -0,0 +1,44 @@
+package com.reactorlearning.logging;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Turns signal level tracing on and off for single request ids at runtime, through
+ * {@code POST} and {@code DELETE /actuator/requesttracing/{requestId}}. The request to debug is then
+ * sent with that id in its {@value RequestLoggingFilter#REQUEST_ID_HEADER} header.
+ */
+@Component
+@Endpoint(id = "requesttracing")
+public class RequestTracingEndpoint {
+
+    private RequestLoggingFilter requestLoggingFilter;
+
+    public RequestTracingEndpoint(RequestLoggingFilter requestLoggingFilter) {
+        this.requestLoggingFilter = requestLoggingFilter;
+    }
+
+    @ReadOperation
+    public Set<String> tracedRequestIds() {
+
+        return requestLoggingFilter.tracedRequestIds();
+    }
+
+    @WriteOperation
+    public boolean trace(@Selector String requestId) {
+
+        return requestLoggingFilter.trace(requestId);
+    }
+
+    @DeleteOperation
+    public boolean untrace(@Selector String requestId) {
+
+        return requestLoggingFilter.untrace(requestId);
+    }
+}
@@ -0,0 +1,72 @@
+package com.reactorlearning.logging;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+import reactor.util.context.ContextView;
+
+import java.util.function.BiFunction;
+
+/**
+ * Signal level logging of a pipeline, switched on for single requests only.
+ * <p>
+ * {@link RequestLoggingFilter} puts the request id in the Reactor Context and flags it when it is
+ * being traced. Untraced requests pay one Context lookup per subscription and nothing per signal,
+ * so the operators stay in place in production. Apply with
+ * {@code flux.transformDeferredContextual(SignalTracing.flux("movieInfos.findAll"))}.
+ */
+@Slf4j
+public final class SignalTracing {
+
+    public static final String REQUEST_ID = "requestId";
+    public static final String TRACED = "signalTracing.traced";
+
+    private SignalTracing() {
+    }
+
+    public static <T> BiFunction<Flux<T>, ContextView, Flux<T>> flux(String category) {
+
+        return (flux, contextView) -> {
+            if(!isTraced(contextView)) {
+                return flux;
+            }
+            var requestId = contextView.get(REQUEST_ID);
+            return flux
+                    .doOnSubscribe(subscription -> trace(requestId, category, "onSubscribe"))
+                    .doOnRequest(n -> trace(requestId, category, "request(" + n + ")"))
+                    .doOnEach(signal -> trace(requestId, category, signal))
+                    .doOnCancel(() -> trace(requestId, category, "cancel"));
+        };
+    }
+
+    public static <T> BiFunction<Mono<T>, ContextView, Mono<T>> mono(String category) {
+
+        return (mono, contextView) -> {
+            if(!isTraced(contextView)) {
+                return mono;
+            }
+            var requestId = contextView.get(REQUEST_ID);
+            return mono
+                    .doOnSubscribe(subscription -> trace(requestId, category, "onSubscribe"))
+                    .doOnRequest(n -> trace(requestId, category, "request(" + n + ")"))
+                    .doOnEach(signal -> trace(requestId, category, signal))
+                    .doOnCancel(() -> trace(requestId, category, "cancel"));
+        };
+    }
+
+    private static boolean isTraced(ContextView contextView) {
+
+        return contextView.getOrDefault(TRACED, false);
+    }
+
+    private static void trace(Object requestId, String category, Signal<?> signal) {
+
+        trace(requestId, category, signal.toString());
+    }
+
+    private static void trace(Object requestId, String category, String signal) {
+
+        log.info("requestId={} category={} signal={}", requestId, category, signal);
+    }
+}
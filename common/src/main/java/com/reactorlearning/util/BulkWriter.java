@@ -0,0 +1,264 @@
+package com.reactorlearning.util;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.reactorlearning.domain.BulkItemResult;
+import com.reactorlearning.domain.BulkItemStatus;
+import com.reactorlearning.domain.BulkMode;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.function.Tuple2;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Streams documents into a collection in batches, one Mongo {@code bulkWrite} per batch, and
+ * reports the outcome of every item in request order.
+ * <p>
+ * Only one batch is written at a time and the next one is buffered while it runs, so memory is
+ * bounded by twice the batch size however large the input is. Items failing bean validation are
+ * reported {@link BulkItemStatus#INVALID} and never sent to Mongo. In ordered mode the first
+ * invalid or rejected item stops the ingestion and every item after it is reported
+ * {@link BulkItemStatus#SKIPPED}, in unordered mode the remaining items are still written.
+ */
+public class BulkWriter<T> {
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    private Validator validator;
+    private Class<T> entityClass;
+    private Function<T, String> idGetter;
+    private BiConsumer<T, String> idSetter;
+    private int batchSize;
+    private Scheduler validationScheduler;
+
+    /**
+     * @param validationScheduler runs the validation of each batch, which is CPU bound and scales
+     *                            with the batch size
+     */
+    public BulkWriter(ReactiveMongoTemplate reactiveMongoTemplate, Validator validator, Class<T> entityClass,
+                      Function<T, String> idGetter, BiConsumer<T, String> idSetter, int batchSize,
+                      Scheduler validationScheduler) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.validator = validator;
+        this.entityClass = entityClass;
+        this.idGetter = idGetter;
+        this.idSetter = idSetter;
+        this.batchSize = batchSize;
+        this.validationScheduler = validationScheduler;
+    }
+
+    /**
+     * @param aroundWrite gets the valid items of a batch and the pending write, and may run work
+     *                    before or after it, e.g. to keep derived data in step
+     */
+    public Flux<BulkItemResult> write(Flux<T> items, BulkMode mode, boolean ordered,
+                                      BiFunction<List<T>, Mono<WrittenItems<T>>, Mono<WrittenItems<T>>> aroundWrite) {
+
+        return Flux.defer(() -> {
+            var stopped = new AtomicBoolean();
+            return items.index()
+                    .buffer(batchSize)
+                    .concatMap(batch -> Flux.defer(() -> writeBatch(batch, mode, ordered, stopped, aroundWrite))
+                            .subscribeOn(validationScheduler), 1);
+        });
+    }
+
+    private Flux<BulkItemResult> writeBatch(List<Tuple2<Long, T>> batch, BulkMode mode, boolean ordered,
+                                            AtomicBoolean stopped,
+                                            BiFunction<List<T>, Mono<WrittenItems<T>>, Mono<WrittenItems<T>>> aroundWrite) {
+
+        var results = new BulkItemResult[batch.size()];
+        var positions = new ArrayList<Integer>();
+
+        for(int position = 0; position < batch.size(); position++) {
+            var index = batch.get(position).getT1();
+            var item = batch.get(position).getT2();
+
+            if(stopped.get()) {
+                results[position] = new BulkItemResult(index, idGetter.apply(item), BulkItemStatus.SKIPPED, null);
+                continue;
+            }
+            var violations = violations(item);
+            if(violations != null) {
+                results[position] = new BulkItemResult(index, idGetter.apply(item), BulkItemStatus.INVALID, violations);
+                stopped.set(ordered);
+                continue;
+            }
+            // ids are assigned up front so every result can report the id of its document
+            if(idGetter.apply(item) == null) {
+                idSetter.accept(item, new ObjectId().toHexString());
+            }
+            positions.add(position);
+        }
+
+        if(positions.isEmpty()) {
+            return Flux.fromArray(results);
+        }
+
+        var validItems = positions.stream()
+                .map(position -> batch.get(position).getT2())
+                .collect(Collectors.toList());
+        var write = bulkWrite(validItems, mode, ordered)
+                .map(outcome -> {
+                    var writtenItems = new WrittenItems<T>(new ArrayList<>(), new ArrayList<>());
+                    for(int i = 0; i < validItems.size(); i++) {
+                        var position = positions.get(i);
+                        var item = validItems.get(i);
+                        var status = outcome.status(i, ordered);
+                        var error = status == BulkItemStatus.FAILED ? outcome.errors.get(i) : null;
+                        results[position] = new BulkItemResult(batch.get(position).getT1(), idGetter.apply(item), status, error);
+
+                        if(status == BulkItemStatus.INSERTED) {
+                            writtenItems.getInserted().add(item);
+                        } else if(status == BulkItemStatus.UPDATED) {
+                            writtenItems.getUpdated().add(item);
+                        }
+                    }
+                    if(ordered && !outcome.errors.isEmpty()) {
+                        stopped.set(true);
+                    }
+                    return writtenItems;
+                });
+
+        return aroundWrite.apply(validItems, write)
+                .thenMany(Flux.defer(() -> Flux.fromArray(results)));
+    }
+
+    private String violations(T item) {
+
+        var constraintViolations = validator.validate(item);
+        if(constraintViolations.isEmpty()) {
+            return null;
+        }
+        return constraintViolations
+                .stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
+    private Mono<BulkOutcome> bulkWrite(List<T> items, BulkMode mode, boolean ordered) {
+
+        var entity = reactiveMongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(entityClass);
+        var models = new ArrayList<WriteModel<Document>>();
+        for(var item : items) {
+            var document = new Document();
+            reactiveMongoTemplate.getConverter().write(item, document);
+
+            // an upsert without an id has nothing to match, its id was generated above
+            if(mode == BulkMode.UPSERT) {
+                models.add(new UpdateOneModel<>(Filters.eq("_id", document.get("_id")), replacement(entity, document),
+                        new UpdateOptions().upsert(true)));
+            } else {
+                if(entity.hasVersionProperty()) {
+                    document.put(entity.getRequiredVersionProperty().getFieldName(), 0L);
+                }
+                models.add(new InsertOneModel<>(document));
+            }
+        }
+
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(entityClass))
+                .flatMap(collection -> Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(ordered))))
+                .map(bulkWriteResult -> new BulkOutcome(mode, bulkWriteResult, Map.of()))
+                .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(new BulkOutcome(mode,
+                        ex.getWriteResult(),
+                        ex.getWriteErrors().stream()
+                                .collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getMessage)))));
+    }
+
+    /**
+     * Replaces the whole document like a {@code replaceOne} would, but as an update so the
+     * version can be incremented instead of being overwritten with whatever the item carried.
+     */
+    private Document replacement(MongoPersistentEntity<?> entity, Document document) {
+
+        var set = new Document(document);
+        set.remove("_id");
+        var unset = new Document();
+        var update = new Document();
+        for(var property : entity) {
+            if(property.isIdProperty()) {
+                continue;
+            }
+            if(property.isVersionProperty()) {
+                set.remove(property.getFieldName());
+                update.put("$inc", new Document(property.getFieldName(), 1L));
+            } else if(!set.containsKey(property.getFieldName())) {
+                unset.put(property.getFieldName(), "");
+            }
+        }
+        // empty operators are rejected by Mongo
+        if(!set.isEmpty()) {
+            update.put("$set", set);
+        }
+        if(!unset.isEmpty()) {
+            update.put("$unset", unset);
+        }
+        return update;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class WrittenItems<T> {
+
+        private List<T> inserted;
+        private List<T> updated;
+    }
+
+    private static class BulkOutcome {
+
+        private BulkMode mode;
+        private Set<Integer> upserted;
+        private Map<Integer, String> errors;
+        private int firstError;
+
+        BulkOutcome(BulkMode mode, BulkWriteResult bulkWriteResult, Map<Integer, String> errors) {
+            this.mode = mode;
+            this.upserted = bulkWriteResult.getUpserts().stream()
+                    .map(BulkWriteUpsert::getIndex)
+                    .collect(Collectors.toSet());
+            this.errors = errors;
+            this.firstError = errors.keySet().stream().min(Integer::compare).orElse(Integer.MAX_VALUE);
+        }
+
+        BulkItemStatus status(int modelIndex, boolean ordered) {
+
+            if(errors.containsKey(modelIndex)) {
+                return BulkItemStatus.FAILED;
+            }
+            // an ordered bulk write stops at its first error, later models were never attempted
+            if(ordered && modelIndex > firstError) {
+                return BulkItemStatus.SKIPPED;
+            }
+            if(mode == BulkMode.UPSERT && !upserted.contains(modelIndex)) {
+                return BulkItemStatus.UPDATED;
+            }
+            return BulkItemStatus.INSERTED;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.reactorlearning.util;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.reactorlearning.config.ChangeFeedProperties;
+import com.reactorlearning.domain.ChangeEvent;
+import com.reactorlearning.domain.ChangeOperation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Live feed of the changes of one collection, read from a Mongo change stream and shared by every
+ * subscriber as server-sent events.
+ * <p>
+ * A single change stream is open while at least one subscriber listens, and is resumed from its
+ * last event when it fails, up to {@code changeFeed.maxRetries} times in a row before the
+ * subscribers get the error and have to reconnect. When its resume token is no longer usable, e.g.
+ * the oplog rolled over during an outage, the replayed event ids are forgotten, every subscriber
+ * gets a {@link ChangeOperation#RESET} event and the stream restarts from now. Each subscriber has
+ * its own buffer of {@code changeFeed.bufferSize} events, so a slow one never holds back the
+ * others, and {@code changeFeed.overflow} decides what happens when it fills up.
+ * <p>
+ * Every event id is the change stream resume token of the event. The last
+ * {@code changeFeed.replaySize} events are kept, a subscriber reconnecting with the id of one of
+ * them gets what it missed from memory before the live events. Older ids, and ids issued by
+ * another instance, resume a change stream of their own for that subscriber, only until it
+ * reaches an event the shared stream has replayed, the subscriber then continues with the shared
+ * stream. When Mongo no longer has the history to resume from, the subscriber gets a
+ * {@link ChangeOperation#RESET} event and continues with the live events.
+ * <p>
+ * Publishes the {@code changeFeed.subscribers} gauge and the {@code changeFeed.overflows},
+ * {@code changeFeed.resumes} and {@code changeFeed.restarts} counters tagged with the feed name, the
+ * restarts of the shared change stream are tagged {@code cause=ERROR|HISTORY_LOST}.
+ */
+@Slf4j
+public class ChangeFeed<T> {
+
+    // InvalidResumeToken, ChangeStreamFatalError, ChangeStreamHistoryLost
+    private static final Set<Integer> HISTORY_LOST_CODES = Set.of(260, 280, 286);
+    private static final String NON_RESUMABLE_LABEL = "NonResumableChangeStreamError";
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    private Class<T> entityClass;
+    private String name;
+    private ChangeFeedProperties changeFeedProperties;
+    private MeterRegistry meterRegistry;
+    private AtomicLong sequence = new AtomicLong();
+    private Map<String, Long> sequenceByEventId;
+    private volatile BsonValue lastResumeToken;
+    private AtomicBoolean resynced = new AtomicBoolean();
+    private Flux<FeedEvent<T>> shared;
+    private AtomicInteger subscribers = new AtomicInteger();
+    private Counter overflows;
+
+    public ChangeFeed(ReactiveMongoTemplate reactiveMongoTemplate, Class<T> entityClass, String name,
+                      ChangeFeedProperties changeFeedProperties, MeterRegistry meterRegistry) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.entityClass = entityClass;
+        this.name = name;
+        this.changeFeedProperties = changeFeedProperties;
+        this.meterRegistry = meterRegistry;
+        this.sequenceByEventId = Collections.synchronizedMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > changeFeedProperties.getReplaySize();
+            }
+        });
+        this.overflows = Counter.builder("changeFeed.overflows")
+                .tag("feed", name)
+                .register(meterRegistry);
+        Gauge.builder("changeFeed.subscribers", subscribers, AtomicInteger::get)
+                .tag("feed", name)
+                .register(meterRegistry);
+
+        // a lost history is not retried, resuming from the same token would fail the same way forever
+        this.shared = Flux.defer(() -> changeStream(lastResumeToken))
+                .retryWhen(Retry.backoff(changeFeedProperties.getMaxRetries(), Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        // the attempts are counted again from the first event that made it through
+                        .transientErrors(true)
+                        .filter(ex -> !historyLost(ex))
+                        .doBeforeRetry(signal -> {
+                            countRestart("ERROR");
+                            log.warn("Change stream of {} failed, resuming : {}", name, signal.failure().getMessage());
+                        }))
+                .map(event -> {
+                    lastResumeToken = event.getResumeToken();
+                    var feedEvent = new FeedEvent<>(sequence.incrementAndGet(), eventId(event), toChangeEvent(event));
+                    sequenceByEventId.put(feedEvent.getId(), feedEvent.getSequence());
+                    return feedEvent;
+                })
+                .onErrorResume(ChangeFeed::historyLost, this::resync)
+                // a resync completes the stream it replaced, the next one starts from now. Any other completion,
+                // e.g. the collection being dropped, ends the feed
+                .repeat(() -> resynced.getAndSet(false))
+                .doOnError(ex -> log.error("Change stream of {} failed for good, ending the subscribers' feeds", name, ex))
+                // without subscribers nobody needs the changes in between, the next one starts from now
+                .doFinally(signalType -> {
+                    lastResumeToken = null;
+                    sequenceByEventId.clear();
+                })
+                .replay(changeFeedProperties.getReplaySize())
+                .refCount();
+    }
+
+    /**
+     * @param lastEventId the id of the last event the subscriber received, null for only the changes from now on
+     * @param filter      the changes the subscriber is interested in, resets always pass
+     */
+    public Flux<ServerSentEvent<ChangeEvent<T>>> listen(String lastEventId, Predicate<ChangeEvent<T>> filter) {
+
+        var events = Flux.defer(() -> lastEventId == null ? live(sequence.get()) : resume(lastEventId))
+                .filter(event -> event.getChange().getOperation() == ChangeOperation.RESET || filter.test(event.getChange()))
+                .onBackpressureBuffer(changeFeedProperties.getBufferSize(), dropped -> overflows.increment(),
+                        changeFeedProperties.getOverflow())
+                .map(event -> ServerSentEvent.builder(event.getChange())
+                        .id(event.getId())
+                        .event(event.getChange().getOperation().name())
+                        .build());
+
+        // the first heartbeat goes out right away, it commits the response before any change happens
+        return events
+                .publish(sharedEvents -> sharedEvents.mergeWith(Flux.interval(Duration.ZERO, changeFeedProperties.getHeartbeat())
+                        .map(tick -> ServerSentEvent.<ChangeEvent<T>>builder().comment("heartbeat").build())
+                        .takeUntilOther(sharedEvents.then())))
+                .doOnSubscribe(subscription -> subscribers.incrementAndGet())
+                .doFinally(signalType -> subscribers.decrementAndGet());
+    }
+
+    private Flux<FeedEvent<T>> live(long afterSequence) {
+
+        // the replayed events the subscriber has already seen, or was not listening for, are skipped
+        return shared.filter(event -> event.getSequence() > afterSequence);
+    }
+
+    private Flux<FeedEvent<T>> resume(String lastEventId) {
+
+        var lastSequence = sequenceByEventId.get(lastEventId);
+        if(lastSequence == null) {
+            return resumeChangeStream(lastEventId);
+        }
+        // the event may have left the replayed ones since, a gap means resuming from Mongo after all
+        return live(lastSequence)
+                .switchOnFirst((first, events) -> first.hasValue() && first.get().getSequence() > lastSequence + 1
+                        ? events.take(0).thenMany(resumeChangeStream(lastEventId))
+                        : countResume("REPLAY").thenMany(events));
+    }
+
+    private Flux<FeedEvent<T>> resumeChangeStream(String lastEventId) {
+
+        var resumeToken = resumeToken(lastEventId);
+        if(resumeToken == null) {
+            return reset();
+        }
+        // the shared stream is kept open while catching up, its replayed events are where the catch-up ends
+        return Flux.using(() -> shared.subscribe(event -> { }, ex -> { }),
+                keepOpen -> countResume("CHANGE_STREAM").thenMany(catchUp(resumeToken)),
+                Disposable::dispose);
+    }
+
+    /**
+     * The events from the resume token on, until the first one the shared stream has replayed as
+     * well, then the shared events after it.
+     */
+    private Flux<FeedEvent<T>> catchUp(BsonValue resumeToken) {
+
+        var caughtUpAt = new AtomicLong();
+        return changeStream(resumeToken)
+                .map(event -> {
+                    var eventId = eventId(event);
+                    return new FeedEvent<>(sequenceByEventId.getOrDefault(eventId, 0L), eventId, toChangeEvent(event));
+                })
+                // cancels the private change stream once the shared one has the same event
+                .takeUntil(event -> event.getSequence() > 0)
+                .doOnNext(event -> caughtUpAt.set(event.getSequence()))
+                .onErrorResume(ChangeFeed::historyLost, ex -> reset())
+                .concatWith(Flux.defer(() -> caughtUpAt.get() > 0 ? live(caughtUpAt.get()) : Flux.empty()));
+    }
+
+    private Flux<FeedEvent<T>> resync(Throwable ex) {
+
+        return Flux.defer(() -> {
+            log.warn("Change stream of {} cannot resume, restarting from now : {}", name, ex.getMessage());
+            countRestart("HISTORY_LOST");
+            resynced.set(true);
+            lastResumeToken = null;
+            // the replayed ids come before the gap, resuming from them has to end in a reset as well
+            sequenceByEventId.clear();
+            return Flux.just(new FeedEvent<T>(sequence.incrementAndGet(), null,
+                    new ChangeEvent<>(ChangeOperation.RESET, null, null)));
+        });
+    }
+
+    private Flux<FeedEvent<T>> reset() {
+
+        return Flux.defer(() -> {
+            var afterSequence = sequence.get();
+            return countResume("RESET")
+                    .thenMany(Flux.just(new FeedEvent<T>(0, null, new ChangeEvent<>(ChangeOperation.RESET, null, null))))
+                    .concatWith(live(afterSequence));
+        });
+    }
+
+    private Mono<Void> countResume(String source) {
+
+        return Mono.fromRunnable(() -> meterRegistry.counter("changeFeed.resumes",
+                "feed", name,
+                "source", source).increment());
+    }
+
+    private void countRestart(String cause) {
+
+        meterRegistry.counter("changeFeed.restarts",
+                "feed", name,
+                "cause", cause).increment();
+    }
+
+    private Flux<ChangeStreamEvent<T>> changeStream(BsonValue resumeToken) {
+
+        return reactiveMongoTemplate.changeStream(entityClass)
+                .withOptions(options -> {
+                    options.fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+                    if(resumeToken != null) {
+                        options.resumeAfter(resumeToken);
+                    }
+                })
+                .watchCollection(entityClass)
+                .filter(where("operationType").in("insert", "update", "replace", "delete"))
+                .listen();
+    }
+
+    private ChangeEvent<T> toChangeEvent(ChangeStreamEvent<T> event) {
+
+        var id = event.getRaw() == null || event.getRaw().getDocumentKey() == null
+                ? null
+                : event.getRaw().getDocumentKey().get("_id");
+        return new ChangeEvent<>(ChangeOperation.valueOf(event.getOperationType().name()), idString(id), event.getBody());
+    }
+
+    private static String idString(BsonValue id) {
+
+        if(id == null) {
+            return null;
+        }
+        if(id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        if(id.isString()) {
+            return id.asString().getValue();
+        }
+        if(id.isInt64()) {
+            return String.valueOf(id.asInt64().getValue());
+        }
+        return id.toString();
+    }
+
+    private static String eventId(ChangeStreamEvent<?> event) {
+
+        return KeysetCursor.encode(event.getResumeToken().asDocument().toJson());
+    }
+
+    private static BsonValue resumeToken(String eventId) {
+
+        try {
+            return BsonDocument.parse(KeysetCursor.decode(eventId));
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    static boolean historyLost(Throwable ex) {
+
+        for(var cause = ex; cause != null; cause = cause.getCause()) {
+            if(cause instanceof MongoCommandException
+                    && HISTORY_LOST_CODES.contains(((MongoCommandException) cause).getErrorCode())) {
+                return true;
+            }
+            if(cause instanceof MongoException && ((MongoException) cause).hasErrorLabel(NON_RESUMABLE_LABEL)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class FeedEvent<T> {
+
+        /**
+         * Position in the shared change stream, 0 for events that did not come through it.
+         */
+        private long sequence;
+        private String id;
+        private ChangeEvent<T> change;
+    }
+}
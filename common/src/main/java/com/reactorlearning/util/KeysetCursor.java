@@ -0,0 +1,34 @@
+package com.reactorlearning.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque pagination cursor carrying the key of the last document of a page.
+ * <p>
+ * A cursor that does not decode is an {@link IllegalArgumentException}, each service answers it
+ * as a bad request of its own.
+ */
+public final class KeysetCursor {
+
+    private KeysetCursor() {
+    }
+
+    public static String encode(String key) {
+
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decode(String cursor) {
+
+        if(cursor == null) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid cursor : " + cursor, ex);
+        }
+    }
+}
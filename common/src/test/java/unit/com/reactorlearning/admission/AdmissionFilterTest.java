@@ -0,0 +1,225 @@
+package com.reactorlearning.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionFilterTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    AdmissionProperties admissionProperties = new AdmissionProperties();
+
+    AtomicLong nanoTime = new AtomicLong();
+
+    AtomicInteger handled = new AtomicInteger();
+
+    WebFilterChain chain = exchange -> Mono.fromRunnable(handled::incrementAndGet);
+
+    @Test
+    void filter_rateLimitsEachClient() {
+
+        admissionProperties.setDefaultRate(new AdmissionProperties.Rate(2, 1));
+        var admissionFilter = admissionFilter();
+
+        assertNull(filter(admissionFilter, address("10.0.0.1")));
+        assertNull(filter(admissionFilter, address("10.0.0.1")));
+        var rejected = MockServerWebExchange.from(address("10.0.0.1"));
+        admissionFilter.filter(rejected, chain).block();
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getResponse().getStatusCode());
+        assertEquals("1", rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        // another client has a bucket of its own
+        assertNull(filter(admissionFilter, address("10.0.0.2")));
+
+        nanoTime.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertNull(filter(admissionFilter, address("10.0.0.1")));
+
+        assertEquals(4, handled.get());
+        assertEquals(1.0, meterRegistry.get("admission.rejections").tag("reason", "RATE_LIMITED").counter().count());
+    }
+
+    @Test
+    void filter_appliesTheMostSpecificRoute() {
+
+        admissionProperties.getRoutes().put("GET /v1/movieinfos", new AdmissionProperties.Rate(1, 1));
+        admissionProperties.getRoutes().put("/v1/movieinfos/**", new AdmissionProperties.Rate(0, 0));
+        var admissionFilter = admissionFilter();
+
+        assertNull(filter(admissionFilter, MockServerHttpRequest.get("/v1/movieinfos")));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, filter(admissionFilter, MockServerHttpRequest.get("/v1/movieinfos")));
+        // other methods and unlimited routes are not held back by the exhausted bucket
+        assertNull(filter(admissionFilter, MockServerHttpRequest.post("/v1/movieinfos")));
+        for(int i = 0; i < 200; i++) {
+            assertNull(filter(admissionFilter, MockServerHttpRequest.get("/v1/movieinfos/abc")));
+        }
+    }
+
+    @Test
+    void filter_appliesClientRates() {
+
+        admissionProperties.setDefaultRate(new AdmissionProperties.Rate(1, 1));
+        admissionProperties.getClients().put("movies-service", new AdmissionProperties.Rate(100, 100));
+        var admissionFilter = admissionFilter();
+
+        for(int i = 0; i < 100; i++) {
+            assertNull(filter(admissionFilter, client("movies-service")));
+        }
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, filter(admissionFilter, client("movies-service")));
+    }
+
+    @Test
+    void filter_limitsUnknownApiKeysByAddress() {
+
+        admissionProperties.setDefaultRate(new AdmissionProperties.Rate(1, 1));
+        admissionProperties.getClients().put("movies-service", new AdmissionProperties.Rate(100, 100));
+        var admissionFilter = admissionFilter();
+
+        assertNull(filter(admissionFilter, address("10.0.0.1").header(admissionProperties.getClientHeader(), "client-a")));
+        // a made up key does not get a bucket of its own
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS,
+                filter(admissionFilter, address("10.0.0.1").header(admissionProperties.getClientHeader(), "client-b")));
+        assertNull(filter(admissionFilter, address("10.0.0.1").header(admissionProperties.getClientHeader(), "movies-service")));
+    }
+
+    @Test
+    void filter_limitsRequestsInFlight() {
+
+        admissionProperties.getConcurrency().setInitialLimit(1);
+        admissionProperties.getConcurrency().setMinLimit(1);
+        var admissionFilter = admissionFilter();
+        var inFlight = Sinks.empty();
+
+        var first = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos"));
+        StepVerifier.create(admissionFilter.filter(first, exchange -> inFlight.asMono().then()))
+                .then(() -> {
+                    var second = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos"));
+                    admissionFilter.filter(second, chain).block();
+                    assertEquals(HttpStatus.TOO_MANY_REQUESTS, second.getResponse().getStatusCode());
+                })
+                .then(inFlight::tryEmitEmpty)
+                .verifyComplete();
+
+        assertNull(filter(admissionFilter, MockServerHttpRequest.get("/v1/movieinfos")));
+        assertEquals(1.0, meterRegistry.get("admission.rejections").tag("reason", "CONCURRENCY_LIMITED").counter().count());
+    }
+
+    @Test
+    void filter_holdsTheSlotUntilTheBodyIsWritten() {
+
+        var admissionFilter = admissionFilter();
+        Sinks.Empty<Void> body = Sinks.empty();
+
+        StepVerifier.create(admissionFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                        exchange -> exchange.getResponse().setComplete().then(body.asMono())))
+                .then(() -> assertEquals(1.0, meterRegistry.get("admission.inFlight").gauge().value()))
+                .then(body::tryEmitEmpty)
+                .verifyComplete();
+        assertEquals(0.0, meterRegistry.get("admission.inFlight").gauge().value());
+    }
+
+    @Test
+    void filter_releasesTheSlotOnCommitForConfiguredRoutes() {
+
+        admissionProperties.getConcurrency().getReleaseOnCommit().add("GET /v1/movieinfos/stream");
+        var admissionFilter = admissionFilter();
+        Sinks.Empty<Void> body = Sinks.empty();
+
+        StepVerifier.create(admissionFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos/stream")),
+                        exchange -> exchange.getResponse().setComplete().then(body.asMono())))
+                .then(() -> assertEquals(0.0, meterRegistry.get("admission.inFlight").gauge().value()))
+                .then(body::tryEmitEmpty)
+                .verifyComplete();
+        assertEquals(0.0, meterRegistry.get("admission.inFlight").gauge().value());
+    }
+
+    @Test
+    void filter_adaptsTheConcurrencyLimitToLatency() {
+
+        var admissionFilter = admissionFilter();
+
+        admissionFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> Mono.fromRunnable(() -> nanoTime.addAndGet(Duration.ofSeconds(1).toNanos()))).block();
+        assertEquals(90.0, meterRegistry.get("admission.concurrency.limit").gauge().value(), 0.001);
+
+        admissionFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> Mono.fromRunnable(() -> nanoTime.addAndGet(Duration.ofSeconds(1).toNanos()))).block();
+        assertEquals(81.0, meterRegistry.get("admission.concurrency.limit").gauge().value(), 0.001);
+        assertEquals(0.0, meterRegistry.get("admission.inFlight").gauge().value());
+    }
+
+    @Test
+    void filter_shrinksTheConcurrencyLimitOncePerRoundTrip() {
+
+        var admissionFilter = admissionFilter();
+        Sinks.Empty<Void> first = Sinks.empty();
+        Sinks.Empty<Void> second = Sinks.empty();
+        admissionFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> first.asMono()).subscribe();
+        admissionFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> second.asMono()).subscribe();
+
+        nanoTime.addAndGet(Duration.ofSeconds(1).toNanos());
+        first.tryEmitEmpty();
+        second.tryEmitEmpty();
+        // both were admitted before the limit shrank, the second slow response is the same congestion
+        assertEquals(90.0, meterRegistry.get("admission.concurrency.limit").gauge().value(), 0.001);
+
+        admissionFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")),
+                exchange -> Mono.fromRunnable(() -> nanoTime.addAndGet(Duration.ofSeconds(1).toNanos()))).block();
+        assertEquals(81.0, meterRegistry.get("admission.concurrency.limit").gauge().value(), 0.001);
+        assertEquals(0.0, meterRegistry.get("admission.inFlight").gauge().value());
+    }
+
+    @Test
+    void filter_disabled() {
+
+        admissionProperties.setEnabled(false);
+        admissionProperties.setDefaultRate(new AdmissionProperties.Rate(1, 1));
+        var admissionFilter = admissionFilter();
+
+        assertNull(filter(admissionFilter, client("client-a")));
+        assertNull(filter(admissionFilter, client("client-a")));
+    }
+
+    private AdmissionFilter admissionFilter() {
+
+        return new AdmissionFilter(admissionProperties, meterRegistry, nanoTime::get);
+    }
+
+    private MockServerHttpRequest.BaseBuilder<?> client(String apiKey) {
+
+        return MockServerHttpRequest.get("/v1/movieinfos")
+                .header(admissionProperties.getClientHeader(), apiKey);
+    }
+
+    private MockServerHttpRequest.BaseBuilder<?> address(String host) {
+
+        return MockServerHttpRequest.get("/v1/movieinfos")
+                .remoteAddress(new InetSocketAddress(host, 8080));
+    }
+
+    /**
+     * @return the status set by the filter, null when the request was let through
+     */
+    private HttpStatus filter(AdmissionFilter admissionFilter, MockServerHttpRequest.BaseBuilder<?> request) {
+
+        var exchange = MockServerWebExchange.from(request);
+        admissionFilter.filter(exchange, chain).block();
+        return exchange.getResponse().getStatusCode();
+    }
+}
@@ -0,0 +1,59 @@
+package com.reactorlearning.config;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionConfigTest {
+
+    @Test
+    void blockingScheduler_virtualThreads() {
+
+        var scheduler = ExecutionConfig.blockingScheduler(ExecutionMode.VIRTUAL_THREADS,
+                () -> Executors.newCachedThreadPool(task -> new Thread(task, "virtual")));
+        try {
+            StepVerifier.create(threadName().subscribeOn(scheduler))
+                    .expectNext("virtual")
+                    .verifyComplete();
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    void blockingScheduler_virtualThreadsUnavailable() {
+
+        var scheduler = ExecutionConfig.blockingScheduler(ExecutionMode.VIRTUAL_THREADS, () -> {
+            throw new UnsupportedOperationException("Executors.newVirtualThreadPerTaskExecutor is missing");
+        });
+        try {
+            StepVerifier.create(threadName().subscribeOn(scheduler))
+                    .assertNext(threadName -> assertTrue(threadName.startsWith(ExecutionConfig.BLOCKING_SCHEDULER_NAME)))
+                    .verifyComplete();
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    void blockingScheduler_eventLoop() {
+
+        var scheduler = ExecutionConfig.blockingScheduler(ExecutionMode.EVENT_LOOP, () -> {
+            throw new AssertionError("no executor is needed on the event loop");
+        });
+
+        StepVerifier.create(threadName().subscribeOn(scheduler).subscribeOn(Schedulers.parallel()))
+                .assertNext(threadName -> assertTrue(threadName.startsWith("parallel")))
+                .verifyComplete();
+    }
+
+    private Mono<String> threadName() {
+
+        return Mono.fromCallable(() -> Thread.currentThread().getName());
+    }
+}
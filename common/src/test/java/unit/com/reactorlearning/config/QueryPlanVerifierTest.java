@@ -0,0 +1,158 @@
+package com.reactorlearning.config;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandStartedEvent;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ResolvableType;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class QueryPlanVerifierTest {
+
+    private static final String FIND_BY_NAME = "{ 'find': 'item', 'filter': { 'name': '0' }, '$db': 'test' }";
+
+    @Test
+    void verifyOnStartup_rejectsCollectionScan() {
+
+        var reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(reactiveMongoTemplate.executeCommand(any(Document.class))).thenReturn(Mono.just(explained(
+                "{ 'stage': 'COLLSCAN', 'filter': { 'name': { '$eq': '0' } }, 'direction': 'forward' }")));
+        var queryPlanVerifier = new QueryPlanVerifier();
+
+        var exception = assertThrows(IllegalStateException.class,
+                () -> queryPlanVerifier.verifyOnStartup(readyEvent(queryPlanVerifier, reactiveMongoTemplate)));
+
+        assertTrue(exception.getMessage().contains("ItemRepository.findByName : "), exception.getMessage());
+        assertTrue(exception.getMessage().contains("COLLSCAN"), exception.getMessage());
+        verify(reactiveMongoTemplate).executeCommand(new Document("explain",
+                Document.parse("{ 'find': 'item', 'filter': { 'name': '0' } }")).append("verbosity", "queryPlanner"));
+    }
+
+    @Test
+    void verifyOnStartup_acceptsIndexScan() {
+
+        var reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(reactiveMongoTemplate.executeCommand(any(Document.class))).thenReturn(Mono.just(explained(
+                "{ 'stage': 'FETCH', 'inputStage': { 'stage': 'IXSCAN', 'indexName': 'name_1' } }")));
+        var queryPlanVerifier = new QueryPlanVerifier();
+
+        assertDoesNotThrow(() -> queryPlanVerifier.verifyOnStartup(readyEvent(queryPlanVerifier, reactiveMongoTemplate)));
+    }
+
+    /**
+     * A context holding a single repository whose query method sends {@link #FIND_BY_NAME} through the
+     * driver listener the verifier registers, the way a repository on a real client would.
+     */
+    private static ApplicationReadyEvent readyEvent(QueryPlanVerifier queryPlanVerifier,
+                                                    ReactiveMongoTemplate reactiveMongoTemplate) {
+
+        var settings = MongoClientSettings.builder();
+        queryPlanVerifier.queryPlanVerifierCommandCapture().customize(settings);
+        var commandListener = settings.build().getCommandListeners().get(0);
+        var connection = new ConnectionDescription(new ServerId(new ClusterId(), new ServerAddress()));
+
+        var repository = ProxyFactory.getProxy(ItemRepository.class, (MethodInterceptor) invocation -> Mono
+                .fromRunnable(() -> commandListener.commandStarted(new CommandStartedEvent(1, connection, "test",
+                        "find", BsonDocument.parse(FIND_BY_NAME))))
+                .thenMany(Flux.empty()));
+
+        var context = mock(ConfigurableApplicationContext.class);
+        when(context.getBeansOfType(ReactiveMongoRepository.class)).thenReturn(Map.of("itemRepository", repository));
+        when(context.getBean(ReactiveMongoTemplate.class)).thenReturn(reactiveMongoTemplate);
+        when(context.getBean(MongoMappingContext.class)).thenReturn(new MongoMappingContext());
+        return new ApplicationReadyEvent(new SpringApplication(), new String[0], context, null);
+    }
+
+    private static Document explained(String winningPlan) {
+
+        return new Document("queryPlanner", new Document("winningPlan", Document.parse(winningPlan)));
+    }
+
+    @Test
+    void collectionScans_nestedInOrStage() {
+
+        var plan = Document.parse("{ 'stage': 'FETCH', 'inputStage': { 'stage': 'OR', 'inputStages': ["
+                + "{ 'stage': 'IXSCAN', 'indexName': '_id_' },"
+                + "{ 'stage': 'COLLSCAN', 'direction': 'forward' } ] } }");
+
+        var collectionScans = QueryPlanVerifier.collectionScans(plan);
+
+        assertEquals(1, collectionScans.size());
+        assertEquals("forward", collectionScans.get(0).getString("direction"));
+    }
+
+    @Test
+    void collectionScans_indexScan() {
+
+        var plan = Document.parse("{ 'stage': 'FETCH', 'inputStage': { 'stage': 'IXSCAN', 'indexName': 'year_id' } }");
+
+        assertTrue(QueryPlanVerifier.collectionScans(plan).isEmpty());
+    }
+
+    @Test
+    void explainable_dropsSessionAndDatabaseFields() {
+
+        var command = Document.parse("{ 'find': 'movieInfo', 'filter': { 'year': 0 }, "
+                + "'$db': 'test', 'lsid': { 'id': 1 }, '$clusterTime': {} }");
+
+        var explainable = QueryPlanVerifier.explainable(command);
+
+        assertEquals(Document.parse("{ 'find': 'movieInfo', 'filter': { 'year': 0 } }"), explainable);
+    }
+
+    @Test
+    void sampleArgument() throws NoSuchMethodException {
+
+        var method = Samples.class.getDeclaredMethod("query", Collection.class, Pageable.class, Integer.class);
+
+        assertEquals(List.of("0"), QueryPlanVerifier.sampleArgument(ResolvableType.forMethodParameter(method, 0), "movieInfoId"));
+        assertEquals(PageRequest.of(0, 1, Sort.by("movieInfoId")),
+                QueryPlanVerifier.sampleArgument(ResolvableType.forMethodParameter(method, 1), "movieInfoId"));
+        assertEquals(0, QueryPlanVerifier.sampleArgument(ResolvableType.forMethodParameter(method, 2), "movieInfoId"));
+    }
+
+    interface Samples {
+
+        void query(Collection<String> ids, Pageable pageable, Integer year);
+    }
+
+    static class Item {
+
+        @Id
+        String itemId;
+        String name;
+    }
+
+    interface ItemRepository extends ReactiveMongoRepository<Item, String> {
+
+        Flux<Item> findByName(String name);
+    }
+}
@@ -0,0 +1,110 @@
+package com.reactorlearning.logging;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestLoggingFilterTest {
+
+    RequestLoggingProperties requestLoggingProperties = new RequestLoggingProperties();
+
+    RequestLoggingFilter requestLoggingFilter = new RequestLoggingFilter(requestLoggingProperties);
+
+    @Test
+    void filter_keepsValidRequestId() {
+
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")
+                .header(RequestLoggingFilter.REQUEST_ID_HEADER, "abc-123"));
+        var requestId = new AtomicReference<String>();
+
+        StepVerifier.create(requestLoggingFilter.filter(exchange, contextCapturing(requestId, new AtomicReference<>())))
+                .verifyComplete();
+
+        assertEquals("abc-123", requestId.get());
+        assertEquals("abc-123", exchange.getResponse().getHeaders().getFirst(RequestLoggingFilter.REQUEST_ID_HEADER));
+    }
+
+    @Test
+    void filter_replacesInvalidRequestId() {
+
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")
+                .header(RequestLoggingFilter.REQUEST_ID_HEADER, "not a valid id"));
+        var requestId = new AtomicReference<String>();
+
+        StepVerifier.create(requestLoggingFilter.filter(exchange, contextCapturing(requestId, new AtomicReference<>())))
+                .verifyComplete();
+
+        assertNotEquals("not a valid id", requestId.get());
+        assertEquals(requestId.get(), exchange.getResponse().getHeaders().getFirst(RequestLoggingFilter.REQUEST_ID_HEADER));
+    }
+
+    @Test
+    void filter_tracesOnlyToggledRequestIds() {
+
+        requestLoggingFilter.trace("traced");
+        var traced = new AtomicReference<Boolean>();
+
+        StepVerifier.create(requestLoggingFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")
+                        .header(RequestLoggingFilter.REQUEST_ID_HEADER, "traced")),
+                        contextCapturing(new AtomicReference<>(), traced)))
+                .verifyComplete();
+        assertTrue(traced.get());
+
+        StepVerifier.create(requestLoggingFilter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/v1/movieinfos")
+                        .header(RequestLoggingFilter.REQUEST_ID_HEADER, "other")),
+                        contextCapturing(new AtomicReference<>(), traced)))
+                .verifyComplete();
+        assertFalse(traced.get());
+
+        requestLoggingFilter.untrace("traced");
+        assertTrue(requestLoggingFilter.tracedRequestIds().isEmpty());
+    }
+
+    @Test
+    void trace_bounded() {
+
+        requestLoggingProperties.setMaxTracedRequests(1);
+
+        assertTrue(requestLoggingFilter.trace("first"));
+        assertFalse(requestLoggingFilter.trace("second"));
+    }
+
+    @Test
+    void signalTracing_passesElementsThrough() {
+
+        var signals = new ArrayList<String>();
+        var flux = Flux.just(1, 2, 3)
+                .doOnNext(value -> signals.add("next"))
+                .transformDeferredContextual(SignalTracing.flux("test"));
+
+        StepVerifier.create(flux.contextWrite(context -> context
+                        .put(SignalTracing.REQUEST_ID, "traced")
+                        .put(SignalTracing.TRACED, true)))
+                .expectNext(1, 2, 3)
+                .verifyComplete();
+        StepVerifier.create(flux)
+                .expectNext(1, 2, 3)
+                .verifyComplete();
+
+        assertEquals(List.of("next", "next", "next", "next", "next", "next"), signals);
+    }
+
+    private WebFilterChain contextCapturing(AtomicReference<String> requestId, AtomicReference<Boolean> traced) {
+
+        return exchange -> Mono.deferContextual(contextView -> {
+            requestId.set(contextView.get(SignalTracing.REQUEST_ID));
+            traced.set(contextView.getOrDefault(SignalTracing.TRACED, false));
+            return Mono.empty();
+        });
+    }
+}
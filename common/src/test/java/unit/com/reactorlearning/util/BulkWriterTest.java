@@ -0,0 +1,205 @@
+package com.reactorlearning.util;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.reactorlearning.domain.BulkItemResult;
+import com.reactorlearning.domain.BulkItemStatus;
+import com.reactorlearning.domain.BulkMode;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.validation.Validation;
+import javax.validation.constraints.NotBlank;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class BulkWriterTest {
+
+    ReactiveMongoTemplate reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    MongoCollection<Document> collection = mock(MongoCollection.class);
+
+    BulkWriter<Item> bulkWriter = new BulkWriter<>(reactiveMongoTemplate,
+            Validation.buildDefaultValidatorFactory().getValidator(), Item.class,
+            item -> item.itemId, (item, itemId) -> item.itemId = itemId, 2, Schedulers.immediate());
+
+    @BeforeEach
+    void setUp() {
+
+        var customConversions = new MongoCustomConversions(List.of());
+        var mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(customConversions.getSimpleTypeHolder());
+        var mongoConverter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        mongoConverter.setCustomConversions(customConversions);
+        mongoConverter.afterPropertiesSet();
+        when(reactiveMongoTemplate.getConverter()).thenReturn(mongoConverter);
+        when(reactiveMongoTemplate.getCollectionName(Item.class)).thenReturn("item");
+        when(reactiveMongoTemplate.getCollection("item")).thenReturn(Mono.just(collection));
+    }
+
+    @Test
+    void write_unordered_reportsEveryItem() {
+
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(2, 0, 0, 0, List.of(), List.of())))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())));
+
+        var results = write(BulkMode.INSERT, false,
+                item("a", "Batman Begins"), item(null, "The Dark Knight"),
+                item("c", ""), item("d", "Dark Knight Rises"));
+
+        assertEquals(List.of(BulkItemStatus.INSERTED, BulkItemStatus.INSERTED, BulkItemStatus.INVALID, BulkItemStatus.INSERTED),
+                statuses(results));
+        assertEquals(List.of(0L, 1L, 2L, 3L), results.stream().map(BulkItemResult::getIndex).collect(Collectors.toList()));
+        assertNotNull(results.get(1).getId());
+        assertEquals("item.name must be present", results.get(2).getError());
+        verify(collection, times(2)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    @Test
+    void write_ordered_stopsAtFirstInvalidItem() {
+
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())));
+
+        var results = write(BulkMode.INSERT, true,
+                item("a", "Batman Begins"), item("b", ""),
+                item("c", "Dark Knight Rises"), item("d", "Batman"));
+
+        assertEquals(List.of(BulkItemStatus.INSERTED, BulkItemStatus.INVALID, BulkItemStatus.SKIPPED, BulkItemStatus.SKIPPED),
+                statuses(results));
+        verify(collection, times(1)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    @Test
+    void write_ordered_skipsItemsAfterRejectedWrite() {
+
+        var partialResult = BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(), List.of());
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.error(new MongoBulkWriteException(partialResult,
+                        List.of(new BulkWriteError(11000, "E11000 duplicate key error", new BsonDocument(), 0)),
+                        null, new ServerAddress(), Set.of())));
+
+        var results = write(BulkMode.INSERT, true,
+                item("a", "Batman Begins"), item("b", "The Dark Knight"),
+                item("c", "Dark Knight Rises"));
+
+        assertEquals(List.of(BulkItemStatus.FAILED, BulkItemStatus.SKIPPED, BulkItemStatus.SKIPPED),
+                statuses(results));
+        assertEquals("E11000 duplicate key error", results.get(0).getError());
+        verify(collection, times(1)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    @Test
+    void write_upsert_tellsInsertsFromUpdates() {
+
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 1, 0, 1,
+                        List.of(new BulkWriteUpsert(1, new BsonString("b"))), List.of())));
+
+        var results = write(BulkMode.UPSERT, true,
+                item("a", "Batman Begins"), item("b", "The Dark Knight"));
+
+        assertEquals(List.of(BulkItemStatus.UPDATED, BulkItemStatus.INSERTED), statuses(results));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void write_upsert_incrementsVersionAndUnsetsMissingFields() {
+
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 1, 0, 0, List.of(), List.of())));
+
+        write(BulkMode.UPSERT, true, new Item("a", "Batman Begins", 2005, null, null, 7L));
+
+        var models = ArgumentCaptor.forClass(List.class);
+        verify(collection).bulkWrite(models.capture(), any(BulkWriteOptions.class));
+        var update = (Document) ((UpdateOneModel<Document>) models.getValue().get(0)).getUpdate();
+
+        assertEquals(new Document("version", 1L), update.get("$inc"));
+        assertEquals(Set.of("name", "year", "_class"), ((Document) update.get("$set")).keySet());
+        assertEquals(Set.of("tags", "date"), ((Document) update.get("$unset")).keySet());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void write_insert_startsVersionAtZero() {
+
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of())));
+
+        write(BulkMode.INSERT, true, new Item("a", "Batman Begins", 2005, null, null, 7L));
+
+        var models = ArgumentCaptor.forClass(List.class);
+        verify(collection).bulkWrite(models.capture(), any(BulkWriteOptions.class));
+        assertEquals(0L, ((InsertOneModel<Document>) models.getValue().get(0)).getDocument().get("version"));
+    }
+
+    private List<BulkItemResult> write(BulkMode mode, boolean ordered, Item... items) {
+
+        return bulkWriter.write(Flux.just(items), mode, ordered, (validItems, write) -> write)
+                .collectList()
+                .block();
+    }
+
+    private List<BulkItemStatus> statuses(List<BulkItemResult> results) {
+
+        return results.stream().map(BulkItemResult::getStatus).collect(Collectors.toList());
+    }
+
+    private Item item(String id, String name) {
+
+        return new Item(id, name, 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15"), null);
+    }
+
+    static class Item {
+
+        @Id
+        String itemId;
+        @NotBlank(message = "item.name must be present")
+        String name;
+        Integer year;
+        List<String> tags;
+        LocalDate date;
+        @Version
+        Long version;
+
+        Item(String itemId, String name, Integer year, List<String> tags, LocalDate date, Long version) {
+            this.itemId = itemId;
+            this.name = name;
+            this.year = year;
+            this.tags = tags;
+            this.date = date;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.reactorlearning.util;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.reactorlearning.config.ChangeFeedProperties;
+import com.reactorlearning.domain.ChangeEvent;
+import com.reactorlearning.domain.ChangeOperation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.CriteriaDefinition;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ChangeFeedTest {
+
+    ReactiveMongoTemplate reactiveMongoTemplate = mock(ReactiveMongoTemplate.class, RETURNS_DEEP_STUBS);
+
+    MappingMongoConverter mongoConverter;
+
+    Sinks.Many<ChangeStreamEvent<Item>> changeStream = Sinks.many().multicast().directBestEffort();
+
+    AtomicInteger changeStreams = new AtomicInteger();
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    ChangeFeed<Item> changeFeed;
+
+    @BeforeEach
+    void setUp() {
+
+        var customConversions = new MongoCustomConversions(List.of());
+        var mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(customConversions.getSimpleTypeHolder());
+        mongoConverter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        mongoConverter.setCustomConversions(customConversions);
+        mongoConverter.afterPropertiesSet();
+        when(reactiveMongoTemplate.changeStream(Item.class)
+                .withOptions(any())
+                .watchCollection(Item.class)
+                .filter(any(CriteriaDefinition.class))
+                .listen())
+                .thenReturn(changeStream.asFlux().doOnSubscribe(subscription -> changeStreams.incrementAndGet()));
+
+        var changeFeedProperties = new ChangeFeedProperties();
+        changeFeedProperties.setHeartbeat(Duration.ofHours(1));
+        changeFeed = new ChangeFeed<>(reactiveMongoTemplate, Item.class, "item", changeFeedProperties,
+                meterRegistry);
+    }
+
+    @Test
+    void listen_startsWithHeartbeat() {
+
+        StepVerifier.create(changeFeed.listen(null, change -> true))
+                .assertNext(event -> assertEquals("heartbeat", event.comment()))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void listen_sharesOneChangeStream() {
+
+        var first = listen(null, change -> true);
+        var second = listen(null, change -> "b".equals(change.getId()));
+
+        StepVerifier.create(first.zipWith(second))
+                .then(() -> {
+                    changeStream.tryEmitNext(insert("a", "1"));
+                    changeStream.tryEmitNext(insert("b", "2"));
+                })
+                .assertNext(events -> {
+                    assertEquals("a", events.getT1().data().getId());
+                    assertEquals("b", events.getT2().data().getId());
+                    assertEquals(ChangeOperation.INSERT.name(), events.getT1().event());
+                })
+                .thenCancel()
+                .verify();
+
+        assertEquals(1, changeStreams.get());
+    }
+
+    @Test
+    void listen_resumesFromReplayedEvents() {
+
+        var eventIds = new String[1];
+        StepVerifier.create(listen(null, change -> true))
+                .then(() -> changeStream.tryEmitNext(insert("a", "1")))
+                .assertNext(event -> eventIds[0] = event.id())
+                .then(() -> {
+                    changeStream.tryEmitNext(insert("b", "2"));
+                    changeStream.tryEmitNext(insert("c", "3"));
+                })
+                .expectNextCount(2)
+                .then(() -> StepVerifier.create(listen(eventIds[0], change -> true).map(ServerSentEvent::data))
+                        .assertNext(change -> assertEquals("b", change.getId()))
+                        .assertNext(change -> assertEquals("c", change.getId()))
+                        .then(() -> changeStream.tryEmitNext(insert("d", "4")))
+                        .assertNext(change -> assertEquals("d", change.getId()))
+                        .thenCancel()
+                        .verify())
+                .expectNextCount(1)
+                .thenCancel()
+                .verify();
+
+        assertEquals(1, changeStreams.get());
+    }
+
+    @Test
+    void listen_unknownEventId_catchesUpThenContinuesWithSharedStream() {
+
+        Sinks.Many<ChangeStreamEvent<Item>> catchUpStream = Sinks.many().multicast().directBestEffort();
+        when(reactiveMongoTemplate.changeStream(Item.class)
+                .withOptions(any())
+                .watchCollection(Item.class)
+                .filter(any(CriteriaDefinition.class))
+                .listen())
+                .thenReturn(changeStream.asFlux(), catchUpStream.asFlux());
+        var eventId = KeysetCursor.encode(new BsonDocument("_data", new BsonString("0")).toJson());
+
+        StepVerifier.create(listen(eventId, change -> true).map(ServerSentEvent::data))
+                .then(() -> catchUpStream.tryEmitNext(insert("a", "1")))
+                .assertNext(change -> assertEquals("a", change.getId()))
+                .then(() -> {
+                    changeStream.tryEmitNext(insert("b", "2"));
+                    catchUpStream.tryEmitNext(insert("b", "2"));
+                })
+                .assertNext(change -> assertEquals("b", change.getId()))
+                // caught up, the private change stream is closed and the shared one takes over
+                .then(() -> assertEquals(0, catchUpStream.currentSubscriberCount()))
+                .then(() -> changeStream.tryEmitNext(insert("c", "3")))
+                .assertNext(change -> assertEquals("c", change.getId()))
+                .thenCancel()
+                .verify();
+
+        assertEquals(0, changeStream.currentSubscriberCount());
+        assertEquals(1.0, meterRegistry.get("changeFeed.resumes").tag("source", "CHANGE_STREAM").counter().count());
+    }
+
+    @Test
+    void listen_invalidEventId_resets() {
+
+        StepVerifier.create(listen("not-an-event-id", change -> true).map(ServerSentEvent::data))
+                .assertNext(change -> assertEquals(ChangeOperation.RESET, change.getOperation()))
+                .then(() -> changeStream.tryEmitNext(insert("a", "1")))
+                .assertNext(change -> assertEquals("a", change.getId()))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void listen_lastSubscriberGone_closesChangeStream() {
+
+        StepVerifier.create(listen(null, change -> true))
+                .then(() -> changeStream.tryEmitNext(insert("a", "1")))
+                .expectNextCount(1)
+                .thenCancel()
+                .verify();
+
+        assertEquals(0, changeStream.currentSubscriberCount());
+
+        StepVerifier.create(listen(null, change -> true).map(ServerSentEvent::data))
+                .then(() -> changeStream.tryEmitNext(insert("b", "2")))
+                .assertNext(change -> assertEquals("b", change.getId()))
+                .thenCancel()
+                .verify();
+
+        assertEquals(2, changeStreams.get());
+    }
+
+    @Test
+    void listen_historyLost_resetsAndRestartsFromNow() {
+
+        Sinks.Many<ChangeStreamEvent<Item>> lostStream = Sinks.many().multicast().directBestEffort();
+        when(reactiveMongoTemplate.changeStream(Item.class)
+                .withOptions(any())
+                .watchCollection(Item.class)
+                .filter(any(CriteriaDefinition.class))
+                .listen())
+                .thenReturn(lostStream.asFlux(), changeStream.asFlux(), Flux.error(historyLostException()));
+
+        var eventIds = new String[1];
+        StepVerifier.create(listen(null, change -> true))
+                .then(() -> lostStream.tryEmitNext(insert("a", "1")))
+                .assertNext(event -> eventIds[0] = event.id())
+                .then(() -> lostStream.tryEmitError(historyLostException()))
+                .assertNext(event -> assertEquals(ChangeOperation.RESET, event.data().getOperation()))
+                .then(() -> changeStream.tryEmitNext(insert("b", "2")))
+                .assertNext(event -> assertEquals("b", event.data().getId()))
+                // the ids from before the reset are not replayed from memory any longer, resuming from them resets
+                .then(() -> StepVerifier.create(listen(eventIds[0], change -> true).map(ServerSentEvent::data))
+                        .assertNext(change -> assertEquals(ChangeOperation.RESET, change.getOperation()))
+                        .then(() -> changeStream.tryEmitNext(insert("c", "3")))
+                        .assertNext(change -> assertEquals("c", change.getId()))
+                        .thenCancel()
+                        .verify())
+                .expectNextCount(1)
+                .thenCancel()
+                .verify();
+
+        assertEquals(1.0, meterRegistry.get("changeFeed.restarts").tag("cause", "HISTORY_LOST").counter().count());
+        assertEquals(1.0, meterRegistry.get("changeFeed.resumes").tag("source", "RESET").counter().count());
+    }
+
+    @Test
+    void historyLost() {
+
+        var nonResumable = new MongoException("cursor killed");
+        nonResumable.addLabel("NonResumableChangeStreamError");
+
+        assertTrue(ChangeFeed.historyLost(new UncategorizedMongoDbException("lost", historyLostException())));
+        assertTrue(ChangeFeed.historyLost(nonResumable));
+        assertFalse(ChangeFeed.historyLost(new RuntimeException("boom")));
+    }
+
+    private static MongoCommandException historyLostException() {
+
+        return new MongoCommandException(new BsonDocument("ok", new BsonInt32(0))
+                .append("code", new BsonInt32(286))
+                .append("codeName", new BsonString("ChangeStreamHistoryLost"))
+                .append("errmsg", new BsonString("Resume of change stream was not possible")), new ServerAddress());
+    }
+
+    private Flux<ServerSentEvent<ChangeEvent<Item>>> listen(String lastEventId, Predicate<ChangeEvent<Item>> filter) {
+
+        // without the heartbeat comments
+        return changeFeed.listen(lastEventId, filter)
+                .filter(event -> event.data() != null);
+    }
+
+    private ChangeStreamEvent<Item> insert(String id, String resumeToken) {
+
+        var document = new Document("_id", id).append("name", "Item " + id).append("year", 2005);
+        var raw = new ChangeStreamDocument<>(OperationType.INSERT, new BsonDocument("_data", new BsonString(resumeToken)),
+                null, null, document, new BsonDocument("_id", new BsonString(id)), null, null, null, null);
+        return new ChangeStreamEvent<>(raw, Item.class, mongoConverter);
+    }
+
+    static class Item {
+
+        @Id
+        String itemId;
+        String name;
+        Integer year;
+    }
+}
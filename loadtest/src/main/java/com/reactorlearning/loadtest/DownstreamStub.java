@@ -0,0 +1,158 @@
+package com.reactorlearning.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * In-process stand-in for movies-info-service or movies-review-service, answering the requests
+ * movies-service makes with generated documents after an injected latency, and failing a
+ * configured fraction of them with a 500.
+ */
+@Slf4j
+public class DownstreamStub implements AutoCloseable {
+
+    private DisposableServer server;
+    private LoadTestConfig.StubBehaviour behaviour;
+    private ObjectMapper objectMapper;
+    private int reviewsPerMovie;
+
+    private DownstreamStub(LoadTestConfig.StubBehaviour behaviour, ObjectMapper objectMapper, int reviewsPerMovie) {
+        this.behaviour = behaviour;
+        this.objectMapper = objectMapper;
+        this.reviewsPerMovie = reviewsPerMovie;
+    }
+
+    public static DownstreamStub start(String name, int port, LoadTestConfig.StubBehaviour behaviour,
+                                       ObjectMapper objectMapper, int reviewsPerMovie) {
+
+        var stub = new DownstreamStub(behaviour, objectMapper, reviewsPerMovie);
+        stub.server = HttpServer.create()
+                .host("localhost")
+                .port(port)
+                .route(routes -> routes
+                        .get("/v1/movieinfos/{id}", (request, response) ->
+                                stub.respond(response, () -> stub.movieInfo(request.param("id"))))
+                        .get("/v1/movieinfos", (request, response) ->
+                                stub.respond(response, () -> stub.ids(request, "ids").stream()
+                                        .map(stub::movieInfo)
+                                        .collect(Collectors.toList())))
+                        .get("/v1/reviews/stats", (request, response) ->
+                                stub.respond(response, () -> stub.ids(request, "movieInfoIds").isEmpty()
+                                        ? stub.reviewStats(stub.reviewedIds(request).get(0))
+                                        : stub.reviewedIds(request).stream()
+                                                .map(stub::reviewStats)
+                                                .collect(Collectors.toList())))
+                        .get("/v1/reviews", (request, response) ->
+                                stub.respond(response, () -> stub.reviewedIds(request).stream()
+                                        .flatMap(movieInfoId -> stub.reviews(movieInfoId).stream()
+                                                .limit(stub.limit(request)))
+                                        .collect(Collectors.toList()))))
+                .bindNow();
+        log.info("{} stub listening on port {} with latency {} (+{} jitter) and error rate {}",
+                name, port, behaviour.getLatency(), behaviour.getJitter(), behaviour.getErrorRate());
+        return stub;
+    }
+
+    public String baseUrl() {
+
+        return "http://localhost:" + server.port();
+    }
+
+    @Override
+    public void close() {
+
+        server.disposeNow();
+    }
+
+    private Publisher<Void> respond(HttpServerResponse response, Supplier<Object> body) {
+
+        var random = ThreadLocalRandom.current();
+        var jitterNanos = behaviour.getJitter().toNanos();
+        var latency = behaviour.getLatency().plusNanos(jitterNanos > 0 ? random.nextLong(jitterNanos) : 0);
+        var fail = random.nextDouble() < behaviour.getErrorRate();
+
+        return Mono.delay(latency)
+                .then(Mono.defer(() -> {
+                    if(fail) {
+                        return response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+                                .sendString(Mono.just("injected failure"))
+                                .then();
+                    }
+                    return response.status(HttpResponseStatus.OK)
+                            .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                            .sendString(Mono.fromCallable(() -> json(body.get())))
+                            .then();
+                }));
+    }
+
+    private String json(Object body) throws JsonProcessingException {
+
+        return objectMapper.writeValueAsString(body);
+    }
+
+    private List<String> ids(HttpServerRequest request, String name) {
+
+        var values = new QueryStringDecoder(request.uri()).parameters().getOrDefault(name, List.of());
+        return values.stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .filter(value -> !value.isBlank())
+                .collect(Collectors.toList());
+    }
+
+    private List<String> reviewedIds(HttpServerRequest request) {
+
+        var movieInfoIds = ids(request, "movieInfoIds");
+        return movieInfoIds.isEmpty() ? ids(request, "movieInfoId") : movieInfoIds;
+    }
+
+    private long limit(HttpServerRequest request) {
+
+        var limit = ids(request, "limit");
+        return limit.isEmpty() ? Long.MAX_VALUE : Long.parseLong(limit.get(0));
+    }
+
+    private Map<String, Object> reviewStats(String movieInfoId) {
+
+        return Map.of("movieInfoId", Long.valueOf(movieInfoId),
+                "count", (long) reviewsPerMovie,
+                "mean", 7.0,
+                "version", 1L);
+    }
+
+    private Map<String, Object> movieInfo(String movieInfoId) {
+
+        return Map.of("movieInfoId", movieInfoId,
+                "name", "Movie " + movieInfoId,
+                "year", 2005,
+                "cast", List.of("Christian Bale", "Michael Cane"),
+                "release_date", "2005-06-15");
+    }
+
+    private List<Map<String, Object>> reviews(String movieInfoId) {
+
+        return IntStream.range(0, reviewsPerMovie)
+                .mapToObj(i -> Map.<String, Object>of("reviewId", movieInfoId + "-" + i,
+                        "movieInfoId", Long.valueOf(movieInfoId),
+                        "comment", "Review " + i,
+                        "rating", 5.0 + i % 5))
+                .collect(Collectors.toList());
+    }
+}
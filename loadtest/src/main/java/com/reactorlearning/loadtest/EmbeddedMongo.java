@@ -0,0 +1,51 @@
+package com.reactorlearning.loadtest;
+
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfig;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Feature;
+import de.flapdoodle.embed.mongo.distribution.Versions;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+
+/**
+ * A throwaway mongod started with flapdoodle, the same way the integration tests get theirs.
+ */
+@Slf4j
+public class EmbeddedMongo implements AutoCloseable {
+
+    private MongodExecutable mongodExecutable;
+    private int port;
+
+    private EmbeddedMongo(MongodExecutable mongodExecutable, int port) {
+        this.mongodExecutable = mongodExecutable;
+        this.port = port;
+    }
+
+    public static EmbeddedMongo start(String version, int port) throws IOException {
+
+        var mongodConfig = MongodConfig.builder()
+                .version(Versions.withFeatures(Version.of(version), Feature.SYNC_DELAY, Feature.STORAGE_ENGINE))
+                .net(new Net("localhost", port, Network.localhostIsIPv6()))
+                .build();
+        var mongodExecutable = MongodStarter.getDefaultInstance().prepare(mongodConfig);
+        mongodExecutable.start();
+        log.info("Embedded Mongo {} listening on port {}", version, port);
+        return new EmbeddedMongo(mongodExecutable, port);
+    }
+
+    public int getPort() {
+
+        return port;
+    }
+
+    @Override
+    public void close() {
+
+        mongodExecutable.stop();
+    }
+}
@@ -0,0 +1,197 @@
+package com.reactorlearning.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load: requests are sent at the configured rate whatever the response times, each kind
+ * picked at random according to the mix, and their latency is taken from the moment they were due.
+ */
+@Slf4j
+public class LoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private LoadTestConfig config;
+    private Map<LoadTestConfig.RequestKind, String> baseUrls;
+
+    public LoadGenerator(LoadTestConfig config, Map<LoadTestConfig.RequestKind, String> baseUrls) {
+        this.config = config;
+        this.baseUrls = baseUrls;
+    }
+
+    public Map<LoadTestConfig.RequestKind, EndpointStats> run() throws InterruptedException {
+
+        var mix = new LinkedHashMap<>(config.mix());
+        mix.keySet().retainAll(baseUrls.keySet());
+        if(mix.isEmpty()) {
+            throw new IllegalArgumentException("None of the request kinds in the mix can be sent to this target");
+        }
+        var stats = new EnumMap<LoadTestConfig.RequestKind, EndpointStats>(LoadTestConfig.RequestKind.class);
+        mix.keySet().forEach(kind -> stats.put(kind, new EndpointStats()));
+        var totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+
+        var connectionProvider = ConnectionProvider.builder("loadtest")
+                .maxConnections(config.connections())
+                .pendingAcquireMaxCount(-1)
+                .pendingAcquireTimeout(config.timeout())
+                .build();
+        var httpClient = HttpClient.create(connectionProvider)
+                .responseTimeout(config.timeout());
+
+        var periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.rate());
+        var warmupNanos = config.warmup().toNanos();
+        var totalRequests = (long) ((config.warmup().toNanos() + config.duration().toNanos()) / (double) periodNanos);
+        var inFlight = new AtomicInteger();
+
+        log.info("Sending {} requests at {}/s ({} warmup, {} measured), mix {}",
+                totalRequests, config.rate(), config.warmup(), config.duration(), mix);
+        var start = System.nanoTime();
+
+        for(long i = 0; i < totalRequests; i++) {
+            var dueAt = start + i * periodNanos;
+            parkUntil(dueAt);
+
+            var kind = pick(mix, totalWeight);
+            var endpointStats = dueAt - start >= warmupNanos ? stats.get(kind) : null;
+            if(inFlight.get() >= config.maxInFlight()) {
+                if(endpointStats != null) {
+                    endpointStats.dropped.increment();
+                }
+                continue;
+            }
+
+            inFlight.incrementAndGet();
+            httpClient.get()
+                    .uri(url(kind))
+                    .responseSingle((response, body) -> body.asByteArray()
+                            .defaultIfEmpty(new byte[0])
+                            .map(bytes -> response.status().code()))
+                    .doFinally(signalType -> inFlight.decrementAndGet())
+                    .subscribe(
+                            status -> record(endpointStats, dueAt, String.valueOf(status), status / 100 != 2),
+                            error -> record(endpointStats, dueAt, error.getClass().getSimpleName(), true));
+        }
+
+        var drainDeadline = System.nanoTime() + config.timeout().toNanos() * 2;
+        while(inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        connectionProvider.disposeLater().block(Duration.ofSeconds(10));
+        return stats;
+    }
+
+    private void record(EndpointStats endpointStats, long dueAt, String outcome, boolean error) {
+
+        if(endpointStats == null) {
+            return;
+        }
+        endpointStats.latencies.recordValue(Math.min(System.nanoTime() - dueAt, HIGHEST_TRACKABLE_NANOS));
+        endpointStats.outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+        if(error) {
+            endpointStats.errors.increment();
+        }
+    }
+
+    private String url(LoadTestConfig.RequestKind kind) {
+
+        var movieInfoId = ThreadLocalRandom.current().nextInt(1, config.movies() + 1);
+        switch(kind) {
+            case MOVIE: return baseUrls.get(kind) + "/v1/movies/" + movieInfoId;
+            case MOVIEINFOS: return baseUrls.get(kind) + "/v1/movieinfos?limit=" + config.pageSize();
+            case REVIEWS: return baseUrls.get(kind) + "/v1/reviews?movieInfoId=" + movieInfoId;
+            default: throw new IllegalArgumentException(kind.name());
+        }
+    }
+
+    private LoadTestConfig.RequestKind pick(Map<LoadTestConfig.RequestKind, Integer> mix, int totalWeight) {
+
+        var roll = ThreadLocalRandom.current().nextInt(totalWeight);
+        for(var entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if(roll < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty request mix");
+    }
+
+    private static void parkUntil(long nanoTime) {
+
+        long remaining;
+        while((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    public static class EndpointStats {
+
+        private Histogram latencies = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+        private LongAdder errors = new LongAdder();
+        private LongAdder dropped = new LongAdder();
+        private Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        public LoadReport.EndpointReport toReport(double durationSeconds) {
+
+            return toReport(latencies, errors.sum(), dropped.sum(), outcomes, durationSeconds);
+        }
+
+        public static LoadReport.EndpointReport total(Iterable<EndpointStats> endpointStats, double durationSeconds) {
+
+            var latencies = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+            long errors = 0;
+            long dropped = 0;
+            var outcomes = new LinkedHashMap<String, LongAdder>();
+            for(var stats : endpointStats) {
+                latencies.add(stats.latencies);
+                errors += stats.errors.sum();
+                dropped += stats.dropped.sum();
+                stats.outcomes.forEach((outcome, count) ->
+                        outcomes.computeIfAbsent(outcome, key -> new LongAdder()).add(count.sum()));
+            }
+            return toReport(latencies, errors, dropped, outcomes, durationSeconds);
+        }
+
+        private static LoadReport.EndpointReport toReport(Histogram latencies, long errors, long dropped,
+                                                          Map<String, LongAdder> outcomes, double durationSeconds) {
+
+            var completed = latencies.getTotalCount();
+            var requests = completed + dropped;
+            var failed = errors + dropped;
+            var outcomeCounts = new TreeMap<String, Long>();
+            outcomes.forEach((outcome, count) -> outcomeCounts.put(outcome, count.sum()));
+
+            return new LoadReport.EndpointReport(requests, failed, dropped,
+                    requests == 0 ? 0 : (double) failed / requests,
+                    completed / durationSeconds,
+                    new LoadReport.LatencyReport(
+                            millis(latencies.getValueAtPercentile(50)),
+                            millis(latencies.getValueAtPercentile(90)),
+                            millis(latencies.getValueAtPercentile(99)),
+                            millis(latencies.getValueAtPercentile(99.9)),
+                            millis(latencies.getMaxValue()),
+                            latencies.getMean() / TimeUnit.MILLISECONDS.toNanos(1)),
+                    outcomeCounts);
+        }
+
+        private static double millis(long nanos) {
+
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.reactorlearning.loadtest;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Machine readable outcome of a run, written as JSON. Latencies are measured from the moment
+ * a request was scheduled to be sent, so a stalled system shows up as latency instead of as
+ * fewer requests (no coordinated omission).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoadReport {
+
+    private Instant startedAt;
+    private String target;
+    private double targetRate;
+    private double durationSeconds;
+    private Map<String, String> options;
+    private Map<String, EndpointReport> endpoints;
+    private EndpointReport total;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class EndpointReport {
+
+        private long requests;
+        private long errors;
+
+        /**
+         * Requests never sent because maxInFlight requests were still outstanding, counted as errors.
+         */
+        private long dropped;
+        private double errorRate;
+        private double throughput;
+        private LatencyReport latencyMillis;
+
+        /**
+         * Number of responses per status code, or per exception type when no response came back.
+         */
+        private Map<String, Long> outcomes;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LatencyReport {
+
+        private double p50;
+        private double p90;
+        private double p99;
+        private double p999;
+        private double max;
+        private double mean;
+    }
+}
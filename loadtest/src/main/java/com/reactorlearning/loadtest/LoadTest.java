@@ -0,0 +1,206 @@
+package com.reactorlearning.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * End-to-end load test of the three services.
+ * <p>
+ * Brings up the system under test according to {@code --target}, seeds it when it owns the data,
+ * drives it with {@link LoadGenerator} and writes a {@link LoadReport} as JSON to {@code --report}.
+ * Service output goes to {@code <service>.log} next to the report.
+ */
+@Slf4j
+public class LoadTest {
+
+    /**
+     * The generator is a single client to the admission control of the services, which would
+     * reject most of the load it is asked to offer.
+     */
+    private static final String ADMISSION_DISABLED = "--admission.enabled=false";
+
+    public static void main(String[] args) throws Exception {
+
+        var config = LoadTestConfig.parse(args);
+        var objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .enable(SerializationFeature.INDENT_OUTPUT);
+        var logDirectory = config.report().toAbsolutePath().getParent();
+        var resources = new ArrayDeque<AutoCloseable>();
+
+        try {
+            var baseUrls = start(config, objectMapper, logDirectory, resources);
+            var startedAt = Instant.now();
+            var stats = new LoadGenerator(config, baseUrls).run();
+
+            var durationSeconds = config.duration().toNanos() / 1e9;
+            var endpoints = new LinkedHashMap<String, LoadReport.EndpointReport>();
+            stats.forEach((kind, endpointStats) ->
+                    endpoints.put(kind.name().toLowerCase(), endpointStats.toReport(durationSeconds)));
+            var report = new LoadReport(startedAt, config.target().name().toLowerCase(), config.rate(),
+                    durationSeconds, config.options(), endpoints,
+                    LoadGenerator.EndpointStats.total(stats.values(), durationSeconds));
+
+            Files.createDirectories(logDirectory);
+            objectMapper.writeValue(config.report().toFile(), report);
+            endpoints.forEach(LoadTest::logSummary);
+            logSummary("total", report.getTotal());
+            log.info("Report written to {}", config.report().toAbsolutePath());
+        } finally {
+            close(resources);
+        }
+    }
+
+    private static Map<LoadTestConfig.RequestKind, String> start(LoadTestConfig config, ObjectMapper objectMapper,
+                                                                 Path logDirectory, Deque<AutoCloseable> resources)
+            throws IOException, InterruptedException {
+
+        var baseUrls = new EnumMap<LoadTestConfig.RequestKind, String>(LoadTestConfig.RequestKind.class);
+        switch(config.target()) {
+            case STUBS: {
+                var moviesInfo = DownstreamStub.start("movies-info-service", config.port("moviesInfo", 18080),
+                        config.stubBehaviour("moviesInfo"), objectMapper, config.reviewsPerMovie());
+                resources.push(moviesInfo);
+                var reviews = DownstreamStub.start("movies-review-service", config.port("reviews", 18081),
+                        config.stubBehaviour("reviews"), objectMapper, config.reviewsPerMovie());
+                resources.push(reviews);
+                baseUrls.put(LoadTestConfig.RequestKind.MOVIE,
+                        startMoviesService(config, moviesInfo.baseUrl(), reviews.baseUrl(), logDirectory, resources));
+                return baseUrls;
+            }
+            case MONGO: {
+                var mongo = EmbeddedMongo.start(config.mongoVersion(), config.port("mongo", 27027));
+                resources.push(mongo);
+                var serviceArgs = List.of("--spring.data.mongodb.host=localhost",
+                        "--spring.data.mongodb.port=" + mongo.getPort(),
+                        "--spring.data.mongodb.database=loadtest",
+                        ADMISSION_DISABLED);
+                var moviesInfo = ServiceProcess.start("movies-info-service", config.jar("moviesInfoService"),
+                        config.port("moviesInfo", 18080), config.serviceJvmArgs(), serviceArgs,
+                        logDirectory, "/actuator/health", config.startupTimeout());
+                resources.push(moviesInfo);
+                var reviews = ServiceProcess.start("movies-review-service", config.jar("moviesReviewService"),
+                        config.port("reviews", 18081), config.serviceJvmArgs(), serviceArgs,
+                        logDirectory, "/actuator/health", config.startupTimeout());
+                resources.push(reviews);
+                seed(config, objectMapper, moviesInfo.baseUrl(), reviews.baseUrl());
+
+                baseUrls.put(LoadTestConfig.RequestKind.MOVIE,
+                        startMoviesService(config, moviesInfo.baseUrl(), reviews.baseUrl(), logDirectory, resources));
+                baseUrls.put(LoadTestConfig.RequestKind.MOVIEINFOS, moviesInfo.baseUrl());
+                baseUrls.put(LoadTestConfig.RequestKind.REVIEWS, reviews.baseUrl());
+                return baseUrls;
+            }
+            case EXTERNAL: {
+                config.url("movies").ifPresent(url -> baseUrls.put(LoadTestConfig.RequestKind.MOVIE, url));
+                config.url("moviesInfo").ifPresent(url -> baseUrls.put(LoadTestConfig.RequestKind.MOVIEINFOS, url));
+                config.url("reviews").ifPresent(url -> baseUrls.put(LoadTestConfig.RequestKind.REVIEWS, url));
+                return baseUrls;
+            }
+            default:
+                throw new IllegalArgumentException(config.target().name());
+        }
+    }
+
+    private static String startMoviesService(LoadTestConfig config, String moviesInfoUrl, String reviewsUrl,
+                                             Path logDirectory, Deque<AutoCloseable> resources)
+            throws IOException, InterruptedException {
+
+        var movies = ServiceProcess.start("movies-service", config.jar("moviesService"),
+                config.port("movies", 18082), config.serviceJvmArgs(),
+                List.of("--restClient.moviesInfoUrl=" + moviesInfoUrl + "/v1/movieinfos",
+                        "--restClient.reviewsUrl=" + reviewsUrl + "/v1/reviews",
+                        ADMISSION_DISABLED),
+                logDirectory, "/actuator/health", config.startupTimeout());
+        resources.push(movies);
+        return movies.baseUrl();
+    }
+
+    /**
+     * Upserts movies "1" to "movies" and their reviews through the bulk endpoints, so the ids the
+     * generator asks for always exist and reruns against the same database stay idempotent.
+     */
+    private static void seed(LoadTestConfig config, ObjectMapper objectMapper, String moviesInfoUrl, String reviewsUrl)
+            throws IOException, InterruptedException {
+
+        var movieInfos = IntStream.rangeClosed(1, config.movies())
+                .mapToObj(id -> Map.<String, Object>of("movieInfoId", String.valueOf(id),
+                        "name", "Movie " + id,
+                        "year", 2005,
+                        "cast", List.of("Christian Bale", "Michael Cane"),
+                        "release_date", "2005-06-15"))
+                .collect(Collectors.toList());
+        var reviews = IntStream.rangeClosed(1, config.movies())
+                .boxed()
+                .flatMap(id -> IntStream.range(0, config.reviewsPerMovie())
+                        .mapToObj(i -> Map.<String, Object>of("reviewId", "loadtest-" + id + "-" + i,
+                                "movieInfoId", (long) id,
+                                "comment", "Review " + i,
+                                "rating", 5.0 + i % 5)))
+                .collect(Collectors.toList());
+
+        var httpClient = HttpClient.newHttpClient();
+        postNdjson(httpClient, objectMapper, moviesInfoUrl + "/v1/movieinfos/bulk?mode=UPSERT&ordered=false", movieInfos);
+        postNdjson(httpClient, objectMapper, reviewsUrl + "/v1/reviews/bulk?mode=UPSERT&ordered=false", reviews);
+        log.info("Seeded {} movie infos and {} reviews", movieInfos.size(), reviews.size());
+    }
+
+    private static void postNdjson(HttpClient httpClient, ObjectMapper objectMapper, String url,
+                                   List<Map<String, Object>> documents) throws IOException, InterruptedException {
+
+        var writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        var body = new StringBuilder();
+        for(var document : documents) {
+            body.append(writer.writeValueAsString(document)).append('\n');
+        }
+        var response = httpClient.send(HttpRequest.newBuilder(URI.create(url))
+                        .header("Content-Type", "application/x-ndjson")
+                        .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if(response.statusCode() / 100 != 2) {
+            throw new IllegalStateException("Seeding " + url + " failed with " + response.statusCode() + " : " + response.body());
+        }
+    }
+
+    private static void logSummary(String endpoint, LoadReport.EndpointReport report) {
+
+        var latency = report.getLatencyMillis();
+        log.info(String.format("%-10s requests=%d errors=%d (%.2f%%) dropped=%d throughput=%.1f/s "
+                        + "p50=%.1fms p90=%.1fms p99=%.1fms p99.9=%.1fms max=%.1fms",
+                endpoint, report.getRequests(), report.getErrors(), report.getErrorRate() * 100, report.getDropped(),
+                report.getThroughput(), latency.getP50(), latency.getP90(), latency.getP99(), latency.getP999(),
+                latency.getMax()));
+    }
+
+    private static void close(Deque<AutoCloseable> resources) {
+
+        while(!resources.isEmpty()) {
+            try {
+                resources.pop().close();
+            } catch (Exception e) {
+                log.warn("Failed to shut down a load test resource", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.reactorlearning.loadtest;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Options of a load test run, given as {@code --name=value} arguments or {@code loadtest.<name>}
+ * system properties. Durations accept {@code 250ms}, {@code 30s}, {@code 2m} or ISO-8601.
+ */
+public class LoadTestConfig {
+
+    private Map<String, String> options = new HashMap<>();
+
+    public static LoadTestConfig parse(String[] args) {
+
+        var config = new LoadTestConfig();
+        for(var arg : args) {
+            if(!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got : " + arg);
+            }
+            var separator = arg.indexOf('=');
+            config.options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return config;
+    }
+
+    /**
+     * stubs: movies-service against in-process stubs of its downstream services,
+     * mongo: all three services against an embedded Mongo,
+     * external: already running services given by the *Url options.
+     */
+    public Target target() {
+
+        return Target.valueOf(string("target", "stubs").toUpperCase());
+    }
+
+    public double rate() {
+
+        return Double.parseDouble(string("rate", "200"));
+    }
+
+    public Duration duration() {
+
+        return duration("duration", "60s");
+    }
+
+    public Duration warmup() {
+
+        return duration("warmup", "10s");
+    }
+
+    /**
+     * Relative weights of the request kinds, e.g. {@code movie:80,movieinfos:10,reviews:10}.
+     */
+    public Map<RequestKind, Integer> mix() {
+
+        return Arrays.stream(string("mix", "movie:80,movieinfos:10,reviews:10").split(","))
+                .map(entry -> entry.split(":"))
+                .collect(Collectors.toMap(entry -> RequestKind.valueOf(entry[0].trim().toUpperCase()),
+                        entry -> Integer.parseInt(entry[1].trim()),
+                        (a, b) -> a + b,
+                        LinkedHashMap::new));
+    }
+
+    public int connections() {
+
+        return integer("connections", 500);
+    }
+
+    public int maxInFlight() {
+
+        return integer("maxInFlight", 10_000);
+    }
+
+    public Duration timeout() {
+
+        return duration("timeout", "5s");
+    }
+
+    public int movies() {
+
+        return integer("movies", 1000);
+    }
+
+    public int reviewsPerMovie() {
+
+        return integer("reviewsPerMovie", 5);
+    }
+
+    public int pageSize() {
+
+        return integer("pageSize", 20);
+    }
+
+    public StubBehaviour stubBehaviour(String downstream) {
+
+        return new StubBehaviour(duration(downstream + "Stub.latency", "20ms"),
+                duration(downstream + "Stub.jitter", "10ms"),
+                Double.parseDouble(string(downstream + "Stub.errorRate", "0")));
+    }
+
+    public int port(String name, int defaultPort) {
+
+        return integer(name + "Port", defaultPort);
+    }
+
+    public Optional<String> url(String name) {
+
+        return Optional.ofNullable(option(name + "Url"));
+    }
+
+    public Path jar(String name) {
+
+        var jar = option(name + "Jar");
+        if(jar == null) {
+            throw new IllegalArgumentException("--" + name + "Jar is required, or run through ./gradlew :loadtest:run");
+        }
+        return Path.of(jar);
+    }
+
+    public List<String> serviceJvmArgs() {
+
+        return Arrays.asList(string("serviceJvmArgs", "-Xmx512m").split("\\s+"));
+    }
+
+    public Duration startupTimeout() {
+
+        return duration("startupTimeout", "120s");
+    }
+
+    public String mongoVersion() {
+
+        return string("mongoVersion", "3.5.5");
+    }
+
+    public Path report() {
+
+        return Path.of(string("report", "report.json"));
+    }
+
+    public Map<String, String> options() {
+
+        return options;
+    }
+
+    private String option(String name) {
+
+        return options.getOrDefault(name, System.getProperty("loadtest." + name));
+    }
+
+    private String string(String name, String defaultValue) {
+
+        return Optional.ofNullable(option(name)).orElse(defaultValue);
+    }
+
+    private int integer(String name, int defaultValue) {
+
+        return Integer.parseInt(string(name, String.valueOf(defaultValue)));
+    }
+
+    private Duration duration(String name, String defaultValue) {
+
+        var value = string(name, defaultValue).trim().toLowerCase();
+        if(value.startsWith("p")) {
+            return Duration.parse(value.toUpperCase());
+        }
+        if(value.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+        }
+        var amount = Long.parseLong(value.substring(0, value.length() - 1));
+        switch(value.charAt(value.length() - 1)) {
+            case 's': return Duration.ofSeconds(amount);
+            case 'm': return Duration.ofMinutes(amount);
+            default: throw new IllegalArgumentException("Unsupported duration for --" + name + " : " + value);
+        }
+    }
+
+    public enum Target {
+        STUBS,
+        MONGO,
+        EXTERNAL
+    }
+
+    public enum RequestKind {
+
+        /**
+         * GET /v1/movies/{id} on movies-service.
+         */
+        MOVIE,
+
+        /**
+         * GET /v1/movieinfos?limit= on movies-info-service.
+         */
+        MOVIEINFOS,
+
+        /**
+         * GET /v1/reviews?movieInfoId= on movies-review-service.
+         */
+        REVIEWS
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class StubBehaviour {
+
+        private Duration latency;
+        private Duration jitter;
+        private double errorRate;
+    }
+}
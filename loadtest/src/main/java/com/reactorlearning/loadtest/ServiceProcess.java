@@ -0,0 +1,105 @@
+package com.reactorlearning.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One of the services running from its boot jar in a child JVM, with its output going to
+ * {@code <name>.log} next to the report.
+ */
+@Slf4j
+public class ServiceProcess implements AutoCloseable {
+
+    private String name;
+    private Process process;
+    private int port;
+
+    private ServiceProcess(String name, Process process, int port) {
+        this.name = name;
+        this.process = process;
+        this.port = port;
+    }
+
+    public static ServiceProcess start(String name, Path jar, int port, List<String> jvmArgs, List<String> appArgs,
+                                       Path logDirectory, String readinessPath, Duration startupTimeout)
+            throws IOException, InterruptedException {
+
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("--server.port=" + port);
+        command.addAll(appArgs);
+
+        Files.createDirectories(logDirectory);
+        var logFile = logDirectory.resolve(name + ".log");
+        var process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile.toFile())
+                .start();
+        var serviceProcess = new ServiceProcess(name, process, port);
+        log.info("Starting {} on port {}, output in {}", name, port, logFile);
+
+        try {
+            serviceProcess.awaitReady(readinessPath, startupTimeout);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            serviceProcess.close();
+            throw e;
+        }
+        return serviceProcess;
+    }
+
+    public String baseUrl() {
+
+        return "http://localhost:" + port;
+    }
+
+    private void awaitReady(String readinessPath, Duration startupTimeout) throws IOException, InterruptedException {
+
+        var httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+        var request = HttpRequest.newBuilder(URI.create(baseUrl() + readinessPath))
+                .timeout(Duration.ofSeconds(2))
+                .build();
+        var deadline = System.nanoTime() + startupTimeout.toNanos();
+
+        while(System.nanoTime() < deadline) {
+            if(!process.isAlive()) {
+                throw new IllegalStateException(name + " exited with " + process.exitValue() + " during startup");
+            }
+            try {
+                var response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                if(response.statusCode() / 100 == 2) {
+                    log.info("{} is up", name);
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException(name + " did not become ready within " + startupTimeout);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+
+        process.destroy();
+        if(!process.waitFor(15, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+}
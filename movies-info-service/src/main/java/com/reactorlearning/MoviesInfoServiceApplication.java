@@ -2,11 +2,14 @@ package com.reactorlearning;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import reactor.core.scheduler.Schedulers;
 
 @SpringBootApplication
 public class MoviesInfoServiceApplication {
 
 	public static void main(String[] args) {
+		// executor.* meters (active, queued, completed) for every Reactor scheduler, via the global registry
+		Schedulers.enableMetrics();
 		SpringApplication.run(MoviesInfoServiceApplication.class, args);
 	}
 
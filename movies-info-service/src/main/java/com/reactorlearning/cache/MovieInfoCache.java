@@ -0,0 +1,134 @@
+package com.reactorlearning.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.repository.MovieInfoRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bounded local cache of MovieInfo documents in front of Mongo.
+ * <p>
+ * Entries are evicted by Caffeine's W-TinyLFU policy once {@code moviesInfo.cache.maxEntries} is
+ * reached and expire {@code moviesInfo.cache.ttl} after being written. Misses are stored as the
+ * pending load, so concurrent readers of a missing key wait for one Mongo query instead of each
+ * issuing their own. Lookups by name only cache the name to id mapping and resolve the document
+ * through the id cache, so invalidating an id is enough to drop stale documents.
+ * <p>
+ * Writes do race reads: a lookup by name that read a document before an update can complete after
+ * the update cached its result. {@link #put} therefore never replaces a cached document with one of
+ * a lower version. A load by id still in flight when its id is evicted is dropped by Caffeine rather
+ * than cached, but a lookup by name racing a delete can cache the deleted document until the ttl.
+ * <p>
+ * Hit, miss, eviction and size meters are published as {@code cache.*} with
+ * {@code cache=movieInfoById|movieInfoIdByName}.
+ */
+@Component
+public class MovieInfoCache {
+
+    private MovieInfoRepository movieInfoRepository;
+    private boolean enabled;
+    private AsyncCache<String, MovieInfo> movieInfoById;
+    private AsyncCache<String, String> movieInfoIdByName;
+
+    public MovieInfoCache(MovieInfoRepository movieInfoRepository, MeterRegistry meterRegistry,
+                          @Value("${moviesInfo.cache.enabled:true}") boolean enabled,
+                          @Value("${moviesInfo.cache.maxEntries:10000}") long maxEntries,
+                          @Value("${moviesInfo.cache.ttl:PT10M}") Duration ttl) {
+        this.movieInfoRepository = movieInfoRepository;
+        this.enabled = enabled;
+        this.movieInfoById = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .<String, MovieInfo>buildAsync(), "movieInfoById");
+        this.movieInfoIdByName = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .<String, String>buildAsync(), "movieInfoIdByName");
+    }
+
+    public Mono<MovieInfo> findById(String id) {
+
+        if(!enabled) {
+            return movieInfoRepository.findById(id);
+        }
+        // toFuture() detaches the load from the caller, a cancelled reader does not abort it for the others.
+        // The caller's Context is carried over, so the Mongo query is traced as part of the request that loaded it
+        return Mono.deferContextual(contextView -> Mono.fromFuture(movieInfoById.get(id,
+                (key, executor) -> movieInfoRepository.findById(key).contextWrite(contextView).toFuture())));
+    }
+
+    public Mono<MovieInfo> findByName(String name) {
+
+        if(!enabled) {
+            return movieInfoRepository.findByName(name);
+        }
+        return Mono.deferContextual(contextView -> Mono.fromFuture(movieInfoIdByName.get(name,
+                        (key, executor) -> movieInfoRepository.findByName(key)
+                                .doOnNext(this::put)
+                                .map(MovieInfo::getMovieInfoId)
+                                .contextWrite(contextView)
+                                .toFuture())))
+                .flatMap(this::findById);
+    }
+
+    public void put(MovieInfo movieInfo) {
+
+        if(enabled && movieInfo.getMovieInfoId() != null) {
+            movieInfoById.asMap().compute(movieInfo.getMovieInfoId(),
+                    (id, cached) -> isNewer(cached, movieInfo) ? cached : CompletableFuture.completedFuture(movieInfo));
+        }
+    }
+
+    private static boolean isNewer(CompletableFuture<MovieInfo> cached, MovieInfo movieInfo) {
+
+        if(cached == null || !cached.isDone() || cached.isCompletedExceptionally()) {
+            return false;
+        }
+        var cachedMovieInfo = cached.getNow(null);
+        return cachedMovieInfo != null && cachedMovieInfo.getVersion() != null && movieInfo.getVersion() != null
+                && cachedMovieInfo.getVersion() > movieInfo.getVersion();
+    }
+
+    public void evict(String id) {
+
+        if(!enabled) {
+            return;
+        }
+        var cached = movieInfoById.getIfPresent(id);
+        if(cached != null && cached.isDone() && !cached.isCompletedExceptionally()) {
+            var movieInfo = cached.getNow(null);
+            if(movieInfo != null) {
+                evictName(movieInfo.getName());
+            }
+        }
+        movieInfoById.synchronous().invalidate(id);
+    }
+
+    public void evictName(String name) {
+
+        if(enabled && name != null) {
+            movieInfoIdByName.synchronous().invalidate(name);
+        }
+    }
+
+    public void evictAllNames() {
+
+        movieInfoIdByName.synchronous().invalidateAll();
+    }
+
+    public void invalidateAll() {
+
+        movieInfoById.synchronous().invalidateAll();
+        movieInfoIdByName.synchronous().invalidateAll();
+    }
+}
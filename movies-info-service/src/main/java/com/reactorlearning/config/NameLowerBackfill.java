@@ -0,0 +1,40 @@
+package com.reactorlearning.config;
+
+import com.reactorlearning.service.MoviesInfoService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Sets the {@code nameLower} of the movie infos saved before it was kept, before the server starts.
+ * <p>
+ * The searches range over {@code nameLower}, a movie info without it would not be found by any of
+ * them until its next save. Only movie infos missing it are touched, so running it on every start
+ * is safe, {@code moviesInfo.nameLowerBackfill.enabled=false} skips the query once every movie info
+ * has it.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "moviesInfo.nameLowerBackfill.enabled", havingValue = "true", matchIfMissing = true)
+public class NameLowerBackfill implements SmartInitializingSingleton {
+
+    private MoviesInfoService moviesInfoService;
+    private Duration timeout;
+
+    public NameLowerBackfill(MoviesInfoService moviesInfoService,
+                             @Value("${moviesInfo.nameLowerBackfill.timeout:PT5M}") Duration timeout) {
+        this.moviesInfoService = moviesInfoService;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+
+        var updated = moviesInfoService.backfillNameLower().block(timeout);
+        log.info("nameLower backfilled for {} movie infos", updated);
+    }
+}
@@ -1,5 +1,6 @@
 package com.reactorlearning.controller;
 
+import com.reactorlearning.logging.SignalTracing;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -14,19 +15,19 @@ public class FluxAndMonoController {
     @GetMapping("/flux")
     public Flux<Integer> flux(){
         return Flux.just(1,2,3)
-                .log();
+                .transformDeferredContextual(SignalTracing.flux("flux"));
     }
 
     @GetMapping("/mono")
     public Mono<String> helloWorldMono() {
         return Mono.just("hello-world")
-                .log();
+                .transformDeferredContextual(SignalTracing.mono("mono"));
     }
 
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<Long> stream() {
         return Flux.interval(Duration.ofSeconds(1))
-                .log();
+                .transformDeferredContextual(SignalTracing.flux("stream"));
     }
 
 }
@@ -1,14 +1,27 @@
 package com.reactorlearning.controller;
 
+import com.reactorlearning.domain.BulkItemResult;
+import com.reactorlearning.domain.BulkMode;
+import com.reactorlearning.domain.ChangeEvent;
+import com.reactorlearning.domain.KeysetPage;
 import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.domain.MovieInfoSummary;
+import com.reactorlearning.exception.MovieInfoDataException;
+import com.reactorlearning.logging.SignalTracing;
 import com.reactorlearning.service.MoviesInfoService;
+import com.reactorlearning.util.KeysetCursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
+import java.util.List;
 
 @RestController
 @RequestMapping("/v1")
@@ -16,33 +29,151 @@ public class MoviesInfoController {
 
     private MoviesInfoService moviesInfoService;
 
+    @Value("${pagination.defaultLimit:100}")
+    private Integer defaultLimit;
+
+    @Value("${pagination.maxLimit:1000}")
+    private Integer maxLimit;
+
     public MoviesInfoController(MoviesInfoService moviesInfoService) {
         this.moviesInfoService = moviesInfoService;
     }
 
     @GetMapping("/movieinfos")
-    public Flux<MovieInfo> getAllMovieInfos(@RequestParam(value = "year", required = false) Integer year) {
+    public Mono<ResponseEntity<Flux<MovieInfo>>> getAllMovieInfos(@RequestParam(value = "year", required = false) Integer year,
+                                                                  @RequestParam(value = "ids", required = false) List<String> ids,
+                                                                  @RequestParam(value = "limit", required = false) Integer limit,
+                                                                  @RequestParam(value = "after", required = false) String after) {
 
+        if(ids != null) {
+            return Mono.just(ResponseEntity.ok().body(moviesInfoService.getMovieInfosByIds(ids)
+                    .transformDeferredContextual(SignalTracing.flux("movieInfos.byIds"))));
+        }
+        if(limit != null || after != null) {
+            return moviesInfoService.getMovieInfosPage(year, afterKey(after), pageLimit(limit))
+                    .map(page -> ResponseEntity.ok()
+                            .headers(headers -> {
+                                if(page.getNextCursor() != null) {
+                                    headers.set(KeysetPage.NEXT_CURSOR_HEADER, page.getNextCursor());
+                                }
+                            })
+                            .body(Flux.fromIterable(page.getItems())));
+        }
         if(year != null) {
-            return moviesInfoService.getMovieInfoByYear(year).log();
+            return Mono.just(ResponseEntity.ok().body(moviesInfoService.getMovieInfoByYear(year)
+                    .transformDeferredContextual(SignalTracing.flux("movieInfos.byYear"))));
         }
-        return moviesInfoService.getAllMovieInfos().log();
+        return Mono.just(ResponseEntity.ok().body(moviesInfoService.getAllMovieInfos()
+                .transformDeferredContextual(SignalTracing.flux("movieInfos.findAll"))));
+    }
+
+    @GetMapping(value = "/movieinfos", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<MovieInfo> streamMovieInfos(@RequestParam(value = "year", required = false) Integer year) {
+
+        return moviesInfoService.streamMovieInfos(year);
+    }
+
+    @GetMapping("/movieinfos/summaries")
+    public Mono<ResponseEntity<Flux<MovieInfoSummary>>> getMovieInfoSummaries(@RequestParam(value = "year", required = false) Integer year,
+                                                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                                                              @RequestParam(value = "after", required = false) String after) {
+
+        if(limit != null || after != null) {
+            return moviesInfoService.getMovieInfoSummariesPage(year, afterKey(after), pageLimit(limit))
+                    .map(page -> ResponseEntity.ok()
+                            .headers(headers -> {
+                                if(page.getNextCursor() != null) {
+                                    headers.set(KeysetPage.NEXT_CURSOR_HEADER, page.getNextCursor());
+                                }
+                            })
+                            .body(Flux.fromIterable(page.getItems())));
+        }
+        return Mono.just(ResponseEntity.ok().body(moviesInfoService.getMovieInfoSummaries(year)
+                .transformDeferredContextual(SignalTracing.flux("movieInfos.summaries"))));
+    }
+
+    @GetMapping("/movieinfos/search")
+    public Mono<ResponseEntity<Flux<MovieInfo>>> searchMovieInfos(@RequestParam(value = "name", required = false) String name,
+                                                                  @RequestParam(value = "cast", required = false) String cast,
+                                                                  @RequestParam(value = "fromYear", required = false) Integer fromYear,
+                                                                  @RequestParam(value = "toYear", required = false) Integer toYear,
+                                                                  @RequestParam(value = "limit", required = false) Integer limit,
+                                                                  @RequestParam(value = "after", required = false) String after) {
+
+        // always paged, a search never returns more than maxLimit movie infos at once
+        return moviesInfoService.searchMovieInfos(name, cast, fromYear, toYear, afterKey(after), pageLimit(limit))
+                .map(page -> ResponseEntity.ok()
+                        .headers(headers -> {
+                            if(page.getNextCursor() != null) {
+                                headers.set(KeysetPage.NEXT_CURSOR_HEADER, page.getNextCursor());
+                            }
+                        })
+                        .body(Flux.fromIterable(page.getItems())))
+                .transformDeferredContextual(SignalTracing.mono("movieInfos.search"));
+    }
+
+    @GetMapping(value = "/movieinfos/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChangeEvent<MovieInfo>>> streamMovieInfoChanges(@RequestParam(value = "year", required = false) Integer year,
+                                                                                @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+
+        return moviesInfoService.streamMovieInfoChanges(year, lastEventId);
+    }
+
+    private static String afterKey(String after) {
+
+        try {
+            return KeysetCursor.decode(after);
+        } catch (IllegalArgumentException ex) {
+            throw new MovieInfoDataException(ex.getMessage());
+        }
+    }
+
+    private int pageLimit(Integer limit) {
+
+        if(limit == null) {
+            return defaultLimit;
+        }
+        if(limit <= 0) {
+            throw new MovieInfoDataException("limit must be a Positive value");
+        }
+        return Math.min(limit, maxLimit);
     }
 
     @GetMapping("/movieinfos/{id}")
     public Mono<ResponseEntity<MovieInfo>> getMovieInfoById(@PathVariable String id) {
 
+        // a matching If-None-Match is answered with 304 by the ResponseEntity handling, the body is not written
         return moviesInfoService.getMovieInfoById(id)
-                .map(ResponseEntity.ok()::body)
+                .map(this::versionedResponse)
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()))
-                .log();
+                .transformDeferredContextual(SignalTracing.mono("movieInfo.byId"));
+    }
+
+    private ResponseEntity<MovieInfo> versionedResponse(MovieInfo movieInfo) {
+
+        var response = ResponseEntity.ok().cacheControl(CacheControl.noCache());
+        // documents written before versioning have nothing to tag them with until their next save
+        if(movieInfo.getVersion() != null) {
+            response.eTag(String.valueOf(movieInfo.getVersion()));
+        }
+        return response.body(movieInfo);
     }
 
     @PostMapping("/movieinfos")
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<MovieInfo> addMovieInfo(@RequestBody @Valid MovieInfo movieInfo) {
 
-        return moviesInfoService.addMovieInfo(movieInfo).log();
+        return moviesInfoService.addMovieInfo(movieInfo)
+                .transformDeferredContextual(SignalTracing.mono("movieInfo.add"));
+    }
+
+    @PostMapping(value = "/movieinfos/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE,
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<BulkItemResult> bulkWriteMovieInfos(@RequestBody Flux<MovieInfo> movieInfos,
+                                                    @RequestParam(value = "mode", defaultValue = "INSERT") BulkMode mode,
+                                                    @RequestParam(value = "ordered", defaultValue = "true") boolean ordered) {
+
+        return moviesInfoService.bulkWriteMovieInfos(movieInfos, mode, ordered);
     }
 
     @PutMapping("/movieinfos/{id}")
@@ -50,9 +181,9 @@ public class MoviesInfoController {
                                                           @PathVariable String id) {
 
         return moviesInfoService.updateMovieInfo(updatedMovieInfo, id)
-                .map(ResponseEntity.ok()::body)
+                .map(this::versionedResponse)
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()))
-                .log();
+                .transformDeferredContextual(SignalTracing.mono("movieInfo.update"));
     }
 
     @DeleteMapping("/movieinfos/{id}")
@@ -1,9 +1,15 @@
 package com.reactorlearning.domain;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotBlank;
@@ -11,20 +17,63 @@ import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Positive;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
 
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 @Document
+@CompoundIndexes({
+        // serves findByYear and the year filtered pages, which are ordered by _id
+        @CompoundIndex(name = "year_id", def = "{'year': 1, '_id': 1}"),
+        // searches are ordered by nameLower then _id, the name prefix is a range of the same key and
+        // the year range is checked on the index keys before any document is fetched
+        @CompoundIndex(name = "nameLower_id_year", def = "{'nameLower': 1, '_id': 1, 'year': 1}"),
+        // multikey, one key per cast member, same order and year check once the member is matched
+        @CompoundIndex(name = "cast_nameLower_id_year", def = "{'cast': 1, 'nameLower': 1, '_id': 1, 'year': 1}")
+})
 public class MovieInfo {
 
     @Id
     private String movieInfoId;
     @NotBlank(message = "movieInfo.name must be present")
+    @Indexed(unique = true)
     private String name;
     @NotNull
     @Positive(message = "movieInfo.year must be a Positive value")
     private Integer year;
     private List<@NotBlank(message = "movieInfo.cast must be present") String> cast;
     private LocalDate release_date;
+    // the name folded to lower case for prefix searches, kept in step with the name by its setter and the
+    // constructors; documents saved before it existed get it from NameLowerBackfill at startup
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private String nameLower;
+    // incremented on every save, also the ETag of the document
+    @Version
+    private Long version;
+
+    public MovieInfo(String movieInfoId, String name, Integer year, List<String> cast, LocalDate release_date) {
+        this(movieInfoId, name, year, cast, release_date, null);
+    }
+
+    public MovieInfo(String movieInfoId, String name, Integer year, List<String> cast, LocalDate release_date,
+                     Long version) {
+        this.movieInfoId = movieInfoId;
+        setName(name);
+        this.year = year;
+        this.cast = cast;
+        this.release_date = release_date;
+        this.version = version;
+    }
+
+    public void setName(String name) {
+
+        this.name = name;
+        this.nameLower = lowerCase(name);
+    }
+
+    public static String lowerCase(String name) {
+
+        return name == null ? null : name.toLowerCase(Locale.ROOT);
+    }
 }
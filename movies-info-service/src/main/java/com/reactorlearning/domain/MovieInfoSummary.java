@@ -0,0 +1,23 @@
+package com.reactorlearning.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ * The listing view of a {@link MovieInfo}, read from the {@code movieInfo} collection with a
+ * projection so cast and release date are neither sent by Mongo nor decoded.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovieInfoSummary {
+
+    public static final String[] FIELDS = {"name", "year"};
+
+    @Id
+    private String movieInfoId;
+    private String name;
+    private Integer year;
+}
@@ -0,0 +1,11 @@
+package com.reactorlearning.exception;
+
+public class MovieInfoDataException extends RuntimeException {
+
+    private String message;
+
+    public MovieInfoDataException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
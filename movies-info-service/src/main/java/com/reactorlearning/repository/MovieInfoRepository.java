@@ -1,13 +1,27 @@
 package com.reactorlearning.repository;
 
 import com.reactorlearning.domain.MovieInfo;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
 
 public interface MovieInfoRepository extends ReactiveMongoRepository<MovieInfo, String> {
 
     Flux<MovieInfo> findByYear(Integer year);
     Mono<MovieInfo> findByName(String name);
+    Flux<MovieInfo> findByMovieInfoIdIn(Collection<String> movieInfoIds);
+
+    // keyset pagination, ids that are valid ObjectIds are stored as ObjectId and sort after every string id
+    Flux<MovieInfo> findAllBy(Pageable pageable);
+    Flux<MovieInfo> findByMovieInfoIdGreaterThan(String movieInfoId, Pageable pageable);
+    @Query("{ '$or': [ { '_id': { '$gt': ?0 } }, { '_id': { '$type': 'objectId' } } ] }")
+    Flux<MovieInfo> findAfterStringMovieInfoId(String movieInfoId, Pageable pageable);
+    Flux<MovieInfo> findByYear(Integer year, Pageable pageable);
+    Flux<MovieInfo> findByYearAndMovieInfoIdGreaterThan(Integer year, String movieInfoId, Pageable pageable);
+    @Query("{ 'year': ?0, '$or': [ { '_id': { '$gt': ?1 } }, { '_id': { '$type': 'objectId' } } ] }")
+    Flux<MovieInfo> findByYearAfterStringMovieInfoId(Integer year, String movieInfoId, Pageable pageable);
 }
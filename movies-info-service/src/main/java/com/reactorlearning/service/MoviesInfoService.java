@@ -1,23 +1,106 @@
 package com.reactorlearning.service;
 
+import com.mongodb.MongoServerException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.reactorlearning.cache.MovieInfoCache;
+import com.reactorlearning.domain.BulkItemResult;
+import com.reactorlearning.domain.BulkMode;
+import com.reactorlearning.domain.ChangeEvent;
+import com.reactorlearning.domain.KeysetPage;
 import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.domain.MovieInfoSummary;
+import com.reactorlearning.exception.MovieInfoDataException;
 import com.reactorlearning.repository.MovieInfoRepository;
+import com.reactorlearning.util.BulkWriter;
+import com.reactorlearning.util.ChangeFeed;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import javax.validation.Validator;
+import java.util.List;
+import java.util.Set;
 
 @Service
 public class MoviesInfoService {
 
+    // between the name and the id in a search cursor, names are not expected to contain it
+    private static final char SEARCH_CURSOR_SEPARATOR = '\u0000';
+    private static final int BACKFILL_BATCH_SIZE = 500;
+    // FailedToParse, TypeMismatch
+    private static final Set<Integer> PIPELINE_UPDATE_UNSUPPORTED_CODES = Set.of(9, 14);
+
     private MovieInfoRepository movieInfoRepository;
+    private MovieInfoCache movieInfoCache;
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    private BulkWriter<MovieInfo> bulkWriter;
+    private ChangeFeed<MovieInfo> movieInfoChangeFeed;
 
-    public MoviesInfoService(MovieInfoRepository movieInfoRepository) {
+    @Value("${streaming.batchSize:256}")
+    private Integer streamBatchSize;
+
+    public MoviesInfoService(MovieInfoRepository movieInfoRepository, MovieInfoCache movieInfoCache,
+                             ReactiveMongoTemplate reactiveMongoTemplate, Validator validator,
+                             @Value("${bulk.batchSize:500}") int bulkBatchSize, ChangeFeed<MovieInfo> movieInfoChangeFeed,
+                             Scheduler blockingScheduler) {
         this.movieInfoRepository = movieInfoRepository;
+        this.movieInfoCache = movieInfoCache;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.movieInfoChangeFeed = movieInfoChangeFeed;
+        this.bulkWriter = new BulkWriter<>(reactiveMongoTemplate, validator, MovieInfo.class,
+                MovieInfo::getMovieInfoId, MovieInfo::setMovieInfoId, bulkBatchSize, blockingScheduler);
     }
 
     public Mono<MovieInfo> addMovieInfo(MovieInfo movieInfo) {
 
-        return movieInfoRepository.save(movieInfo);
+        // a new document starts at version 0, whatever version the client sent
+        movieInfo.setVersion(null);
+        // an insert rather than a save, a POST with the id of an existing document fails with a duplicate key
+        // (409) instead of overwriting it, replacing a document is the versioned PUT's job
+        return movieInfoRepository.insert(movieInfo)
+                .doOnNext(savedMovieInfo -> {
+                    // another movie info of the same name may be cached under it
+                    movieInfoCache.evictName(savedMovieInfo.getName());
+                    movieInfoCache.put(savedMovieInfo);
+                });
+    }
+
+    public Flux<BulkItemResult> bulkWriteMovieInfos(Flux<MovieInfo> movieInfos, BulkMode mode, boolean ordered) {
+
+        return bulkWriter.write(movieInfos, mode, ordered, (validMovieInfos, write) -> write
+                .doOnNext(writtenItems -> {
+                    writtenItems.getInserted().forEach(this::evictWritten);
+                    writtenItems.getUpdated().forEach(this::evictWritten);
+                    // the replaced documents are not read, names they had before may still map to their ids
+                    if(!writtenItems.getUpdated().isEmpty()) {
+                        movieInfoCache.evictAllNames();
+                    }
+                }));
+    }
+
+    private void evictWritten(MovieInfo movieInfo) {
+
+        movieInfoCache.evict(movieInfo.getMovieInfoId());
+        movieInfoCache.evictName(movieInfo.getName());
     }
 
     public Flux<MovieInfo> getAllMovieInfos() {
@@ -25,26 +108,50 @@ public class MoviesInfoService {
         return movieInfoRepository.findAll();
     }
 
+    public Flux<MovieInfo> streamMovieInfos(Integer year) {
+
+        var query = year == null ? new Query() : Query.query(Criteria.where("year").is(year));
+        query.cursorBatchSize(streamBatchSize);
+
+        // demand is requested from Mongo one cursor batch at a time, never more than the client consumes
+        return reactiveMongoTemplate.find(query, MovieInfo.class)
+                .limitRate(streamBatchSize);
+    }
+
+    public Flux<ServerSentEvent<ChangeEvent<MovieInfo>>> streamMovieInfoChanges(Integer year, String lastEventId) {
+
+        // deletes only carry the id, they reach every subscriber whatever its year
+        return movieInfoChangeFeed.listen(lastEventId, change -> year == null || change.getDocument() == null
+                || year.equals(change.getDocument().getYear()));
+    }
+
     public Mono<MovieInfo> getMovieInfoById(String id) {
 
-        return movieInfoRepository.findById(id);
+        return movieInfoCache.findById(id);
     }
 
     public Mono<MovieInfo> updateMovieInfo(MovieInfo updatedMovieInfo, String id) {
 
         return movieInfoRepository.findById(id)
                 .flatMap(movieInfo -> {
+                    movieInfoCache.evictName(movieInfo.getName());
                     movieInfo.setName(updatedMovieInfo.getName());
                     movieInfo.setCast(updatedMovieInfo.getCast());
                     movieInfo.setYear(updatedMovieInfo.getYear());
                     movieInfo.setRelease_date(updatedMovieInfo.getRelease_date());
                     return movieInfoRepository.save(movieInfo);
+                })
+                .doOnNext(savedMovieInfo -> {
+                    movieInfoCache.evictName(savedMovieInfo.getName());
+                    movieInfoCache.evict(id);
+                    movieInfoCache.put(savedMovieInfo);
                 });
     }
 
     public Mono<Void> deleteMovieInfo(String id) {
 
-        return movieInfoRepository.deleteById(id);
+        return movieInfoRepository.deleteById(id)
+                .doOnSuccess(unused -> movieInfoCache.evict(id));
     }
 
     public Flux<MovieInfo> getMovieInfoByYear(Integer year) {
@@ -54,6 +161,204 @@ public class MoviesInfoService {
 
     public Mono<MovieInfo> getMovieInfoByName(String name) {
 
-        return movieInfoRepository.findByName(name);
+        return movieInfoCache.findByName(name);
+    }
+
+    public Flux<MovieInfo> getMovieInfosByIds(List<String> ids) {
+
+        return movieInfoRepository.findByMovieInfoIdIn(ids);
+    }
+
+    public Mono<KeysetPage<MovieInfo>> getMovieInfosPage(Integer year, String afterMovieInfoId, int limit) {
+
+        // always the first "page" of the query, the cursor key does the seeking instead of skip
+        var pageable = PageRequest.of(0, limit + 1, Sort.by("movieInfoId"));
+
+        Flux<MovieInfo> movieInfoFlux;
+        if(afterMovieInfoId == null) {
+            movieInfoFlux = year == null
+                    ? movieInfoRepository.findAllBy(pageable)
+                    : movieInfoRepository.findByYear(year, pageable);
+        } else if(ObjectId.isValid(afterMovieInfoId)) {
+            movieInfoFlux = year == null
+                    ? movieInfoRepository.findByMovieInfoIdGreaterThan(afterMovieInfoId, pageable)
+                    : movieInfoRepository.findByYearAndMovieInfoIdGreaterThan(year, afterMovieInfoId, pageable);
+        } else {
+            movieInfoFlux = year == null
+                    ? movieInfoRepository.findAfterStringMovieInfoId(afterMovieInfoId, pageable)
+                    : movieInfoRepository.findByYearAfterStringMovieInfoId(year, afterMovieInfoId, pageable);
+        }
+
+        return movieInfoFlux.collectList()
+                .map(movieInfos -> KeysetPage.of(movieInfos, limit, MovieInfo::getMovieInfoId));
+    }
+
+    public Flux<MovieInfoSummary> getMovieInfoSummaries(Integer year) {
+
+        var query = year == null ? new Query() : Query.query(Criteria.where("year").is(year));
+        return findSummaries(query);
+    }
+
+    public Mono<KeysetPage<MovieInfoSummary>> getMovieInfoSummariesPage(Integer year, String afterMovieInfoId, int limit) {
+
+        var query = year == null ? new Query() : Query.query(Criteria.where("year").is(year));
+        if(afterMovieInfoId != null) {
+            // same ordering as getMovieInfosPage, ObjectId ids (BSON type 7) sort after every string id
+            query.addCriteria(ObjectId.isValid(afterMovieInfoId)
+                    ? Criteria.where("movieInfoId").gt(new ObjectId(afterMovieInfoId))
+                    : new Criteria().orOperator(Criteria.where("movieInfoId").gt(afterMovieInfoId),
+                            Criteria.where("movieInfoId").type(7)));
+        }
+        query.with(Sort.by("movieInfoId")).limit(limit + 1);
+
+        return findSummaries(query).collectList()
+                .map(summaries -> KeysetPage.of(summaries, limit, MovieInfoSummary::getMovieInfoId));
+    }
+
+    private Flux<MovieInfoSummary> findSummaries(Query query) {
+
+        // _id is always returned, only the remaining summary fields have to be included
+        query.fields().include(MovieInfoSummary.FIELDS);
+        return reactiveMongoTemplate.find(query, MovieInfoSummary.class,
+                reactiveMongoTemplate.getCollectionName(MovieInfo.class));
+    }
+
+    /**
+     * A page of the movie infos matching every given criterion, ordered by lower cased name then id.
+     * <p>
+     * {@code namePrefix} matches case-insensitively, {@code cast} matches one cast member exactly and
+     * the years are inclusive. The name prefix and the cursor both become bounds of the same
+     * {@code nameLower} range, so any combination is served by one of the search indexes of
+     * {@link MovieInfo} without sorting in memory.
+     */
+    public Mono<KeysetPage<MovieInfo>> searchMovieInfos(String namePrefix, String cast, Integer fromYear, Integer toYear,
+                                                        String after, int limit) {
+
+        if(fromYear != null && toYear != null && fromYear > toYear) {
+            throw new MovieInfoDataException("fromYear must not be after toYear");
+        }
+
+        var prefix = namePrefix == null ? "" : MovieInfo.lowerCase(namePrefix);
+        var afterName = prefix;
+        String afterId = null;
+        if(after != null) {
+            var separator = after.indexOf(SEARCH_CURSOR_SEPARATOR);
+            if(separator < 0) {
+                throw new MovieInfoDataException("Invalid search cursor");
+            }
+            afterName = after.substring(0, separator);
+            afterId = after.substring(separator + 1);
+        }
+
+        // the lower bound also leaves out documents without nameLower until they are backfilled, they would sort
+        // before every name
+        var nameLower = Criteria.where("nameLower").gte(afterName.compareTo(prefix) > 0 ? afterName : prefix);
+        var prefixEnd = prefixEnd(prefix);
+        if(prefixEnd != null) {
+            nameLower.lt(prefixEnd);
+        }
+        var query = Query.query(nameLower);
+        if(afterId != null) {
+            query.addCriteria(afterKey(afterName, afterId));
+        }
+        if(cast != null) {
+            query.addCriteria(Criteria.where("cast").is(cast));
+        }
+        if(fromYear != null || toYear != null) {
+            var year = Criteria.where("year");
+            if(fromYear != null) {
+                year.gte(fromYear);
+            }
+            if(toYear != null) {
+                year.lte(toYear);
+            }
+            query.addCriteria(year);
+        }
+        query.with(Sort.by("nameLower", "movieInfoId")).cursorBatchSize(limit + 1);
+
+        // only as many documents as the page needs are requested from the cursor
+        return reactiveMongoTemplate.find(query, MovieInfo.class)
+                .take(limit + 1, true)
+                .collectList()
+                .map(movieInfos -> KeysetPage.of(movieInfos, limit,
+                        movieInfo -> movieInfo.getNameLower() + SEARCH_CURSOR_SEPARATOR + movieInfo.getMovieInfoId()));
+    }
+
+    /**
+     * The documents after the cursor's name and id, nameLower is not unique. Mongo compares ids of
+     * the same BSON type only, ObjectId ids sort after every string id and are all after a string
+     * cursor id.
+     */
+    private static Criteria afterKey(String afterName, String afterId) {
+
+        var sameNameAfterId = ObjectId.isValid(afterId)
+                ? Criteria.where("nameLower").is(afterName).and("movieInfoId").gt(new ObjectId(afterId))
+                : Criteria.where("nameLower").is(afterName).orOperator(Criteria.where("movieInfoId").gt(afterId),
+                        Criteria.where("movieInfoId").type(BsonType.OBJECT_ID.getValue()));
+        return new Criteria().orOperator(Criteria.where("nameLower").gt(afterName), sameNameAfterId);
+    }
+
+    /**
+     * Sets the {@code nameLower} of the movie infos saved before it was kept, every search leaves them
+     * out until then.
+     * <p>
+     * ASCII names are folded by a pipeline update inside Mongo, {@code $toLower} is only defined for
+     * ASCII. The other names, and every name on servers older than 4.2 which have no pipeline updates,
+     * are read and written back folded the same way as {@link MovieInfo#setName}. A movie info renamed
+     * meanwhile already has its {@code nameLower} and is left alone.
+     *
+     * @return the number of movie infos updated
+     */
+    public Mono<Long> backfillNameLower() {
+
+        var missing = Filters.and(Filters.exists("nameLower", false), Filters.type("name", BsonType.STRING));
+        var asciiName = Filters.regex("name", "^[\\x00-\\x7F]*$");
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(MovieInfo.class))
+                .flatMap(collection -> Mono.from(collection.updateMany(Filters.and(missing, asciiName),
+                                List.of(Updates.set("nameLower", new Document("$toLower", "$name")))))
+                        .map(UpdateResult::getModifiedCount)
+                        // the update pipeline is rejected by servers before 4.2, the batches do all the names
+                        .onErrorResume(MoviesInfoService::pipelineUpdateUnsupported, ex -> Mono.just(0L))
+                        .flatMap(folded -> backfillNameLowerInBatches(collection, missing)
+                                .map(written -> folded + written)));
+    }
+
+    private Mono<Long> backfillNameLowerInBatches(MongoCollection<Document> collection, Bson missing) {
+
+        return Flux.from(collection.find(missing).projection(Projections.include("name")).batchSize(BACKFILL_BATCH_SIZE))
+                .map(document -> (WriteModel<Document>) new UpdateOneModel<Document>(
+                        Filters.and(missing, Filters.eq("_id", document.get("_id")), Filters.eq("name", document.getString("name"))),
+                        Updates.set("nameLower", MovieInfo.lowerCase(document.getString("name")))))
+                .buffer(BACKFILL_BATCH_SIZE)
+                .concatMap(models -> Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(false))))
+                .map(bulkWriteResult -> (long) bulkWriteResult.getModifiedCount())
+                .reduce(0L, Long::sum);
+    }
+
+    /**
+     * @return the smallest string after every string starting with the prefix, null when there is none
+     */
+    static String prefixEnd(String prefix) {
+
+        var end = new StringBuilder(prefix);
+        while(end.length() > 0) {
+            var last = end.charAt(end.length() - 1);
+            if(last != Character.MAX_VALUE) {
+                end.setCharAt(end.length() - 1, (char) (last + 1));
+                return end.toString();
+            }
+            end.setLength(end.length() - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Whether the server rejected an update pipeline for being older than 4.2, its update command
+     * only parses a document as the update.
+     */
+    static boolean pipelineUpdateUnsupported(Throwable ex) {
+
+        return ex instanceof MongoServerException
+                && PIPELINE_UPDATE_UNSUPPORTED_CODES.contains(((MongoServerException) ex).getCode());
     }
 }
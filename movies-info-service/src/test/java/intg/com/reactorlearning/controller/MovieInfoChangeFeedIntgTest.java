@@ -0,0 +1,138 @@
+package com.reactorlearning.controller;
+
+import com.reactorlearning.domain.ChangeEvent;
+import com.reactorlearning.domain.ChangeOperation;
+import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.repository.MovieInfoRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Change streams need Mongo 3.6+ running as a replica set, the embedded one is started as a single
+ * member set.
+ */
+@SpringBootTest
+@TestPropertySource(properties = {"spring.mongodb.embedded.version=4.0.2",
+        "spring.mongodb.embedded.storage.repl-set-name=rs0"})
+@ActiveProfiles("test")
+@AutoConfigureWebTestClient
+class MovieInfoChangeFeedIntgTest {
+
+    @Autowired
+    MovieInfoRepository movieInfoRepository;
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    static String MOVIES_INFO_STREAM_URL = "/v1/movieinfos/stream";
+
+    @AfterEach
+    void tearDown() {
+
+        movieInfoRepository.deleteAll().block();
+    }
+
+    @Test
+    void streamMovieInfoChanges() {
+
+        var changes = webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_STREAM_URL)
+                        .queryParam("year", 2005)
+                        .build())
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ChangeEvent<MovieInfo>>>() {})
+                .getResponseBody()
+                .filter(event -> event.data() != null);
+
+        StepVerifier.create(changes)
+                .then(() -> changeStreamOpened().thenMany(movieInfoRepository.saveAll(List.of(
+                                new MovieInfo("abc", "Welcome Back",
+                                        2012, List.of("AK"), LocalDate.parse("2012-08-12")),
+                                new MovieInfo("def", "Batman Begins",
+                                        2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15")))))
+                        .then(movieInfoRepository.deleteById("def"))
+                        .block())
+                .assertNext(event -> {
+                    assertEquals(ChangeOperation.INSERT, event.data().getOperation());
+                    assertEquals("def", event.data().getId());
+                    assertEquals("Batman Begins", event.data().getDocument().getName());
+                    assertNotNull(event.id());
+                })
+                .assertNext(event -> {
+                    assertEquals(ChangeOperation.DELETE, event.data().getOperation());
+                    assertEquals("def", event.data().getId());
+                    assertNull(event.data().getDocument());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void streamMovieInfoChanges_resumesFromLastEventId() {
+
+        var firstChange = webTestClient
+                .get()
+                .uri(MOVIES_INFO_STREAM_URL)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ChangeEvent<MovieInfo>>>() {})
+                .getResponseBody()
+                .filter(event -> event.data() != null);
+
+        var lastEventId = new String[1];
+        StepVerifier.create(firstChange)
+                .then(() -> changeStreamOpened().then(movieInfoRepository.save(new MovieInfo("abc", "Welcome Back",
+                        2012, List.of("AK"), LocalDate.parse("2012-08-12")))).block())
+                .assertNext(event -> lastEventId[0] = event.id())
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+
+        // written while nobody listens, only a resumed change stream still has it
+        movieInfoRepository.save(new MovieInfo("def", "Batman Begins",
+                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"))).block();
+
+        var resumed = webTestClient
+                .get()
+                .uri(MOVIES_INFO_STREAM_URL)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .header("Last-Event-ID", lastEventId[0])
+                .exchange()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ChangeEvent<MovieInfo>>>() {})
+                .getResponseBody()
+                .filter(event -> event.data() != null);
+
+        StepVerifier.create(resumed)
+                .assertNext(event -> assertEquals("def", event.data().getId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    /**
+     * The response is committed before the change stream behind it is open.
+     */
+    private Mono<Long> changeStreamOpened() {
+
+        return Mono.delay(Duration.ofMillis(500));
+    }
+}
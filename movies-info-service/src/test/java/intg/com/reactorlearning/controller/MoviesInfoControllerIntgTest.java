@@ -1,7 +1,13 @@
 package com.reactorlearning.controller;
 
+import com.reactorlearning.cache.MovieInfoCache;
+import com.reactorlearning.domain.BulkItemResult;
+import com.reactorlearning.domain.BulkItemStatus;
 import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.domain.MovieInfoSummary;
 import com.reactorlearning.repository.MovieInfoRepository;
+import com.reactorlearning.service.MoviesInfoService;
+import org.bson.Document;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -9,19 +15,28 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.util.UriBuilder;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.test.StepVerifier;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 
 @SpringBootTest
-@TestPropertySource(properties = "spring.mongodb.embedded.version=3.5.5")
+@TestPropertySource(properties = {"spring.mongodb.embedded.version=3.5.5", "mongo.queryPlanVerification.enabled=true"})
 @ActiveProfiles("test")
 @AutoConfigureWebTestClient
 class MoviesInfoControllerIntgTest {
@@ -29,6 +44,15 @@ class MoviesInfoControllerIntgTest {
     @Autowired
     MovieInfoRepository movieInfoRepository;
 
+    @Autowired
+    MovieInfoCache movieInfoCache;
+
+    @Autowired
+    MoviesInfoService moviesInfoService;
+
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+
     @Autowired
     WebTestClient webTestClient;
 
@@ -51,6 +75,7 @@ class MoviesInfoControllerIntgTest {
     void tearDown() {
 
         movieInfoRepository.deleteAll().block();
+        movieInfoCache.invalidateAll();
     }
 
     @Test
@@ -76,6 +101,26 @@ class MoviesInfoControllerIntgTest {
                 });
     }
 
+    @Test
+    void addMovieInfo_existingId() {
+
+        var movieInfo = new MovieInfo("abc", "Dark Knight Rises",
+                2012, List.of("Bale"), LocalDate.parse("2012-07-20"));
+
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(409);
+
+        var existing = movieInfoRepository.findById("abc").block();
+        assertNotNull(existing);
+        assertEquals("Welcome Back", existing.getName());
+        assertEquals(0L, existing.getVersion());
+    }
+
     @Test
     void addMovieInfo_validation() {
 
@@ -131,6 +176,267 @@ class MoviesInfoControllerIntgTest {
                 .hasSize(1);
     }
 
+    @Test
+    void getAllMovieInfos_keysetPages() {
+
+        var firstPage = webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL)
+                        .queryParam("limit", 1)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().exists("X-Next-Cursor")
+                .expectBodyList(MovieInfo.class)
+                .hasSize(1)
+                .returnResult();
+
+        var nextCursor = firstPage.getResponseHeaders().getFirst("X-Next-Cursor");
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL)
+                        .queryParam("limit", 1)
+                        .queryParam("after", nextCursor)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().doesNotExist("X-Next-Cursor")
+                .expectBodyList(MovieInfo.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    var secondPage = listEntityExchangeResult.getResponseBody();
+                    assertNotNull(secondPage);
+                    assertEquals(1, secondPage.size());
+                    assertNotEquals(firstPage.getResponseBody().get(0).getMovieInfoId(),
+                            secondPage.get(0).getMovieInfoId());
+                });
+    }
+
+    @Test
+    void getMovieInfoSummaries() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/summaries")
+                        .queryParam("year", 2012)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].movieInfoId").isEqualTo("abc")
+                .jsonPath("$[0].name").isEqualTo("Welcome Back")
+                .jsonPath("$[0].year").isEqualTo(2012)
+                .jsonPath("$[0].cast").doesNotExist();
+    }
+
+    @Test
+    void getMovieInfoSummaries_keysetPages() {
+
+        var firstPage = webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/summaries")
+                        .queryParam("limit", 1)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().exists("X-Next-Cursor")
+                .expectBodyList(MovieInfoSummary.class)
+                .hasSize(1)
+                .returnResult();
+
+        var nextCursor = firstPage.getResponseHeaders().getFirst("X-Next-Cursor");
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/summaries")
+                        .queryParam("limit", 1)
+                        .queryParam("after", nextCursor)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().doesNotExist("X-Next-Cursor")
+                .expectBodyList(MovieInfoSummary.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    var secondPage = listEntityExchangeResult.getResponseBody();
+                    assertNotNull(secondPage);
+                    assertEquals(1, secondPage.size());
+                    assertNotEquals(firstPage.getResponseBody().get(0).getMovieInfoId(),
+                            secondPage.get(0).getMovieInfoId());
+                });
+    }
+
+    @Test
+    void searchMovieInfos() {
+
+        searchNames(uriBuilder -> uriBuilder.queryParam("name", "BAT"), List.of("Batman Begins"));
+        searchNames(uriBuilder -> uriBuilder.queryParam("cast", "AK"), List.of("Welcome Back"));
+        searchNames(uriBuilder -> uriBuilder.queryParam("fromYear", 2006), List.of("Welcome Back"));
+        searchNames(uriBuilder -> uriBuilder.queryParam("cast", "Bale").queryParam("toYear", 2005), List.of("Batman Begins"));
+        searchNames(uriBuilder -> uriBuilder.queryParam("name", "welcome").queryParam("toYear", 2005), List.of());
+        searchNames(uriBuilder -> uriBuilder, List.of("Batman Begins", "Welcome Back"));
+    }
+
+    @Test
+    void searchMovieInfos_keysetPages() {
+
+        var firstPage = webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/search")
+                        .queryParam("limit", 1)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().exists("X-Next-Cursor")
+                .expectBodyList(MovieInfo.class)
+                .hasSize(1)
+                .returnResult();
+
+        assertEquals("Batman Begins", firstPage.getResponseBody().get(0).getName());
+        var nextCursor = firstPage.getResponseHeaders().getFirst("X-Next-Cursor");
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/search")
+                        .queryParam("limit", 1)
+                        .queryParam("after", nextCursor)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().doesNotExist("X-Next-Cursor")
+                .expectBodyList(MovieInfo.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    var secondPage = listEntityExchangeResult.getResponseBody();
+                    assertNotNull(secondPage);
+                    assertEquals(1, secondPage.size());
+                    assertEquals("Welcome Back", secondPage.get(0).getName());
+                });
+    }
+
+    @Test
+    void searchMovieInfos_keysetPagesWithinOneName() {
+
+        // a string id and an ObjectId id sharing the name, Mongo sorts the ObjectId after the string
+        movieInfoRepository.saveAll(List.of(
+                new MovieInfo("def", "Batman Begins", 2005, List.of("Bale"), LocalDate.parse("2005-06-15")),
+                new MovieInfo(null, "Batman Begins", 2005, List.of("Bale"), LocalDate.parse("2005-06-15"))))
+                .blockLast();
+
+        var ids = new ArrayList<String>();
+        String after = null;
+        do {
+            var cursor = after;
+            var page = webTestClient
+                    .get()
+                    .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/search")
+                            .queryParam("name", "batman")
+                            .queryParam("limit", 1)
+                            .queryParamIfPresent("after", Optional.ofNullable(cursor))
+                            .build())
+                    .exchange()
+                    .expectStatus()
+                    .is2xxSuccessful()
+                    .expectBodyList(MovieInfo.class)
+                    .hasSize(1)
+                    .returnResult();
+            ids.add(page.getResponseBody().get(0).getMovieInfoId());
+            after = page.getResponseHeaders().getFirst("X-Next-Cursor");
+        } while(after != null);
+
+        assertEquals(3, ids.size());
+        assertEquals(3, Set.copyOf(ids).size());
+        assertEquals("def", ids.get(0));
+    }
+
+    @Test
+    void searchMovieInfos_invalidYearRange() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/search")
+                        .queryParam("fromYear", 2012)
+                        .queryParam("toYear", 2005)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void searchMovieInfos_backfilledNameLower() {
+
+        // saved before nameLower was kept, one name Mongo's $toLower cannot fold
+        var collectionName = reactiveMongoTemplate.getCollectionName(MovieInfo.class);
+        reactiveMongoTemplate.insert(List.of(
+                new Document("_id", "legacy1").append("name", "Dark Knight").append("year", 2008),
+                new Document("_id", "legacy2").append("name", "Élite Squad").append("year", 2007)), collectionName)
+                .blockLast();
+        searchNames(uriBuilder -> uriBuilder.queryParam("name", "dark"), List.of());
+
+        StepVerifier.create(moviesInfoService.backfillNameLower())
+                .expectNext(2L)
+                .verifyComplete();
+
+        searchNames(uriBuilder -> uriBuilder.queryParam("name", "dark"), List.of("Dark Knight"));
+        searchNames(uriBuilder -> uriBuilder.queryParam("name", "éLITE"), List.of("Élite Squad"));
+        // the other movie infos had it already
+        StepVerifier.create(moviesInfoService.backfillNameLower())
+                .expectNext(0L)
+                .verifyComplete();
+    }
+
+    private void searchNames(Function<UriBuilder, UriBuilder> criteria, List<String> expectedNames) {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> criteria.apply(uriBuilder.path(MOVIES_INFO_URL + "/search")).build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .consumeWith(listEntityExchangeResult -> assertEquals(expectedNames,
+                        listEntityExchangeResult.getResponseBody().stream()
+                                .map(MovieInfo::getName)
+                                .collect(Collectors.toList())));
+    }
+
+    @Test
+    void getAllMovieInfos_invalidLimit() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL)
+                        .queryParam("limit", 0)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getMovieInfosByIds() {
+
+        var uri = UriComponentsBuilder.fromUriString(MOVIES_INFO_URL)
+                .queryParam("ids", "abc,def")
+                .buildAndExpand().toUri();
+
+        webTestClient
+                .get()
+                .uri(uri)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(1);
+    }
+
     @Test
     void getMovieInfoById() {
 
@@ -203,6 +509,51 @@ class MoviesInfoControllerIntgTest {
                 });
     }
 
+    @Test
+    void updateMovieInfo_refreshesCachedMovieInfo() {
+
+        var id = "abc";
+        var movieInfo = new MovieInfo("abc", "Welcome Back2",
+                2012, List.of("AK"), LocalDate.parse("2012-08-12"));
+
+        webTestClient.get().uri(MOVIES_INFO_URL+"/{id}", id)
+                .exchange()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Welcome Back");
+
+        webTestClient.put().uri(MOVIES_INFO_URL+"/{id}", id)
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful();
+
+        webTestClient.get().uri(MOVIES_INFO_URL+"/{id}", id)
+                .exchange()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Welcome Back2");
+    }
+
+    @Test
+    void deleteMovieInfo_evictsCachedMovieInfo() {
+
+        var id = "abc";
+
+        webTestClient.get().uri(MOVIES_INFO_URL+"/{id}", id)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful();
+
+        webTestClient.delete().uri(MOVIES_INFO_URL+"/{id}", id)
+                .exchange()
+                .expectStatus()
+                .isNoContent();
+
+        webTestClient.get().uri(MOVIES_INFO_URL+"/{id}", id)
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
     @Test
     void updateMovieInfo_notFound() {
 
@@ -231,4 +582,46 @@ class MoviesInfoControllerIntgTest {
                 .expectStatus()
                 .isNoContent();
     }
-}
\ No newline at end of file
+
+    @Test
+    void bulkWriteMovieInfos() {
+
+        var ndjson = String.join("\n",
+                "{\"movieInfoId\":\"abc\", \"name\": \"Welcome Back\", \"year\":2013, \"cast\":[\"AK\"], \"release_date\": \"2013-08-12\"}",
+                "{\"movieInfoId\":null, \"name\": \"Dark Knight Rises\", \"year\":2012, \"cast\":[\"Christian Bale\"], \"release_date\": \"2012-07-20\"}",
+                "{\"movieInfoId\":\"xyz\", \"name\": \"\", \"year\":2012, \"cast\":[\"Christian Bale\"], \"release_date\": \"2012-07-20\"}");
+
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL+"/bulk?mode=UPSERT&ordered=false")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(ndjson)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(BulkItemResult.class)
+                .consumeWith(listEntityExchangeResult -> {
+
+                    var results = listEntityExchangeResult.getResponseBody();
+
+                    assertNotNull(results);
+                    assertEquals(3, results.size());
+                    assertEquals(BulkItemStatus.UPDATED, results.get(0).getStatus());
+                    assertEquals(BulkItemStatus.INSERTED, results.get(1).getStatus());
+                    assertNotNull(results.get(1).getId());
+                    assertEquals(BulkItemStatus.INVALID, results.get(2).getStatus());
+                });
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL+"/{id}", "abc")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.year").isEqualTo(2013);
+
+        assertEquals(3, movieInfoRepository.count().block());
+    }
+}
@@ -0,0 +1,98 @@
+package com.reactorlearning.cache;
+
+import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.repository.MovieInfoRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MovieInfoCacheTest {
+
+    MovieInfoRepository movieInfoRepository = mock(MovieInfoRepository.class);
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    MovieInfoCache movieInfoCache = new MovieInfoCache(movieInfoRepository, meterRegistry,
+            true, 100, Duration.ofMinutes(10));
+
+    MovieInfo movieInfo = new MovieInfo("abc", "Welcome Back",
+            2012, List.of("AK"), LocalDate.parse("2012-08-12"));
+
+    @Test
+    void findById_concurrentMissesShareOneQuery() {
+
+        var mongo = Sinks.<MovieInfo>one();
+        when(movieInfoRepository.findById("abc")).thenReturn(mongo.asMono());
+
+        StepVerifier.create(Mono.zip(movieInfoCache.findById("abc"), movieInfoCache.findById("abc")))
+                .then(() -> mongo.tryEmitValue(movieInfo))
+                .assertNext(tuple -> assertSame(tuple.getT1(), tuple.getT2()))
+                .verifyComplete();
+
+        StepVerifier.create(movieInfoCache.findById("abc"))
+                .expectNext(movieInfo)
+                .verifyComplete();
+
+        verify(movieInfoRepository, times(1)).findById("abc");
+        assertEquals(2.0, meterRegistry.get("cache.gets").tag("cache", "movieInfoById").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    void findById_notFoundIsNotCached() {
+
+        when(movieInfoRepository.findById("def")).thenReturn(Mono.empty());
+
+        StepVerifier.create(movieInfoCache.findById("def"))
+                .verifyComplete();
+        StepVerifier.create(movieInfoCache.findById("def"))
+                .verifyComplete();
+
+        verify(movieInfoRepository, times(2)).findById("def");
+    }
+
+    @Test
+    void evict() {
+
+        when(movieInfoRepository.findById("abc")).thenReturn(Mono.just(movieInfo));
+        when(movieInfoRepository.findByName("Welcome Back")).thenReturn(Mono.just(movieInfo));
+
+        StepVerifier.create(movieInfoCache.findByName("Welcome Back"))
+                .expectNext(movieInfo)
+                .verifyComplete();
+
+        movieInfoCache.evict("abc");
+
+        StepVerifier.create(movieInfoCache.findByName("Welcome Back"))
+                .expectNext(movieInfo)
+                .verifyComplete();
+
+        verify(movieInfoRepository, times(2)).findByName("Welcome Back");
+        verify(movieInfoRepository, times(0)).findById("abc");
+    }
+
+    @Test
+    void put_keepsNewerVersion() {
+
+        var updated = new MovieInfo("abc", "Welcome Back 2", 2012, List.of("AK"), LocalDate.parse("2012-08-12"), 1L);
+        var stale = new MovieInfo("abc", "Welcome Back", 2012, List.of("AK"), LocalDate.parse("2012-08-12"), 0L);
+
+        // a lookup by name that read the document before the update completes after it
+        movieInfoCache.put(updated);
+        movieInfoCache.put(stale);
+
+        StepVerifier.create(movieInfoCache.findById("abc"))
+                .expectNext(updated)
+                .verifyComplete();
+        verify(movieInfoRepository, times(0)).findById("abc");
+    }
+}
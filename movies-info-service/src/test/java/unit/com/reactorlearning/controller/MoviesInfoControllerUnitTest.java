@@ -0,0 +1,184 @@
+package com.reactorlearning.controller;
+
+import com.reactorlearning.domain.KeysetPage;
+import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.domain.MovieInfoSummary;
+import com.reactorlearning.service.MoviesInfoService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(controllers = MoviesInfoController.class)
+@AutoConfigureWebTestClient
+@Import(SimpleMeterRegistry.class)
+class MoviesInfoControllerUnitTest {
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @MockBean
+    MoviesInfoService moviesInfoService;
+
+    static String MOVIES_INFO_URL = "/v1/movieinfos";
+
+    List<MovieInfo> movieInfos = List.of(
+            new MovieInfo(null, "Batman Begins",
+                    2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15")),
+            new MovieInfo("abc", "Welcome Back",
+                    2012, List.of("AK"), LocalDate.parse("2012-08-12"))
+    );
+
+    @Test
+    void getAllMovieInfos_defaultsToJsonArray() {
+
+        when(moviesInfoService.getAllMovieInfos()).thenReturn(Flux.fromIterable(movieInfos));
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+                .expectBodyList(MovieInfo.class)
+                .hasSize(2);
+    }
+
+    @Test
+    void getMovieInfoSummaries_byYear() {
+
+        when(moviesInfoService.getMovieInfoSummaries(2012))
+                .thenReturn(Flux.just(new MovieInfoSummary("abc", "Welcome Back", 2012)));
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/summaries")
+                        .queryParam("year", 2012)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].movieInfoId").isEqualTo("abc")
+                .jsonPath("$[0].cast").doesNotExist();
+    }
+
+    @Test
+    void searchMovieInfos_boundedPage() {
+
+        when(moviesInfoService.searchMovieInfos("BAT", "Bale", 2000, 2010, null, 1000))
+                .thenReturn(Mono.just(new KeysetPage<>(movieInfos.subList(0, 1), "next")));
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL + "/search")
+                        .queryParam("name", "BAT")
+                        .queryParam("cast", "Bale")
+                        .queryParam("fromYear", 2000)
+                        .queryParam("toYear", 2010)
+                        .queryParam("limit", 5000)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().valueEquals(KeysetPage.NEXT_CURSOR_HEADER, "next")
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].name").isEqualTo("Batman Begins")
+                .jsonPath("$[0].nameLower").doesNotExist();
+    }
+
+    @Test
+    void getMovieInfoById_conditionalGet() {
+
+        var movieInfo = new MovieInfo("abc", "Welcome Back",
+                2012, List.of("AK"), LocalDate.parse("2012-08-12"), 3L);
+        when(moviesInfoService.getMovieInfoById("abc")).thenReturn(Mono.just(movieInfo));
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"3\"")
+                .expectBody(MovieInfo.class);
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .ifNoneMatch("\"3\"")
+                .exchange()
+                .expectStatus()
+                .isNotModified()
+                .expectBody()
+                .isEmpty();
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .ifNoneMatch("\"2\"")
+                .exchange()
+                .expectStatus()
+                .isOk();
+    }
+
+    @Test
+    void streamMovieInfos_ndjson() {
+
+        when(moviesInfoService.streamMovieInfos(null)).thenReturn(Flux.fromIterable(movieInfos));
+
+        var movieInfoFlux = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(MovieInfo.class)
+                .getResponseBody();
+
+        StepVerifier.create(movieInfoFlux)
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+
+    @Test
+    void streamMovieInfos_serverSentEvents() {
+
+        when(moviesInfoService.streamMovieInfos(2012)).thenReturn(Flux.fromIterable(movieInfos.subList(1, 2)));
+
+        var movieInfoFlux = webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_INFO_URL)
+                        .queryParam("year", 2012)
+                        .build())
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(MovieInfo.class)
+                .getResponseBody();
+
+        StepVerifier.create(movieInfoFlux)
+                .expectNextMatches(movieInfo -> movieInfo.getName().equals("Welcome Back"))
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,22 @@
+package com.reactorlearning.config;
+
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.util.ChangeFeed;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+@Configuration
+@EnableConfigurationProperties(ChangeFeedProperties.class)
+public class ChangeFeedConfig {
+
+    @Bean
+    public ChangeFeed<Review> reviewChangeFeed(ReactiveMongoTemplate reactiveMongoTemplate,
+                                               ChangeFeedProperties changeFeedProperties,
+                                               MeterRegistry meterRegistry) {
+
+        return new ChangeFeed<>(reactiveMongoTemplate, Review.class, "review", changeFeedProperties, meterRegistry);
+    }
+}
@@ -0,0 +1,41 @@
+package com.reactorlearning.config;
+
+import com.reactorlearning.service.ReviewStatsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Creates the stats of the movies reviewed before the stats were kept, before the server starts.
+ * <p>
+ * Review writes only adjust stats that exist, a movie without stats has them computed from its
+ * reviews on its first read instead, which the backfill saves for every movie at once. Stats that
+ * exist are never replaced, so running it on every start is safe,
+ * {@code reviewStats.backfill.enabled=false} skips the aggregation over all reviews once every
+ * movie has its stats.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "reviewStats.backfill.enabled", havingValue = "true", matchIfMissing = true)
+public class ReviewStatsBackfill implements SmartInitializingSingleton {
+
+    private ReviewStatsService reviewStatsService;
+    private Duration timeout;
+
+    public ReviewStatsBackfill(ReviewStatsService reviewStatsService,
+                               @Value("${reviewStats.backfill.timeout:PT5M}") Duration timeout) {
+        this.reviewStatsService = reviewStatsService;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+
+        var created = reviewStatsService.backfill().block(timeout);
+        log.info("Review stats backfilled for {} movies", created);
+    }
+}
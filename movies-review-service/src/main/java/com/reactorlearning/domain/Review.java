@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.Min;
@@ -14,6 +16,10 @@ import javax.validation.constraints.NotNull;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document
+// serves the lookups by movieInfoId and the pages of one movie's reviews, which are ordered by _id
+@CompoundIndex(name = "movieInfoId_id", def = "{'movieInfoId': 1, '_id': 1}")
+// serves one movie's reviews ordered by rating, in either direction, without sorting them in memory
+@CompoundIndex(name = "movieInfoId_rating_id", def = "{'movieInfoId': 1, 'rating': 1, '_id': 1}")
 public class Review {
 
     @Id
@@ -23,4 +29,11 @@ public class Review {
     private String comment;
     @Min(value = 0L, message = "review.rating: please pass a non-negative value")
     private Double rating;
+    // incremented on every save
+    @Version
+    private Long version;
+
+    public Review(String reviewId, Long movieInfoId, String comment, Double rating) {
+        this(reviewId, movieInfoId, comment, rating, null);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.reactorlearning.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Map;
+
+/**
+ * Review aggregates of one movie, created from its reviews on first read or by the backfill and
+ * kept up to date by {@code $inc} updates on every review write from then on.
+ * Histogram keys are the rating rounded down to a whole number.
+ * <p>
+ * {@code version} counts the review writes of the movie, including the ones that leave the
+ * aggregates unchanged, and is the ETag of the movie's review list.
+ * <p>
+ * The review lists of a movie carry its count, mean and version as {@code X-Review-*} headers, so
+ * a client showing a page of reviews together with their summary needs a single request.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document
+public class ReviewStats {
+
+    public static final String COUNT_HEADER = "X-Review-Count";
+    public static final String MEAN_HEADER = "X-Review-Mean";
+    public static final String VERSION_HEADER = "X-Review-Version";
+
+    @Id
+    private Long movieInfoId;
+    private Long count;
+    private Long ratedCount;
+    private Double sum;
+    private Map<String, Long> histogram;
+    private Long version;
+
+    public static ReviewStats empty(Long movieInfoId) {
+        return new ReviewStats(movieInfoId, 0L, 0L, 0.0, Map.of(), 0L);
+    }
+
+    public Double getMean() {
+        return ratedCount == null || ratedCount == 0 ? null : sum / ratedCount;
+    }
+}
@@ -1,20 +1,47 @@
 package com.reactorlearning.handler;
 
+import com.reactorlearning.domain.BulkItemResult;
+import com.reactorlearning.domain.BulkMode;
+import com.reactorlearning.domain.ChangeEvent;
+import com.reactorlearning.domain.KeysetPage;
 import com.reactorlearning.domain.Review;
+import com.reactorlearning.domain.ReviewStats;
 import com.reactorlearning.exception.ReviewDataException;
 import com.reactorlearning.exception.ReviewNotFoundException;
+import com.reactorlearning.logging.SignalTracing;
 import com.reactorlearning.repository.ReviewReactiveRepository;
+import com.reactorlearning.service.ReviewBulkService;
+import com.reactorlearning.service.ReviewStatsService;
+import com.reactorlearning.util.ChangeFeed;
+import com.reactorlearning.util.KeysetCursor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Component
@@ -22,28 +49,108 @@ import java.util.stream.Collectors;
 public class ReviewHandler {
 
     private ReviewReactiveRepository reviewReactiveRepository;
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    private ReviewStatsService reviewStatsService;
+    private ReviewBulkService reviewBulkService;
+    private ChangeFeed<Review> reviewChangeFeed;
+    private Scheduler blockingScheduler;
 
     @Autowired
     private Validator validator;
 
-    public ReviewHandler(ReviewReactiveRepository reviewReactiveRepository) {
+    @Value("${pagination.defaultLimit:100}")
+    private Integer defaultLimit;
+
+    @Value("${pagination.maxLimit:1000}")
+    private Integer maxLimit;
+
+    @Value("${streaming.batchSize:256}")
+    private Integer streamBatchSize;
+
+    public ReviewHandler(ReviewReactiveRepository reviewReactiveRepository, ReactiveMongoTemplate reactiveMongoTemplate,
+                         ReviewStatsService reviewStatsService, ReviewBulkService reviewBulkService,
+                         ChangeFeed<Review> reviewChangeFeed, Scheduler blockingScheduler) {
         this.reviewReactiveRepository = reviewReactiveRepository;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.reviewStatsService = reviewStatsService;
+        this.reviewBulkService = reviewBulkService;
+        this.reviewChangeFeed = reviewChangeFeed;
+        this.blockingScheduler = blockingScheduler;
     }
 
     public Mono<ServerResponse> addReview(ServerRequest request) {
 
         return request.bodyToMono(Review.class)
-                .doOnNext(this::validate)
+                // bean validation reflects over the review and may load classes, it stays off the event loop
+                .flatMap(review -> Mono.fromRunnable(() -> validate(review))
+                        .subscribeOn(blockingScheduler)
+                        .thenReturn(review))
+                // versions are only assigned by saves, a client supplied one would turn the insert into a versioned update
+                .doOnNext(review -> review.setVersion(null))
                 .flatMap(reviewReactiveRepository::save)
+                .flatMap(savedReview -> reviewStatsService.reviewAdded(savedReview).thenReturn(savedReview))
                 .flatMap(ServerResponse.status(HttpStatus.CREATED)::bodyValue);
     }
 
-    private void validate(Review review) {
+    public Mono<ServerResponse> bulkWriteReviews(ServerRequest request) {
+
+        var mode = bulkMode(request.queryParam("mode").orElse(BulkMode.INSERT.name()));
+        var ordered = Boolean.parseBoolean(request.queryParam("ordered").orElse("true"));
+
+        var results = reviewBulkService.bulkWriteReviews(request.bodyToFlux(Review.class), mode, ordered);
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(results, BulkItemResult.class);
+    }
+
+    private BulkMode bulkMode(String mode) {
+
+        try {
+            return BulkMode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ReviewDataException("mode must be one of " + Arrays.toString(BulkMode.values()));
+        }
+    }
+
+    /**
+     * Review.movieInfoId is numeric, any other id is a bad request rather than a server error.
+     */
+    private static Long movieInfoId(String movieInfoId) {
+
+        try {
+            return Long.valueOf(movieInfoId.trim());
+        } catch (NumberFormatException e) {
+            throw new ReviewDataException("movieInfoId must be a number : " + movieInfoId);
+        }
+    }
+
+    /**
+     * Accepts both {@code ?movieInfoIds=1,2} and {@code ?movieInfoIds=1&movieInfoIds=2}.
+     */
+    private static Set<Long> movieInfoIds(List<String> movieInfoIds) {
+
+        return movieInfoIds.stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .filter(id -> !id.isBlank())
+                .map(ReviewHandler::movieInfoId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private static String afterReviewId(String after) {
+
+        try {
+            return KeysetCursor.decode(after);
+        } catch (IllegalArgumentException ex) {
+            throw new ReviewDataException(ex.getMessage());
+        }
+    }
+
+    void validate(Review review) {
 
         var constraintViolations = validator.validate(review);
-        log.info("constraintViolations : {}", constraintViolations);
 
         if(constraintViolations.size() > 0) {
+            log.debug("constraintViolations : {}", constraintViolations);
 
             var errorMessage = constraintViolations
                     .stream()
@@ -58,18 +165,186 @@ public class ReviewHandler {
     public Mono<ServerResponse> getReviews(ServerRequest request) {
 
         var movieInfoId = request.queryParam("movieInfoId");
+        var movieInfoIds = request.queryParams().get("movieInfoIds");
 
-        if(movieInfoId.isPresent()) {
-            var reviewsFlux = reviewReactiveRepository.findReviewsByMovieInfoId(Long.valueOf(movieInfoId.get()));
+        var limit = request.queryParam("limit");
+        if(movieInfoIds != null) {
+            var ids = movieInfoIds(movieInfoIds);
+            if(limit.isPresent()) {
+                // at most limit reviews of each movie, the first of its pages in id order, one index range per movie
+                var pageable = PageRequest.of(0, pageLimit(limit.get()), Sort.by("reviewId"));
+                return buildReviewsResponse(Flux.fromIterable(ids)
+                        .concatMap(id -> reviewReactiveRepository.findReviewsByMovieInfoId(id, pageable)));
+            }
+            var reviewsFlux = reviewReactiveRepository.findReviewsByMovieInfoIdIn(ids);
             return buildReviewsResponse(reviewsFlux);
+        }
+        var after = request.queryParam("after");
+        var sort = request.queryParam("sort");
+        if(sort.isPresent()) {
+            // the (movieInfoId, rating, _id) index hands Mongo the reviews already in order, it stops after limit
+            var reviewSort = reviewSort(sort.get());
+            if(after.isPresent()) {
+                throw new ReviewDataException("after cannot be combined with sort");
+            }
+            var movieInfoIdValue = movieInfoId.map(ReviewHandler::movieInfoId)
+                    .orElseThrow(() -> new ReviewDataException("sort requires movieInfoId"));
+            var pageable = PageRequest.of(0, pageLimit(limit.orElse(null)), reviewSort);
+            return reviewStatsService.getReviewStats(movieInfoIdValue)
+                    .flatMap(reviewStats -> summarized(ServerResponse.ok(), reviewStats)
+                            .body(reviewReactiveRepository.findReviewsByMovieInfoId(movieInfoIdValue, pageable)
+                                    .transformDeferredContextual(SignalTracing.flux("reviews")), Review.class));
+        }
+        if(limit.isPresent() || after.isPresent()) {
+            var movieInfoIdValue = movieInfoId.map(ReviewHandler::movieInfoId).orElse(null);
+            var afterReviewId = afterReviewId(after.orElse(null));
+            var pageLimit = pageLimit(limit.orElse(null));
+            // pages of one movie change with its stats version, pages across all movies are not versioned
+            var stats = movieInfoIdValue == null
+                    ? Mono.just(Optional.<ReviewStats>empty())
+                    : reviewStatsService.getReviewStats(movieInfoIdValue).map(Optional::of);
+            return stats.flatMap(pageStats -> findReviewsPage(movieInfoIdValue, afterReviewId, pageLimit)
+                    .flatMap(page -> pageStats.map(reviewStats -> summarized(ServerResponse.ok(), reviewStats))
+                            .orElseGet(ServerResponse::ok)
+                            .headers(headers -> {
+                                if(page.getNextCursor() != null) {
+                                    headers.set(KeysetPage.NEXT_CURSOR_HEADER, page.getNextCursor());
+                                }
+                            })
+                            .bodyValue(page.getItems())));
+        }
+        if(movieInfoId.isPresent()) {
+            var movieInfoIdValue = movieInfoId(movieInfoId.get());
+            // the version is read before the reviews, a write in between can only make the ETag older than the body
+            return reviewStatsService.getReviewStats(movieInfoIdValue)
+                    .flatMap(reviewStats -> summarized(ServerResponse.ok(), reviewStats)
+                            .body(reviewReactiveRepository.findReviewsByMovieInfoId(movieInfoIdValue)
+                                    .transformDeferredContextual(SignalTracing.flux("reviews")), Review.class));
         } else {
             var reviewsFlux = reviewReactiveRepository.findAll();
             return buildReviewsResponse(reviewsFlux);
         }
     }
 
+    public Mono<ServerResponse> streamReviews(ServerRequest request, MediaType mediaType) {
+
+        var movieInfoId = request.queryParam("movieInfoId");
+
+        var query = movieInfoId
+                .map(id -> Query.query(Criteria.where("movieInfoId").is(movieInfoId(id))))
+                .orElseGet(Query::new);
+        query.cursorBatchSize(streamBatchSize);
+
+        // demand is requested from Mongo one cursor batch at a time, never more than the client consumes
+        var reviewsFlux = reactiveMongoTemplate.find(query, Review.class)
+                .limitRate(streamBatchSize);
+
+        return ServerResponse.ok()
+                .contentType(mediaType)
+                .body(reviewsFlux, Review.class);
+    }
+
+    public Mono<ServerResponse> streamReviewChanges(ServerRequest request) {
+
+        var movieInfoId = request.queryParam("movieInfoId").map(ReviewHandler::movieInfoId).orElse(null);
+        var lastEventId = request.headers().firstHeader("Last-Event-ID");
+
+        // deletes only carry the id, they reach every subscriber whatever its movie
+        var changes = reviewChangeFeed.listen(lastEventId, change -> movieInfoId == null || change.getDocument() == null
+                || movieInfoId.equals(change.getDocument().getMovieInfoId()));
+
+        return ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(changes, new ParameterizedTypeReference<ServerSentEvent<ChangeEvent<Review>>>() {});
+    }
+
     private Mono<ServerResponse> buildReviewsResponse(Flux<Review> reviewsFlux) {
-        return ServerResponse.ok().body(reviewsFlux, Review.class);
+        return ServerResponse.ok().body(reviewsFlux.transformDeferredContextual(SignalTracing.flux("reviews")), Review.class);
+    }
+
+    /**
+     * Versioned with the stats of the movie, whose count and mean are sent along as the
+     * {@code X-Review-*} headers, they were read for the version anyway.
+     */
+    private ServerResponse.BodyBuilder summarized(ServerResponse.BodyBuilder response, ReviewStats reviewStats) {
+
+        return versioned(response, reviewStats.getVersion())
+                .headers(headers -> {
+                    if(reviewStats.getCount() != null) {
+                        headers.set(ReviewStats.COUNT_HEADER, String.valueOf(reviewStats.getCount()));
+                    }
+                    if(reviewStats.getMean() != null) {
+                        headers.set(ReviewStats.MEAN_HEADER, String.valueOf(reviewStats.getMean()));
+                    }
+                    if(reviewStats.getVersion() != null) {
+                        headers.set(ReviewStats.VERSION_HEADER, String.valueOf(reviewStats.getVersion()));
+                    }
+                });
+    }
+
+    /**
+     * A matching If-None-Match is answered with 304 when the response is written, without
+     * subscribing to its body.
+     */
+    private ServerResponse.BodyBuilder versioned(ServerResponse.BodyBuilder response, Long version) {
+
+        // stats written before versioning have nothing to tag the reviews with until the next review write
+        if(version == null) {
+            return response;
+        }
+        return response.eTag(String.valueOf(version))
+                .cacheControl(CacheControl.noCache());
+    }
+
+    private Mono<KeysetPage<Review>> findReviewsPage(Long movieInfoId, String afterReviewId, int limit) {
+
+        // always the first "page" of the query, the cursor key does the seeking instead of skip
+        var pageable = PageRequest.of(0, limit + 1, Sort.by("reviewId"));
+
+        Flux<Review> reviewsFlux;
+        if(afterReviewId == null) {
+            reviewsFlux = movieInfoId == null
+                    ? reviewReactiveRepository.findAllBy(pageable)
+                    : reviewReactiveRepository.findReviewsByMovieInfoId(movieInfoId, pageable);
+        } else if(ObjectId.isValid(afterReviewId)) {
+            reviewsFlux = movieInfoId == null
+                    ? reviewReactiveRepository.findByReviewIdGreaterThan(afterReviewId, pageable)
+                    : reviewReactiveRepository.findReviewsByMovieInfoIdAndReviewIdGreaterThan(movieInfoId, afterReviewId, pageable);
+        } else {
+            reviewsFlux = movieInfoId == null
+                    ? reviewReactiveRepository.findAfterStringReviewId(afterReviewId, pageable)
+                    : reviewReactiveRepository.findReviewsByMovieInfoIdAfterStringReviewId(movieInfoId, afterReviewId, pageable);
+        }
+
+        return reviewsFlux.collectList()
+                .map(reviews -> KeysetPage.of(reviews, limit, Review::getReviewId));
+    }
+
+    /**
+     * Ties are broken by id in the same direction as the rating, so both orders are a scan of the
+     * index in one direction and never need an in-memory sort.
+     */
+    private Sort reviewSort(String sort) {
+
+        switch (sort) {
+            case "rating":
+                return Sort.by(Sort.Direction.ASC, "rating", "reviewId");
+            case "-rating":
+                return Sort.by(Sort.Direction.DESC, "rating", "reviewId");
+            default:
+                throw new ReviewDataException("sort must be one of rating,-rating");
+        }
+    }
+
+    private int pageLimit(String limit) {
+
+        if(limit == null) {
+            return defaultLimit;
+        }
+        if(!limit.matches("[0-9]{1,9}") || Integer.parseInt(limit) == 0) {
+            throw new ReviewDataException("limit must be a Positive value");
+        }
+        return Math.min(Integer.parseInt(limit), maxLimit);
     }
 
     public Mono<ServerResponse> updateReview(ServerRequest request) {
@@ -81,12 +356,14 @@ public class ReviewHandler {
 
         return existingReview
                 .flatMap(review -> request.bodyToMono(Review.class)
-                        .map(reqReview -> {
+                        .flatMap(reqReview -> {
+                            var previousRating = review.getRating();
                             review.setComment(reqReview.getComment());
                             review.setRating(reqReview.getRating());
-                            return review;
+                            return reviewReactiveRepository.save(review)
+                                    .flatMap(savedReview -> reviewStatsService.reviewUpdated(previousRating, savedReview)
+                                            .thenReturn(savedReview));
                         }))
-                .flatMap(reviewReactiveRepository::save)
                 .flatMap(ServerResponse.ok()::bodyValue)
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
@@ -97,8 +374,25 @@ public class ReviewHandler {
 
         var existingReview = reviewReactiveRepository.findById(reviewId);
 
+        // only the request that actually removed the review may decrement the stats
         return existingReview
-                .flatMap(review -> reviewReactiveRepository.deleteById(reviewId))
+                .flatMap(review -> reactiveMongoTemplate.remove(review)
+                        .filter(deleteResult -> deleteResult.getDeletedCount() > 0)
+                        .flatMap(deleteResult -> reviewStatsService.reviewDeleted(review)))
                 .then(ServerResponse.noContent().build());
     }
+
+    public Mono<ServerResponse> getReviewStats(ServerRequest request) {
+
+        var movieInfoIds = request.queryParams().get("movieInfoIds");
+        if(movieInfoIds != null) {
+            return ServerResponse.ok()
+                    .body(reviewStatsService.getReviewStats(movieInfoIds(movieInfoIds)), ReviewStats.class);
+        }
+        var movieInfoId = request.queryParam("movieInfoId")
+                .orElseThrow(() -> new ReviewDataException("movieInfoId must be present"));
+
+        return reviewStatsService.getReviewStats(movieInfoId(movieInfoId))
+                .flatMap(reviewStats -> versioned(ServerResponse.ok(), reviewStats.getVersion()).bodyValue(reviewStats));
+    }
 }
\ No newline at end of file
@@ -1,10 +1,25 @@
 package com.reactorlearning.repository;
 
 import com.reactorlearning.domain.Review;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 
+import java.util.Collection;
+
 public interface ReviewReactiveRepository extends ReactiveMongoRepository<Review, String> {
 
     Flux<Review> findReviewsByMovieInfoId(Long movieInfoId);
+    Flux<Review> findReviewsByMovieInfoIdIn(Collection<Long> movieInfoIds);
+
+    // keyset pagination, ids that are valid ObjectIds are stored as ObjectId and sort after every string id
+    Flux<Review> findAllBy(Pageable pageable);
+    Flux<Review> findByReviewIdGreaterThan(String reviewId, Pageable pageable);
+    @Query("{ '$or': [ { '_id': { '$gt': ?0 } }, { '_id': { '$type': 'objectId' } } ] }")
+    Flux<Review> findAfterStringReviewId(String reviewId, Pageable pageable);
+    Flux<Review> findReviewsByMovieInfoId(Long movieInfoId, Pageable pageable);
+    Flux<Review> findReviewsByMovieInfoIdAndReviewIdGreaterThan(Long movieInfoId, String reviewId, Pageable pageable);
+    @Query("{ 'movieInfoId': ?0, '$or': [ { '_id': { '$gt': ?1 } }, { '_id': { '$type': 'objectId' } } ] }")
+    Flux<Review> findReviewsByMovieInfoIdAfterStringReviewId(Long movieInfoId, String reviewId, Pageable pageable);
 }
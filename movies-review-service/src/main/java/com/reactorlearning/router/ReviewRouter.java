@@ -3,9 +3,12 @@ package com.reactorlearning.router;
 import com.reactorlearning.handler.ReviewHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
 import static org.springframework.web.reactive.function.server.RequestPredicates.path;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 
@@ -18,11 +21,29 @@ public class ReviewRouter {
         return route()
                 .nest(path("/v1/reviews"), builder -> {
                     builder.POST("", request -> reviewHandler.addReview(request))
+                            .GET("", accepts(MediaType.APPLICATION_NDJSON),
+                                    request -> reviewHandler.streamReviews(request, MediaType.APPLICATION_NDJSON))
+                            .GET("", accepts(MediaType.TEXT_EVENT_STREAM),
+                                    request -> reviewHandler.streamReviews(request, MediaType.TEXT_EVENT_STREAM))
                             .GET("", request -> reviewHandler.getReviews(request))
+                            .GET("/stream", request -> reviewHandler.streamReviewChanges(request))
+                            .GET("/stats", request -> reviewHandler.getReviewStats(request))
+                            .POST("/bulk", contentType(MediaType.APPLICATION_NDJSON),
+                                    request -> reviewHandler.bulkWriteReviews(request))
                             .PUT("/{id}", request -> reviewHandler.updateReview(request))
                             .DELETE("/{id}", request -> reviewHandler.deleteReview(request));
                 })
                 .GET("/v1/helloworld", request -> ServerResponse.ok().bodyValue("helloworld"))
                 .build();
     }
+
+    /**
+     * Unlike {@code RequestPredicates.accept}, only matches when the media type is asked for
+     * explicitly, so wildcard requests keep getting the default JSON array.
+     */
+    private static RequestPredicate accepts(MediaType mediaType) {
+
+        return request -> request.headers().accept().stream()
+                .anyMatch(mediaType::equalsTypeAndSubtype);
+    }
 }
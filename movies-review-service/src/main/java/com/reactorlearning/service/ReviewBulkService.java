@@ -0,0 +1,69 @@
+package com.reactorlearning.service;
+
+import com.reactorlearning.domain.BulkItemResult;
+import com.reactorlearning.domain.BulkMode;
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.util.BulkWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+@Service
+public class ReviewBulkService {
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    private ReviewStatsService reviewStatsService;
+    private BulkWriter<Review> bulkWriter;
+
+    public ReviewBulkService(ReactiveMongoTemplate reactiveMongoTemplate, ReviewStatsService reviewStatsService,
+                             Validator validator, @Value("${bulk.batchSize:500}") int bulkBatchSize,
+                             Scheduler blockingScheduler) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.reviewStatsService = reviewStatsService;
+        this.bulkWriter = new BulkWriter<>(reactiveMongoTemplate, validator, Review.class,
+                Review::getReviewId, Review::setReviewId, bulkBatchSize, blockingScheduler);
+    }
+
+    public Flux<BulkItemResult> bulkWriteReviews(Flux<Review> reviews, BulkMode mode, boolean ordered) {
+
+        return bulkWriter.write(reviews, mode, ordered, (validReviews, write) -> existingReviews(validReviews, mode)
+                .flatMap(existingReviews -> write
+                        .flatMap(writtenItems -> {
+                            // a replaced review takes its old rating out of the stats before adding the new one
+                            var replacedReviews = writtenItems.getUpdated().stream()
+                                    .map(review -> existingReviews.get(review.getReviewId()))
+                                    .filter(Objects::nonNull)
+                                    .collect(Collectors.toList());
+                            var writtenReviews = new ArrayList<>(writtenItems.getInserted());
+                            writtenReviews.addAll(writtenItems.getUpdated());
+
+                            return reviewStatsService.reviewsChanged(replacedReviews, writtenReviews)
+                                    .thenReturn(writtenItems);
+                        })));
+    }
+
+    private Mono<Map<String, Review>> existingReviews(List<Review> reviews, BulkMode mode) {
+
+        if(mode != BulkMode.UPSERT) {
+            return Mono.just(Map.of());
+        }
+        var reviewIds = reviews.stream()
+                .map(Review::getReviewId)
+                .collect(Collectors.toList());
+
+        return reactiveMongoTemplate.find(Query.query(Criteria.where("reviewId").in(reviewIds)), Review.class)
+                .collectMap(Review::getReviewId);
+    }
+}
@@ -0,0 +1,268 @@
+package com.reactorlearning.service;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.domain.ReviewStats;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+@Service
+public class ReviewStatsService {
+
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public ReviewStatsService(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    public Mono<ReviewStats> getReviewStats(Long movieInfoId) {
+
+        // a movie without stats yet, review writes only adjust stats that exist
+        return reactiveMongoTemplate.findById(movieInfoId, ReviewStats.class)
+                .switchIfEmpty(Mono.defer(() -> createStats(movieInfoId)))
+                .defaultIfEmpty(ReviewStats.empty(movieInfoId));
+    }
+
+    /**
+     * Creates the stats of a movie from its reviews. A review written while the aggregation runs
+     * either finds no stats to adjust and is missing from them, or is counted by the aggregation
+     * and adjusts them once more, so the stats are computed a second time and replaced when they
+     * differ, unless a review write moved their version in between.
+     */
+    private Mono<ReviewStats> createStats(Long movieInfoId) {
+
+        var criteria = Criteria.where("movieInfoId").is(movieInfoId);
+        var byId = Query.query(Criteria.where("_id").is(movieInfoId));
+        return computeStats(criteria)
+                .next()
+                .flatMap(reviewStats -> reactiveMongoTemplate.findAndModify(byId, insertOnly(reviewStats),
+                        FindAndModifyOptions.options().upsert(true).returnNew(true), ReviewStats.class))
+                .flatMap(stored -> reactiveMongoTemplate.findById(movieInfoId, ReviewStats.class)
+                        .defaultIfEmpty(stored)
+                        .flatMap(current -> computeStats(criteria)
+                                .next()
+                                .defaultIfEmpty(ReviewStats.empty(movieInfoId))
+                                .flatMap(recomputed -> sameAggregates(current, recomputed)
+                                        ? Mono.just(current)
+                                        : reactiveMongoTemplate.findAndModify(
+                                                Query.query(Criteria.where("_id").is(movieInfoId)
+                                                        .and("version").is(current.getVersion())),
+                                                replaceAggregates(recomputed, current.getVersion() + 1),
+                                                FindAndModifyOptions.options().returnNew(true), ReviewStats.class)
+                                                .switchIfEmpty(Mono.defer(() ->
+                                                        reactiveMongoTemplate.findById(movieInfoId, ReviewStats.class))))));
+    }
+
+    private static boolean sameAggregates(ReviewStats reviewStats, ReviewStats other) {
+
+        return Objects.equals(reviewStats.getCount(), other.getCount())
+                && Objects.equals(reviewStats.getRatedCount(), other.getRatedCount())
+                && Objects.equals(reviewStats.getSum(), other.getSum());
+    }
+
+    /**
+     * The stats of each of the movies in their order, read by a single query for the movies whose
+     * stats exist already.
+     */
+    public Flux<ReviewStats> getReviewStats(Collection<Long> movieInfoIds) {
+
+        return reactiveMongoTemplate.find(Query.query(Criteria.where("_id").in(movieInfoIds)), ReviewStats.class)
+                .collectMap(ReviewStats::getMovieInfoId)
+                .flatMapMany(found -> Flux.fromIterable(movieInfoIds)
+                        .concatMap(movieInfoId -> found.containsKey(movieInfoId)
+                                ? Mono.just(found.get(movieInfoId))
+                                : getReviewStats(movieInfoId)));
+    }
+
+    /**
+     * Creates the stats of every movie that has reviews but no stats yet, from one aggregation over
+     * the reviews. Stats that exist are left alone, they are ahead of the aggregation for any review
+     * written while it runs.
+     *
+     * @return the number of movies whose stats were created
+     */
+    public Mono<Long> backfill() {
+
+        var collectionName = reactiveMongoTemplate.getCollectionName(ReviewStats.class);
+        return computeStats(null)
+                .map(reviewStats -> (WriteModel<Document>) new UpdateOneModel<Document>(
+                        Filters.eq("_id", reviewStats.getMovieInfoId()), insertOnly(reviewStats).getUpdateObject(),
+                        new UpdateOptions().upsert(true)))
+                .buffer(BACKFILL_BATCH_SIZE)
+                .concatMap(models -> reactiveMongoTemplate.getCollection(collectionName)
+                        .flatMap(collection -> Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(false)))))
+                .map(bulkWriteResult -> (long) bulkWriteResult.getUpserts().size())
+                .reduce(0L, Long::sum);
+    }
+
+    /**
+     * The stats of the movies whose reviews match the criteria, all of them for null criteria.
+     */
+    private Flux<ReviewStats> computeStats(Criteria criteria) {
+
+        var stages = new ArrayList<AggregationOperation>();
+        if(criteria != null) {
+            stages.add(Aggregation.match(criteria));
+        }
+        // one group per movie and histogram bucket, unrated reviews land in the null bucket
+        stages.add(context -> new Document("$group", new Document("_id", new Document("movieInfoId", "$movieInfoId")
+                        .append("bucket", new Document("$floor", "$rating")))
+                .append("count", new Document("$sum", 1))
+                .append("sum", new Document("$sum", "$rating"))));
+        stages.add(context -> new Document("$group", new Document("_id", "$_id.movieInfoId")
+                .append("count", new Document("$sum", "$count"))
+                .append("sum", new Document("$sum", "$sum"))
+                .append("buckets", new Document("$push", new Document("bucket", "$_id.bucket").append("count", "$count")))));
+        var aggregation = Aggregation.newAggregation(stages)
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        return reactiveMongoTemplate.aggregate(aggregation, reactiveMongoTemplate.getCollectionName(Review.class), Document.class)
+                .filter(movieStats -> movieStats.get("_id") != null)
+                .map(ReviewStatsService::toReviewStats);
+    }
+
+    private static ReviewStats toReviewStats(Document movieStats) {
+
+        var ratedCount = 0L;
+        var histogram = new HashMap<String, Long>();
+        for(var bucket : movieStats.getList("buckets", Document.class)) {
+            var floor = (Number) bucket.get("bucket");
+            if(floor != null) {
+                var count = ((Number) bucket.get("count")).longValue();
+                ratedCount += count;
+                histogram.put(String.valueOf(floor.longValue()), count);
+            }
+        }
+        var count = ((Number) movieStats.get("count")).longValue();
+        // any version other than the 0 of a movie without stats
+        return new ReviewStats(((Number) movieStats.get("_id")).longValue(), count, ratedCount,
+                ((Number) movieStats.get("sum")).doubleValue(), histogram, count);
+    }
+
+    private Update insertOnly(ReviewStats reviewStats) {
+
+        return new Update()
+                .setOnInsert("count", reviewStats.getCount())
+                .setOnInsert("ratedCount", reviewStats.getRatedCount())
+                .setOnInsert("sum", reviewStats.getSum())
+                .setOnInsert("histogram", new Document(new HashMap<String, Object>(reviewStats.getHistogram())))
+                .setOnInsert("version", reviewStats.getVersion());
+    }
+
+    private Update replaceAggregates(ReviewStats reviewStats, long version) {
+
+        return new Update()
+                .set("count", reviewStats.getCount())
+                .set("ratedCount", reviewStats.getRatedCount())
+                .set("sum", reviewStats.getSum())
+                .set("histogram", new Document(new HashMap<String, Object>(reviewStats.getHistogram())))
+                .set("version", version);
+    }
+
+    public Mono<Void> reviewAdded(Review review) {
+
+        var deltas = new HashMap<String, Number>();
+        addReview(deltas, review, 1);
+        return apply(review.getMovieInfoId(), deltas);
+    }
+
+    public Mono<Void> reviewUpdated(Double previousRating, Review review) {
+
+        var deltas = new HashMap<String, Number>();
+        addRating(deltas, previousRating, -1);
+        addRating(deltas, review.getRating(), 1);
+        return apply(review.getMovieInfoId(), deltas);
+    }
+
+    public Mono<Void> reviewDeleted(Review review) {
+
+        var deltas = new HashMap<String, Number>();
+        addReview(deltas, review, -1);
+        return apply(review.getMovieInfoId(), deltas);
+    }
+
+    /**
+     * Applies any number of review changes with one unordered bulk write holding a single
+     * {@code $inc} update per movie.
+     */
+    public Mono<Void> reviewsChanged(Collection<Review> removed, Collection<Review> added) {
+
+        var deltasByMovie = new HashMap<Long, Map<String, Number>>();
+        removed.forEach(review -> addReview(
+                deltasByMovie.computeIfAbsent(review.getMovieInfoId(), movieInfoId -> new HashMap<>()), review, -1));
+        added.forEach(review -> addReview(
+                deltasByMovie.computeIfAbsent(review.getMovieInfoId(), movieInfoId -> new HashMap<>()), review, 1));
+
+        var models = new ArrayList<WriteModel<Document>>();
+        deltasByMovie.forEach((movieInfoId, deltas) -> models.add(new UpdateOneModel<>(Filters.eq("_id", movieInfoId),
+                toUpdate(deltas).getUpdateObject())));
+        if(models.isEmpty()) {
+            return Mono.empty();
+        }
+
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(ReviewStats.class))
+                .flatMap(collection -> Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(false))))
+                .then();
+    }
+
+    private void addReview(Map<String, Number> deltas, Review review, int sign) {
+
+        deltas.merge("count", (long) sign, (a, b) -> a.longValue() + b.longValue());
+        addRating(deltas, review.getRating(), sign);
+    }
+
+    private void addRating(Map<String, Number> deltas, Double rating, int sign) {
+
+        if(rating == null) {
+            return;
+        }
+        // merged per field, a single update must not $inc the same path twice
+        deltas.merge("ratedCount", (long) sign, (a, b) -> a.longValue() + b.longValue());
+        deltas.merge("sum", sign * rating, (a, b) -> a.doubleValue() + b.doubleValue());
+        deltas.merge("histogram." + (long) Math.floor(rating), (long) sign, (a, b) -> a.longValue() + b.longValue());
+    }
+
+    /**
+     * Adjusts the stats of the movie if it has any, {@link #getReviewStats(Long)} creates missing
+     * stats from the reviews, which already hold the change.
+     */
+    private Mono<Void> apply(Long movieInfoId, Map<String, Number> deltas) {
+
+        return reactiveMongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(movieInfoId)), toUpdate(deltas), ReviewStats.class)
+                .then();
+    }
+
+    private Update toUpdate(Map<String, Number> deltas) {
+
+        // every review write moves the version, also the ones leaving the aggregates unchanged
+        var update = new Update().inc("version", 1L);
+        deltas.forEach((field, delta) -> {
+            if(delta.doubleValue() != 0) {
+                update.inc(field, delta);
+            }
+        });
+        return update;
+    }
+}
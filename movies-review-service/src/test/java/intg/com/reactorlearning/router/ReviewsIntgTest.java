@@ -1,24 +1,35 @@
 package com.reactorlearning.router;
 
+import com.reactorlearning.domain.BulkItemResult;
+import com.reactorlearning.domain.BulkItemStatus;
 import com.reactorlearning.domain.Review;
+import com.reactorlearning.domain.ReviewStats;
 import com.reactorlearning.repository.ReviewReactiveRepository;
+import com.reactorlearning.service.ReviewStatsService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.test.StepVerifier;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
-@TestPropertySource(properties = "spring.mongodb.embedded.version=3.5.5")
+@TestPropertySource(properties = {"spring.mongodb.embedded.version=3.5.5", "mongo.queryPlanVerification.enabled=true"})
 @ActiveProfiles("test")
 @AutoConfigureWebTestClient
 public class ReviewsIntgTest {
@@ -29,6 +40,12 @@ public class ReviewsIntgTest {
     @Autowired
     ReviewReactiveRepository reviewReactiveRepository;
 
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    ReviewStatsService reviewStatsService;
+
     static String REVIEWS_URL = "/v1/reviews";
 
     @BeforeEach
@@ -47,6 +64,7 @@ public class ReviewsIntgTest {
     void tearDown() {
 
         reviewReactiveRepository.deleteAll().block();
+        reactiveMongoTemplate.remove(new Query(), ReviewStats.class).block();
     }
 
     @Test
@@ -70,4 +88,462 @@ public class ReviewsIntgTest {
                     assertNotNull(saveReview.getReviewId());
                 });
     }
-}
\ No newline at end of file
+
+    @Test
+    void getReviewsByMovieInfoIds() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoIds", "1,2,3")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Review.class)
+                .hasSize(3);
+    }
+
+    @Test
+    void getReviewsByMovieInfoIds_limitPerMovie() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoIds", "1,2")
+                        .queryParam("limit", 1)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Review.class)
+                .value(reviews -> assertEquals(List.of(1L, 2L), reviews.stream()
+                        .map(Review::getMovieInfoId)
+                        .collect(Collectors.toList())));
+    }
+
+    @Test
+    void getReviewStats_movieInfoIds() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL + "/stats")
+                        .queryParam("movieInfoIds", "2,1,3")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(ReviewStats.class)
+                .value(stats -> {
+                    assertEquals(List.of(2L, 1L, 3L), stats.stream()
+                            .map(ReviewStats::getMovieInfoId)
+                            .collect(Collectors.toList()));
+                    assertEquals(1L, stats.get(0).getCount());
+                    assertEquals(2L, stats.get(1).getCount());
+                    assertEquals(0L, stats.get(2).getCount());
+                });
+    }
+
+    @Test
+    void getReviewsByMovieInfoIds_nonNumericId() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoIds", "1,abc")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getReviews_keysetPages() {
+
+        var firstPage = webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", 1)
+                        .queryParam("limit", 1)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().exists("X-Next-Cursor")
+                // the summary of all the movie's reviews comes along with every page
+                .expectHeader().valueEquals(ReviewStats.COUNT_HEADER, "2")
+                .expectHeader().valueEquals(ReviewStats.MEAN_HEADER, "9.0")
+                .expectHeader().exists(ReviewStats.VERSION_HEADER)
+                .expectBodyList(Review.class)
+                .hasSize(1)
+                .returnResult();
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", 1)
+                        .queryParam("limit", 1)
+                        .queryParam("after", firstPage.getResponseHeaders().getFirst("X-Next-Cursor"))
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().doesNotExist("X-Next-Cursor")
+                .expectBodyList(Review.class)
+                .hasSize(1);
+    }
+
+    @Test
+    void getReviews_keysetPageConditionalGet() {
+
+        var etag = webTestClient
+                .get()
+                .uri(REVIEWS_URL+"?movieInfoId={id}&limit={limit}", 1, 1)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .returnResult(Review.class)
+                .getResponseHeaders()
+                .getETag();
+
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL+"?movieInfoId={id}&limit={limit}", 1, 1)
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus()
+                .isNotModified();
+    }
+
+    @Test
+    void getReviews_topRated() {
+
+        reviewReactiveRepository.saveAll(List.of(
+                        new Review(null, 1L, "Good Movie", 7.0),
+                        new Review(null, 1L, "Best Movie", 10.0)))
+                .blockLast();
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", 1)
+                        .queryParam("sort", "-rating")
+                        .queryParam("limit", 3)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Review.class)
+                .value(reviews -> assertEquals(List.of(10.0, 9.0, 9.0), reviews.stream()
+                        .map(Review::getRating)
+                        .collect(Collectors.toList())));
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", 1)
+                        .queryParam("sort", "rating")
+                        .queryParam("limit", 1)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Review.class)
+                .value(reviews -> assertEquals("Good Movie", reviews.get(0).getComment()));
+    }
+
+    @Test
+    void getReviews_invalidSort() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", 1)
+                        .queryParam("sort", "comment")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("sort", "-rating")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getReviews_nonNumericMovieInfoId() {
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", "abc")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", "abc")
+                        .queryParam("limit", 1)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getReviews_defaultsToJsonArray() {
+
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+                .expectBodyList(Review.class)
+                .hasSize(3);
+    }
+
+    @Test
+    void streamReviews_ndjson() {
+
+        var reviewsFlux = webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", 1)
+                        .build())
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(Review.class)
+                .getResponseBody();
+
+        StepVerifier.create(reviewsFlux)
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+
+    @Test
+    void getReviews_conditionalGet() {
+
+        var etag = webTestClient
+                .get()
+                .uri(REVIEWS_URL+"?movieInfoId={id}", 3)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .returnResult(Review.class)
+                .getResponseHeaders()
+                .getETag();
+
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL+"?movieInfoId={id}", 3)
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus()
+                .isNotModified();
+
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .bodyValue(new Review(null, 3L, "Awesome Movie", 9.0))
+                .exchange()
+                .expectStatus()
+                .isCreated();
+
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL+"?movieInfoId={id}", 3)
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Review.class)
+                .hasSize(1);
+    }
+
+    @Test
+    void getReviewStats_maintainedOnWrites() {
+
+        var savedReview = webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .bodyValue(new Review(null, 3L, "Awesome Movie", 9.0))
+                .exchange()
+                .expectStatus()
+                .isCreated()
+                .expectBody(Review.class)
+                .returnResult()
+                .getResponseBody();
+        assertNotNull(savedReview);
+
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .bodyValue(new Review(null, 3L, "Good Movie", 7.0))
+                .exchange()
+                .expectStatus()
+                .isCreated();
+
+        webTestClient
+                .put()
+                .uri(REVIEWS_URL+"/{id}", savedReview.getReviewId())
+                .bodyValue(new Review(null, 3L, "Not that awesome", 8.0))
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful();
+
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL+"/stats?movieInfoId={id}", 3)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(15.0)
+                .jsonPath("$.mean").isEqualTo(7.5)
+                .jsonPath("$.histogram.8").isEqualTo(1)
+                .jsonPath("$.histogram.7").isEqualTo(1)
+                .jsonPath("$.histogram.9").isEqualTo(0);
+
+        webTestClient
+                .delete()
+                .uri(REVIEWS_URL+"/{id}", savedReview.getReviewId())
+                .exchange()
+                .expectStatus()
+                .isNoContent();
+
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL+"/stats?movieInfoId={id}", 3)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(1)
+                .jsonPath("$.mean").isEqualTo(7.0);
+    }
+
+    @Test
+    void getReviewStats_reviewsWrittenBeforeStats() {
+
+        // the reviews of setUp are saved through the repository, which keeps no stats
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL+"/stats?movieInfoId={id}", 1)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.mean").isEqualTo(9.0)
+                .jsonPath("$.histogram.9").isEqualTo(2);
+
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL)
+                .bodyValue(new Review(null, 1L, "Good Movie", 6.0))
+                .exchange()
+                .expectStatus()
+                .isCreated();
+
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL+"/stats?movieInfoId={id}", 1)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(3)
+                .jsonPath("$.mean").isEqualTo(8.0);
+    }
+
+    @Test
+    void backfillReviewStats() {
+
+        reactiveMongoTemplate.insert(new ReviewStats(2L, 5L, 5L, 40.0, Map.of("8", 5L), 5L)).block();
+
+        StepVerifier.create(reviewStatsService.backfill())
+                .expectNext(1L)
+                .verifyComplete();
+
+        StepVerifier.create(reactiveMongoTemplate.findById(1L, ReviewStats.class))
+                .assertNext(reviewStats -> {
+                    assertEquals(2L, reviewStats.getCount());
+                    assertEquals(18.0, reviewStats.getSum());
+                })
+                .verifyComplete();
+        // kept stats are ahead of the reviews, they are not replaced
+        StepVerifier.create(reactiveMongoTemplate.findById(2L, ReviewStats.class))
+                .assertNext(reviewStats -> assertEquals(5L, reviewStats.getCount()))
+                .verifyComplete();
+    }
+
+    @Test
+    void bulkWriteReviews() {
+
+        var ndjson = String.join("\n",
+                "{\"reviewId\":null, \"movieInfoId\":4, \"comment\":\"Awesome Movie\", \"rating\":9.0}",
+                "{\"reviewId\":null, \"movieInfoId\":4, \"comment\":\"Good Movie\", \"rating\":7.0}",
+                "{\"reviewId\":null, \"movieInfoId\":null, \"comment\":\"No Movie\", \"rating\":7.0}");
+
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL+"/bulk?ordered=false")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(ndjson)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(BulkItemResult.class)
+                .consumeWith(listEntityExchangeResult -> {
+
+                    var results = listEntityExchangeResult.getResponseBody();
+
+                    assertNotNull(results);
+                    assertEquals(3, results.size());
+                    assertEquals(BulkItemStatus.INSERTED, results.get(0).getStatus());
+                    assertEquals(BulkItemStatus.INSERTED, results.get(1).getStatus());
+                    assertEquals(BulkItemStatus.INVALID, results.get(2).getStatus());
+                    assertEquals("review.movieInfoId: must not be null", results.get(2).getError());
+                });
+
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL+"/stats?movieInfoId={id}", 4)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.mean").isEqualTo(8.0);
+    }
+
+    @Test
+    void bulkWriteReviews_invalidMode() {
+
+        webTestClient
+                .post()
+                .uri(REVIEWS_URL+"/bulk?mode=merge")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("{\"movieInfoId\":4, \"comment\":\"Awesome Movie\", \"rating\":9.0}")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+}
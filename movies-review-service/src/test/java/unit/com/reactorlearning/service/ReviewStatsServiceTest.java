@@ -0,0 +1,256 @@
+package com.reactorlearning.service;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.domain.ReviewStats;
+import org.bson.BsonInt64;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ReviewStatsServiceTest {
+
+    ReactiveMongoTemplate reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+
+    ReviewStatsService reviewStatsService = new ReviewStatsService(reactiveMongoTemplate);
+
+    @Test
+    void reviewAdded() {
+
+        var update = captureUpdate(() -> reviewStatsService.reviewAdded(new Review(null, 1L, "Awesome Movie", 9.5)));
+
+        var inc = (Document) update.getUpdateObject().get("$inc");
+        assertEquals(1L, inc.get("count"));
+        assertEquals(1L, inc.get("ratedCount"));
+        assertEquals(9.5, inc.get("sum"));
+        assertEquals(1L, inc.get("histogram.9"));
+        assertEquals(1L, inc.get("version"));
+    }
+
+    @Test
+    void reviewUpdated_sameBucket() {
+
+        var update = captureUpdate(() -> reviewStatsService.reviewUpdated(9.0, new Review("r1", 1L, "Awesome Movie", 9.5)));
+
+        var inc = (Document) update.getUpdateObject().get("$inc");
+        assertEquals(0.5, inc.get("sum"));
+        assertFalse(inc.containsKey("count"));
+        assertFalse(inc.containsKey("ratedCount"));
+        assertFalse(inc.containsKey("histogram.9"));
+    }
+
+    @Test
+    void reviewUpdated_unchangedRating_onlyMovesVersion() {
+
+        var update = captureUpdate(() -> reviewStatsService.reviewUpdated(9.0, new Review("r1", 1L, "Better comment", 9.0)));
+
+        assertEquals(new Document("version", 1L), update.getUpdateObject().get("$inc"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reviewsChanged_oneUpsertPerMovie() {
+
+        var collection = (MongoCollection<Document>) mock(MongoCollection.class);
+        when(reactiveMongoTemplate.getCollectionName(ReviewStats.class)).thenReturn("reviewStats");
+        when(reactiveMongoTemplate.getCollection("reviewStats")).thenReturn(Mono.just(collection));
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 2, 0, 2, List.of(), List.of())));
+
+        var removed = List.of(new Review("r1", 1L, "Awesome Movie", 9.0));
+        var added = List.of(new Review("r1", 1L, "Awesome Movie", 8.0),
+                new Review("r2", 1L, "Good Movie", 7.0),
+                new Review("r3", 2L, "Excellent Movie", 9.5));
+
+        StepVerifier.create(reviewStatsService.reviewsChanged(removed, added))
+                .verifyComplete();
+
+        var modelsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(collection).bulkWrite(modelsCaptor.capture(), any(BulkWriteOptions.class));
+        var models = (List<UpdateOneModel<Document>>) modelsCaptor.getValue();
+        assertEquals(2, models.size());
+        // stats are only adjusted once they exist
+        models.forEach(model -> assertFalse(model.getOptions().isUpsert()));
+
+        var movie1Inc = (Document) models.stream()
+                .filter(model -> model.getFilter().toBsonDocument().getInt64("_id").getValue() == 1L)
+                .findFirst()
+                .map(model -> ((Document) model.getUpdate()).get("$inc"))
+                .orElseThrow();
+        assertEquals(1L, movie1Inc.get("count"));
+        assertEquals(6.0, movie1Inc.get("sum"));
+        assertEquals(-1L, movie1Inc.get("histogram.9"));
+    }
+
+    @Test
+    void getReviewStats_mean() {
+
+        when(reactiveMongoTemplate.findById(1L, ReviewStats.class)).thenReturn(Mono.empty());
+        when(reactiveMongoTemplate.getCollectionName(Review.class)).thenReturn("review");
+        when(reactiveMongoTemplate.aggregate(any(Aggregation.class), eq("review"), eq(Document.class))).thenReturn(Flux.empty());
+
+        StepVerifier.create(reviewStatsService.getReviewStats(1L))
+                .assertNext(reviewStats -> {
+                    assertEquals(0L, reviewStats.getCount());
+                    assertNull(reviewStats.getMean());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getReviewStats_computesMissingStatsFromReviews() {
+
+        when(reactiveMongoTemplate.findById(1L, ReviewStats.class))
+                .thenReturn(Mono.empty(), Mono.just(new ReviewStats(1L, 3L, 2L, 17.5, null, 3L)));
+        when(reactiveMongoTemplate.getCollectionName(Review.class)).thenReturn("review");
+        when(reactiveMongoTemplate.aggregate(any(Aggregation.class), eq("review"), eq(Document.class)))
+                .thenReturn(Flux.just(movieStats(1L)));
+        when(reactiveMongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ReviewStats.class)))
+                .thenAnswer(invocation -> Mono.just(new ReviewStats(1L, 3L, 2L, 17.5, null, 3L)));
+
+        StepVerifier.create(reviewStatsService.getReviewStats(1L))
+                .assertNext(reviewStats -> assertEquals(8.75, reviewStats.getMean()))
+                .verifyComplete();
+
+        var updateCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(reactiveMongoTemplate).findAndModify(any(Query.class), updateCaptor.capture(),
+                any(FindAndModifyOptions.class), eq(ReviewStats.class));
+        var setOnInsert = (Document) updateCaptor.getValue().getUpdateObject().get("$setOnInsert");
+        assertEquals(3L, setOnInsert.get("count"));
+        assertEquals(2L, setOnInsert.get("ratedCount"));
+        assertEquals(17.5, setOnInsert.get("sum"));
+        assertEquals(new Document("9", 1L).append("8", 1L), setOnInsert.get("histogram"));
+        assertEquals(3L, setOnInsert.get("version"));
+    }
+
+    @Test
+    void getReviewStats_reviewAddedBetweenComputeAndStore() {
+
+        when(reactiveMongoTemplate.findById(1L, ReviewStats.class))
+                .thenReturn(Mono.empty(), Mono.just(new ReviewStats(1L, 3L, 2L, 17.5, null, 3L)));
+        when(reactiveMongoTemplate.getCollectionName(Review.class)).thenReturn("review");
+        when(reactiveMongoTemplate.aggregate(any(Aggregation.class), eq("review"), eq(Document.class)))
+                .thenReturn(Flux.just(movieStats(1L)),
+                        Flux.just(movieStats(1L).append("count", 4).append("sum", 26.5).append("buckets",
+                                List.of(new Document("bucket", 9.0).append("count", 2),
+                                        new Document("bucket", 8.0).append("count", 1),
+                                        new Document("bucket", null).append("count", 1)))));
+        // the review is written after the aggregation, its $inc finds no stats yet
+        when(reactiveMongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ReviewStats.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(0, 0L, null)));
+        when(reactiveMongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ReviewStats.class)))
+                .thenAnswer(invocation -> reviewStatsService.reviewAdded(new Review("r4", 1L, "Awesome Movie", 9.0))
+                        .then(Mono.just(new ReviewStats(1L, 3L, 2L, 17.5, null, 3L))))
+                .thenAnswer(invocation -> Mono.just(new ReviewStats(1L, 4L, 3L, 26.5, null, 4L)));
+
+        StepVerifier.create(reviewStatsService.getReviewStats(1L))
+                .assertNext(reviewStats -> assertEquals(4L, reviewStats.getCount()))
+                .verifyComplete();
+
+        var queryCaptor = ArgumentCaptor.forClass(Query.class);
+        var updateCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(reactiveMongoTemplate, times(2)).findAndModify(queryCaptor.capture(), updateCaptor.capture(),
+                any(FindAndModifyOptions.class), eq(ReviewStats.class));
+        // the recomputed stats replace the stored ones only if no review write moved them since
+        assertEquals(3L, queryCaptor.getAllValues().get(1).getQueryObject().get("version"));
+        var set = (Document) updateCaptor.getAllValues().get(1).getUpdateObject().get("$set");
+        assertEquals(4L, set.get("count"));
+        assertEquals(26.5, set.get("sum"));
+        assertEquals(4L, set.get("version"));
+    }
+
+    @Test
+    void getReviewStats_movieInfoIds() {
+
+        when(reactiveMongoTemplate.find(any(Query.class), eq(ReviewStats.class)))
+                .thenReturn(Flux.just(new ReviewStats(1L, 3L, 2L, 17.5, null, 3L)));
+        when(reactiveMongoTemplate.findById(2L, ReviewStats.class)).thenReturn(Mono.empty());
+        when(reactiveMongoTemplate.getCollectionName(Review.class)).thenReturn("review");
+        when(reactiveMongoTemplate.aggregate(any(Aggregation.class), eq("review"), eq(Document.class))).thenReturn(Flux.empty());
+
+        StepVerifier.create(reviewStatsService.getReviewStats(List.of(2L, 1L)))
+                .assertNext(reviewStats -> assertEquals(0L, reviewStats.getCount()))
+                .assertNext(reviewStats -> assertEquals(3L, reviewStats.getCount()))
+                .verifyComplete();
+        // only the movie without stats is looked up on its own
+        verify(reactiveMongoTemplate, never()).findById(1L, ReviewStats.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void backfill_onlyInsertsMissingStats() {
+
+        var collection = (MongoCollection<Document>) mock(MongoCollection.class);
+        when(reactiveMongoTemplate.getCollectionName(Review.class)).thenReturn("review");
+        when(reactiveMongoTemplate.getCollectionName(ReviewStats.class)).thenReturn("reviewStats");
+        when(reactiveMongoTemplate.aggregate(any(Aggregation.class), eq("review"), eq(Document.class)))
+                .thenReturn(Flux.just(movieStats(1L), movieStats(2L)));
+        when(reactiveMongoTemplate.getCollection("reviewStats")).thenReturn(Mono.just(collection));
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 0, 0, 0,
+                        List.of(new BulkWriteUpsert(1, new BsonInt64(2L))), List.of())));
+
+        StepVerifier.create(reviewStatsService.backfill())
+                .expectNext(1L)
+                .verifyComplete();
+
+        var modelsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(collection).bulkWrite(modelsCaptor.capture(), any(BulkWriteOptions.class));
+        var models = (List<UpdateOneModel<Document>>) modelsCaptor.getValue();
+        assertEquals(2, models.size());
+        models.forEach(model -> {
+            assertTrue(model.getOptions().isUpsert());
+            assertEquals(Set.of("$setOnInsert"), ((Document) model.getUpdate()).keySet());
+        });
+    }
+
+    /**
+     * What the aggregation returns for a movie with a 9.0, an 8.5 and an unrated review.
+     */
+    private Document movieStats(Long movieInfoId) {
+
+        return new Document("_id", movieInfoId)
+                .append("count", 3)
+                .append("sum", 17.5)
+                .append("buckets", List.of(new Document("bucket", 9.0).append("count", 1),
+                        new Document("bucket", 8.0).append("count", 1),
+                        new Document("bucket", null).append("count", 1)));
+    }
+
+    private Update captureUpdate(java.util.function.Supplier<Mono<Void>> call) {
+
+        when(reactiveMongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ReviewStats.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+
+        StepVerifier.create(call.get())
+                .verifyComplete();
+
+        var updateCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(reactiveMongoTemplate).updateFirst(any(Query.class), updateCaptor.capture(), eq(ReviewStats.class));
+        return updateCaptor.getValue();
+    }
+}
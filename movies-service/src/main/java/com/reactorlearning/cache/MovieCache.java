@@ -0,0 +1,264 @@
+package com.reactorlearning.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.reactorlearning.config.MovieCacheProperties;
+import com.reactorlearning.domain.Movie;
+import com.reactorlearning.exception.MoviesInfoClientException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Two tier cache of assembled movies in front of the downstream calls building them.
+ * <p>
+ * The heap tier holds the movies ready to be served. Once {@code movieCache.heapMaxSize} is
+ * reached Caffeine's W-TinyLFU policy keeps the frequently read ones and evicts the others to the
+ * off-heap tier, where they are kept serialized to JSON in direct buffers until
+ * {@code movieCache.offHeapMaxSize} is reached. A movie found off heap moves back on heap.
+ * <p>
+ * A movie read when it is older than {@code movieCache.refreshAfter} is reloaded in the
+ * background while the cached one keeps being served, so the movies read often are kept fresh
+ * without any reader waiting for the downstreams. Movies that are not reloaded within
+ * {@code movieCache.ttl} of being loaded expire from either tier. When a reload fails the cached
+ * movie is kept, unless the movie no longer exists, and so is it when the reload could only
+ * assemble the movie without its reviews. Movies missing their reviews are kept on heap for
+ * {@code movieCache.degradedTtl} only.
+ * <p>
+ * Hit, miss, eviction and size meters are published as {@code cache.*} with
+ * {@code cache=movie,tier=heap|offHeap}, the memory used by each tier as {@code movieCache.bytes}.
+ */
+@Slf4j
+public class MovieCache {
+
+    private Function<String, Mono<Movie>> loader;
+    private ObjectMapper objectMapper;
+    private Ticker ticker;
+    private long refreshAfterNanos;
+    private long ttlNanos;
+    private long degradedTtlNanos;
+    private AsyncCache<String, Entry> heap;
+    private Cache<String, OffHeapEntry> offHeap;
+    private Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param loader assembles the movie of an id from the downstreams, movies it could not get the reviews of
+     *               are flagged {@link Movie#isReviewsUnavailable()}
+     */
+    public MovieCache(Function<String, Mono<Movie>> loader, MovieCacheProperties movieCacheProperties,
+                      ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this(loader, movieCacheProperties, objectMapper, meterRegistry, Ticker.systemTicker(), ForkJoinPool.commonPool());
+    }
+
+    MovieCache(Function<String, Mono<Movie>> loader, MovieCacheProperties movieCacheProperties,
+               ObjectMapper objectMapper, MeterRegistry meterRegistry, Ticker ticker, Executor executor) {
+        this.loader = loader;
+        this.objectMapper = objectMapper;
+        this.ticker = ticker;
+        this.refreshAfterNanos = movieCacheProperties.getRefreshAfter().toNanos();
+        this.ttlNanos = movieCacheProperties.getTtl().toNanos();
+        this.degradedTtlNanos = movieCacheProperties.getDegradedTtl().toNanos();
+        this.offHeap = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumWeight(movieCacheProperties.getOffHeapMaxSize().toBytes())
+                .weigher((String movieId, OffHeapEntry entry) -> entry.getBytes().capacity())
+                .expireAfter(expireAfterLoad(OffHeapEntry::getLoadedAt, entry -> false))
+                .ticker(ticker)
+                .executor(executor)
+                .recordStats()
+                .<String, OffHeapEntry>build(), "movie", "tier", "offHeap");
+        this.heap = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumWeight(movieCacheProperties.getHeapMaxSize().toBytes())
+                .weigher((String movieId, Entry entry) -> entry.getSize())
+                .expireAfter(expireAfterLoad(Entry::getLoadedAt, entry -> entry.getMovie().isReviewsUnavailable()))
+                // only evictions make room off heap, expired and replaced movies are outdated, and so are
+                // movies missing their reviews
+                .removalListener((String movieId, Entry entry, RemovalCause cause) -> {
+                    if(cause == RemovalCause.SIZE && entry != null && !entry.getMovie().isReviewsUnavailable()) {
+                        moveOffHeap(movieId, entry);
+                    }
+                })
+                .ticker(ticker)
+                .executor(executor)
+                .recordStats()
+                .<String, Entry>buildAsync(), "movie", "tier", "heap");
+
+        Gauge.builder("movieCache.bytes", heap, cache -> weightedSize(cache.synchronous()))
+                .tag("tier", "heap")
+                .description("Size of the cached movies serialized to JSON, an estimate of the heap they use")
+                .register(meterRegistry);
+        Gauge.builder("movieCache.bytes", offHeap, MovieCache::weightedSize)
+                .tag("tier", "offHeap")
+                .description("Direct memory held by the cached movies")
+                .register(meterRegistry);
+    }
+
+    public Mono<Movie> get(String movieId) {
+
+        // toFuture() detaches the load from the caller, a cancelled reader does not abort it for the others
+        return Mono.deferContextual(contextView -> Mono.fromFuture(heap.get(movieId,
+                        (key, executor) -> load(key, contextView))))
+                .doOnNext(entry -> refreshIfStale(movieId, entry))
+                .map(Entry::getMovie);
+    }
+
+    public void invalidate(String movieId) {
+
+        heap.synchronous().invalidate(movieId);
+        offHeap.invalidate(movieId);
+    }
+
+    private CompletableFuture<Entry> load(String movieId, ContextView contextView) {
+
+        var offHeapEntry = offHeap.getIfPresent(movieId);
+        if(offHeapEntry != null) {
+            offHeap.invalidate(movieId);
+            var movie = deserialize(movieId, offHeapEntry.getBytes());
+            if(movie != null) {
+                return CompletableFuture.completedFuture(new Entry(movie, offHeapEntry.getBytes().capacity(),
+                        offHeapEntry.getLoadedAt()));
+            }
+        }
+        return loader.apply(movieId)
+                .map(this::entry)
+                .contextWrite(contextView)
+                .toFuture();
+    }
+
+    private void refreshIfStale(String movieId, Entry entry) {
+
+        if(ticker.read() - entry.getLoadedAt() < refreshAfterNanos || !refreshing.add(movieId)) {
+            return;
+        }
+        loader.apply(movieId)
+                .map(this::entry)
+                .doFinally(signalType -> refreshing.remove(movieId))
+                .subscribe(refreshed -> {
+                            if(refreshed.getMovie().isReviewsUnavailable() && !entry.getMovie().isReviewsUnavailable()) {
+                                log.warn("Refreshing movie {} could not get its reviews, keeping the cached one", movieId);
+                                return;
+                            }
+                            heap.put(movieId, CompletableFuture.completedFuture(refreshed));
+                        },
+                        ex -> {
+                            if(ex instanceof MoviesInfoClientException) {
+                                invalidate(movieId);
+                            } else {
+                                log.warn("Refreshing movie {} failed, keeping the cached one : {}", movieId, ex.getMessage());
+                            }
+                        });
+    }
+
+    private Entry entry(Movie movie) {
+
+        return new Entry(movie, serialize(movie).length, ticker.read());
+    }
+
+    private void moveOffHeap(String movieId, Entry entry) {
+
+        var json = serialize(entry.getMovie());
+        var bytes = ByteBuffer.allocateDirect(json.length)
+                .put(json)
+                .flip();
+        offHeap.put(movieId, new OffHeapEntry(bytes, entry.getLoadedAt()));
+    }
+
+    private byte[] serialize(Movie movie) {
+
+        try {
+            return objectMapper.writeValueAsBytes(movie);
+        } catch (IOException e) {
+            throw new IllegalStateException("Movie " + movie.getMovieInfo().getMovieInfoId() + " cannot be serialized", e);
+        }
+    }
+
+    private Movie deserialize(String movieId, ByteBuffer bytes) {
+
+        // duplicate() so concurrent readers of the same buffer do not share a position
+        try (var inputStream = new ByteBufferBackedInputStream(bytes.duplicate())) {
+            return objectMapper.readValue(inputStream, Movie.class);
+        } catch (IOException e) {
+            log.warn("Dropping unreadable off-heap movie {} : {}", movieId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Expires entries {@code movieCache.ttl}, or {@code movieCache.degradedTtl} for movies missing
+     * their reviews, after the movie was loaded from the downstreams, moving between the tiers does
+     * not extend their life.
+     */
+    private <V> Expiry<String, V> expireAfterLoad(ToLongFunction<V> loadedAt, Predicate<V> degraded) {
+
+        return new Expiry<>() {
+            @Override
+            public long expireAfterCreate(String movieId, V value, long currentTime) {
+                var ttl = degraded.test(value) ? degradedTtlNanos : ttlNanos;
+                return Math.max(0, ttl - (currentTime - loadedAt.applyAsLong(value)));
+            }
+
+            @Override
+            public long expireAfterUpdate(String movieId, V value, long currentTime, long currentDuration) {
+                return expireAfterCreate(movieId, value, currentTime);
+            }
+
+            @Override
+            public long expireAfterRead(String movieId, V value, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+        };
+    }
+
+    private static long weightedSize(Cache<?, ?> cache) {
+
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Entry {
+
+        private Movie movie;
+
+        /**
+         * Length of the movie serialized to JSON.
+         */
+        private int size;
+
+        /**
+         * {@link Ticker} time of the load from the downstreams.
+         */
+        private long loadedAt;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class OffHeapEntry {
+
+        private ByteBuffer bytes;
+        private long loadedAt;
+    }
+}
@@ -0,0 +1,92 @@
+package com.reactorlearning.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactorlearning.config.RestClientProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+/**
+ * Keeps the last response body of a downstream per key together with its ETag, so the next call
+ * for the key is a conditional GET and a {@code 304 Not Modified} reuses the kept body instead of
+ * transferring and decoding it again.
+ * <p>
+ * Bodies are never served without asking the downstream, the cache only saves the payload. Keys
+ * are dropped when a call fails or the response carries no ETag.
+ * <p>
+ * Publishes {@code restClient.revalidations} tagged with the client name and
+ * {@code outcome=NOT_MODIFIED|MODIFIED}, plus the {@code cache.*} meters of the underlying cache
+ * as {@code cache=<client>Responses}.
+ */
+public class ConditionalCache<K, V> {
+
+    private boolean enabled;
+    private Cache<K, Validated<V>> responses;
+    private Counter notModified;
+    private Counter modified;
+
+    public ConditionalCache(String clientName, RestClientProperties.CacheProperties cacheProperties,
+                            MeterRegistry meterRegistry) {
+        this.enabled = cacheProperties.isEnabled();
+        this.responses = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(cacheProperties.getMaxEntries())
+                .recordStats()
+                .<K, Validated<V>>build(), clientName + "Responses");
+        this.notModified = Counter.builder("restClient.revalidations")
+                .tag("client", clientName)
+                .tag("outcome", "NOT_MODIFIED")
+                .register(meterRegistry);
+        this.modified = Counter.builder("restClient.revalidations")
+                .tag("client", clientName)
+                .tag("outcome", "MODIFIED")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param get performs the GET, with the given value as {@code If-None-Match} when it is not null
+     */
+    public Mono<V> get(K key, Function<String, Mono<ResponseEntity<V>>> get) {
+
+        if(!enabled) {
+            return get.apply(null).mapNotNull(ResponseEntity::getBody);
+        }
+
+        return Mono.defer(() -> {
+            var cached = responses.getIfPresent(key);
+            return get.apply(cached == null ? null : cached.getETag())
+                    .mapNotNull(response -> {
+                        if(cached != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                            notModified.increment();
+                            return cached.getValue();
+                        }
+                        if(cached != null) {
+                            modified.increment();
+                        }
+                        var etag = response.getHeaders().getETag();
+                        if(etag != null && response.getBody() != null) {
+                            responses.put(key, new Validated<>(etag, response.getBody()));
+                        } else {
+                            responses.invalidate(key);
+                        }
+                        return response.getBody();
+                    })
+                    .doOnError(ex -> responses.invalidate(key));
+        });
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Validated<V> {
+
+        private String eTag;
+        private V value;
+    }
+}
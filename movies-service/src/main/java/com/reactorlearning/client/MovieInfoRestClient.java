@@ -1,55 +1,110 @@
 package com.reactorlearning.client;
 
+import com.reactorlearning.config.RestClientProperties;
 import com.reactorlearning.domain.Movie;
 import com.reactorlearning.domain.MovieInfo;
 import com.reactorlearning.exception.MoviesInfoClientException;
 import com.reactorlearning.exception.MoviesInfoServerException;
+import com.reactorlearning.logging.SignalTracing;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 @Component
 public class MovieInfoRestClient {
 
     private WebClient webClient;
+    private ResiliencePipeline resiliencePipeline;
+    private RequestCollapser<String, MovieInfo> requestCollapser;
+    private ConditionalCache<String, MovieInfo> conditionalCache;
 
     @Value("${restClient.moviesInfoUrl}")
     private String moviesInfoUrl;
 
-    public MovieInfoRestClient(WebClient webClient) {
+    public MovieInfoRestClient(@Qualifier("moviesInfoWebClient") WebClient webClient,
+                               MeterRegistry meterRegistry, RestClientProperties restClientProperties,
+                               @Value("${restClient.collapsing.enabled:true}") boolean collapsingEnabled) {
         this.webClient = webClient;
+        this.resiliencePipeline = new ResiliencePipeline("moviesInfo", restClientProperties.getMoviesInfo(),
+                MoviesInfoServerException.class, MoviesInfoServerException::new, meterRegistry);
+        this.requestCollapser = new RequestCollapser<>("moviesInfo", collapsingEnabled, meterRegistry);
+        this.conditionalCache = new ConditionalCache<>("moviesInfo", restClientProperties.getMoviesInfo().getCache(),
+                meterRegistry);
     }
 
     public Mono<MovieInfo> retrieveMovieInfo(String movieId) {
 
+        return requestCollapser.collapse(movieId, () -> resiliencePipeline.apply(fetchMovieInfo(movieId)));
+    }
+
+    private Mono<MovieInfo> fetchMovieInfo(String movieId) {
+
         var url = moviesInfoUrl.concat("/{id}");
 
+        return conditionalCache.get(movieId, eTag -> webClient.get()
+                        .uri(url, movieId)
+                        .headers(headers -> {
+                            if(eTag != null) {
+                                headers.setIfNoneMatch(eTag);
+                            }
+                        })
+                        .retrieve()
+                        .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
+                            if(clientResponse.statusCode().equals(HttpStatus.NOT_FOUND)) {
+                                return Mono.error(
+                                        new MoviesInfoClientException(
+                                                "There is no MovieInfo Available for the passed id : " + movieId,
+                                                clientResponse.statusCode().value()
+                                        )
+                                );
+                            }
+
+                            return clientResponse.bodyToMono(String.class)
+                                    .flatMap(responseMessage -> Mono.error(new MoviesInfoClientException(
+                                                    responseMessage, clientResponse.statusCode().value()
+                                    )));
+                        })
+                        .onStatus(HttpStatus::is5xxServerError, clientResponse ->
+                                clientResponse.bodyToMono(String.class)
+                                        .flatMap(responseMessage -> Mono.error(new MoviesInfoServerException(
+                                                "Server Exception in MoviesInfoService " + responseMessage
+                                        ))))
+                        .toEntity(MovieInfo.class))
+                .transformDeferredContextual(SignalTracing.mono("moviesInfo.byId"));
+    }
+
+    public Flux<MovieInfo> retrieveMovieInfos(List<String> movieIds) {
+
+        return resiliencePipeline.apply(fetchMovieInfos(movieIds).collectList())
+                .flatMapIterable(movieInfos -> movieInfos);
+    }
+
+    private Flux<MovieInfo> fetchMovieInfos(List<String> movieIds) {
+
+        // a template rather than the expanded url keeps the uri tag of http.client.requests bounded
+        var url = moviesInfoUrl.concat("?ids={ids}");
+
         return webClient.get()
-                .uri(url, movieId)
+                .uri(url, String.join(",", movieIds))
                 .retrieve()
-                .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
-                    if(clientResponse.statusCode().equals(HttpStatus.NOT_FOUND)) {
-                        return Mono.error(
-                                new MoviesInfoClientException(
-                                        "There is no MovieInfo Available for the passed id : " + movieId,
-                                        clientResponse.statusCode().value()
-                                )
-                        );
-                    }
-
-                    return clientResponse.bodyToMono(String.class)
-                            .flatMap(responseMessage -> Mono.error(new MoviesInfoClientException(
-                                            responseMessage, clientResponse.statusCode().value()
-                            )));
-                })
+                .onStatus(HttpStatus::is4xxClientError, clientResponse ->
+                        clientResponse.bodyToMono(String.class)
+                                .flatMap(responseMessage -> Mono.error(new MoviesInfoClientException(
+                                        responseMessage, clientResponse.statusCode().value()
+                                ))))
                 .onStatus(HttpStatus::is5xxServerError, clientResponse ->
                         clientResponse.bodyToMono(String.class)
                                 .flatMap(responseMessage -> Mono.error(new MoviesInfoServerException(
                                         "Server Exception in MoviesInfoService " + responseMessage
                                 ))))
-                .bodyToMono(MovieInfo.class)
-                .log();
+                .bodyToFlux(MovieInfo.class)
+                .transformDeferredContextual(SignalTracing.flux("moviesInfo.byIds"));
     }
 }
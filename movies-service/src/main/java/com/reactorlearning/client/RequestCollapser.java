@@ -0,0 +1,83 @@
+package com.reactorlearning.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent identical requests share a single downstream call (a.k.a. singleflight).
+ * <p>
+ * The first subscriber for a key starts the call, every subscriber arriving for the same key
+ * while it is in flight joins it and receives the same result. The shared call counts its callers:
+ * one of them going away never cancels it for the others, the last one going away cancels it.
+ * <p>
+ * Publishes {@code restClient.collapsing.requests} and {@code restClient.collapsing.executions}
+ * counters plus the {@code restClient.collapsing.ratio} gauge (requests per downstream call)
+ * tagged with the client name.
+ */
+public class RequestCollapser<K, V> {
+
+    private ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+    private boolean enabled;
+    private Counter requests;
+    private Counter executions;
+
+    public RequestCollapser(String clientName, boolean enabled, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.requests = Counter.builder("restClient.collapsing.requests")
+                .tag("client", clientName)
+                .register(meterRegistry);
+        this.executions = Counter.builder("restClient.collapsing.executions")
+                .tag("client", clientName)
+                .register(meterRegistry);
+        Gauge.builder("restClient.collapsing.ratio", this, RequestCollapser::collapseRatio)
+                .tag("client", clientName)
+                .register(meterRegistry);
+        Gauge.builder("restClient.collapsing.inFlight", inFlight, ConcurrentMap::size)
+                .tag("client", clientName)
+                .register(meterRegistry);
+    }
+
+    public Mono<V> collapse(K key, Supplier<Mono<V>> call) {
+
+        if(!enabled) {
+            return Mono.defer(() -> {
+                requests.increment();
+                executions.increment();
+                return call.get();
+            });
+        }
+
+        return Mono.deferContextual(contextView -> {
+            requests.increment();
+            return inFlight.computeIfAbsent(key, k -> share(k, call, contextView));
+        });
+    }
+
+    private Mono<V> share(K key, Supplier<Mono<V>> call, ContextView contextView) {
+
+        var shared = new AtomicReference<Mono<V>>();
+        shared.set(Mono.defer(call)
+                .contextWrite(contextView)
+                .doOnSubscribe(subscription -> executions.increment())
+                .doFinally(signalType -> inFlight.remove(key, shared.get()))
+                .flux()
+                .publish()
+                .refCount()
+                .singleOrEmpty());
+        return shared.get();
+    }
+
+    public double collapseRatio() {
+
+        var executionCount = executions.count();
+        return executionCount == 0 ? 1.0 : requests.count() / executionCount;
+    }
+}
@@ -0,0 +1,156 @@
+package com.reactorlearning.client;
+
+import com.reactorlearning.config.RestClientProperties;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Wraps every attempt of a downstream call in a bulkhead and a circuit breaker, retries server
+ * errors with exponential backoff and jitter, and bounds the whole call by a deadline.
+ * <p>
+ * Calls rejected by the bulkhead or the open breaker and calls running past their deadline fail
+ * with the client's server exception, so callers only ever have to handle one failure type.
+ * <p>
+ * Pipelines only wrap {@link Mono}s, callers streaming a body collect it first so a retry never
+ * replays elements that were already emitted.
+ * <p>
+ * Publishes the {@code resilience4j.circuitbreaker.*} and {@code resilience4j.bulkhead.*} meters
+ * plus the {@code restClient.retries} counter, all tagged with the client name. Every call is timed
+ * as {@code restClient.requests} tagged with the client name and its outcome ({@code SUCCESS},
+ * {@code CLIENT_ERROR}, {@code SERVER_ERROR}, {@code UNAVAILABLE} or {@code CANCELLED}), retries
+ * and backoff included, while {@code http.client.requests} times the individual attempts.
+ */
+public class ResiliencePipeline {
+
+    private Duration deadline;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
+    private RetryBackoffSpec retry;
+    private Function<String, RuntimeException> unavailable;
+    private Class<? extends RuntimeException> retryable;
+    private MeterRegistry meterRegistry;
+    private Map<String, Timer> timers;
+
+    public ResiliencePipeline(String clientName, RestClientProperties.Downstream downstream,
+                              Class<? extends RuntimeException> retryable,
+                              Function<String, RuntimeException> unavailable,
+                              MeterRegistry meterRegistry) {
+        this.deadline = downstream.getDeadline();
+        this.unavailable = unavailable;
+        this.retryable = retryable;
+        this.meterRegistry = meterRegistry;
+        this.timers = Map.of(
+                "SUCCESS", timer(clientName, "SUCCESS"),
+                "CLIENT_ERROR", timer(clientName, "CLIENT_ERROR"),
+                "SERVER_ERROR", timer(clientName, "SERVER_ERROR"),
+                "UNAVAILABLE", timer(clientName, "UNAVAILABLE"),
+                "CANCELLED", timer(clientName, "CANCELLED"));
+
+        var circuitBreakerProperties = downstream.getCircuitBreaker();
+        var circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .failureRateThreshold(circuitBreakerProperties.getFailureRateThreshold())
+                .slidingWindowSize(circuitBreakerProperties.getSlidingWindowSize())
+                .minimumNumberOfCalls(circuitBreakerProperties.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(circuitBreakerProperties.getWaitDurationInOpenState())
+                .permittedNumberOfCallsInHalfOpenState(circuitBreakerProperties.getPermittedNumberOfCallsInHalfOpenState())
+                // client errors are the caller's fault and say nothing about the downstream's health
+                .recordException(retryable::isInstance)
+                .build());
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(clientName);
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(meterRegistry);
+
+        var bulkheadProperties = downstream.getBulkhead();
+        var bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(bulkheadProperties.getMaxConcurrentCalls())
+                .maxWaitDuration(bulkheadProperties.getMaxWaitDuration())
+                .build());
+        this.bulkhead = bulkheadRegistry.bulkhead(clientName);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry).bindTo(meterRegistry);
+
+        var retryProperties = downstream.getRetry();
+        var retries = Counter.builder("restClient.retries")
+                .tag("client", clientName)
+                .register(meterRegistry);
+        this.retry = Retry.backoff(retryProperties.getMaxRetries(), retryProperties.getMinBackoff())
+                .maxBackoff(retryProperties.getMaxBackoff())
+                .jitter(retryProperties.getJitter())
+                .filter(retryable::isInstance)
+                .doBeforeRetry(retrySignal -> retries.increment())
+                .onRetryExhaustedThrow((retryBackoffSpec, retrySignal) -> retrySignal.failure());
+    }
+
+    public <T> Mono<T> apply(Mono<T> call) {
+
+        return Mono.defer(() -> {
+            var sample = Timer.start(meterRegistry);
+            return call
+                    .transformDeferred(BulkheadOperator.of(bulkhead))
+                    .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                    .retryWhen(retry)
+                    .timeout(deadline)
+                    .doOnSuccess(value -> sample.stop(timers.get("SUCCESS")))
+                    .doOnError(throwable -> sample.stop(timers.get(outcome(throwable))))
+                    .doOnCancel(() -> sample.stop(timers.get("CANCELLED")))
+                    .onErrorMap(this::isUnavailable, this::toUnavailable);
+        });
+    }
+
+    public CircuitBreaker.State circuitBreakerState() {
+
+        return circuitBreaker.getState();
+    }
+
+    private Timer timer(String clientName, String outcome) {
+
+        return Timer.builder("restClient.requests")
+                .tag("client", clientName)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private String outcome(Throwable throwable) {
+
+        if(isUnavailable(throwable)) {
+            return "UNAVAILABLE";
+        }
+        return retryable.isInstance(throwable) ? "SERVER_ERROR" : "CLIENT_ERROR";
+    }
+
+    private boolean isUnavailable(Throwable throwable) {
+
+        return throwable instanceof TimeoutException
+                || throwable instanceof CallNotPermittedException
+                || throwable instanceof BulkheadFullException;
+    }
+
+    private RuntimeException toUnavailable(Throwable throwable) {
+
+        var reason = throwable instanceof TimeoutException
+                ? "no response within " + deadline.toMillis() + "ms"
+                : throwable.getMessage();
+        var exception = unavailable.apply("Service unavailable : " + reason);
+        exception.initCause(throwable);
+        return exception;
+    }
+}
@@ -1,40 +1,239 @@
 package com.reactorlearning.client;
 
-import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.config.RestClientProperties;
 import com.reactorlearning.domain.Review;
-import com.reactorlearning.exception.MoviesInfoClientException;
-import com.reactorlearning.exception.MoviesInfoServerException;
+import com.reactorlearning.domain.ReviewPage;
+import com.reactorlearning.domain.ReviewSummary;
 import com.reactorlearning.exception.ReviewsClientException;
 import com.reactorlearning.exception.ReviewsServerException;
+import com.reactorlearning.logging.SignalTracing;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 @Component
 public class ReviewsRestClient {
 
     private WebClient webClient;
+    private ResiliencePipeline resiliencePipeline;
+    private RequestCollapser<String, ReviewPage> requestCollapser;
+    private RequestCollapser<String, ReviewSummary> summaryCollapser;
+    private ConditionalCache<String, ReviewPage> pageCache;
 
     @Value("${restClient.reviewsUrl}")
     private String reviewsUrl;
 
-    public ReviewsRestClient(WebClient webClient) {
+    public ReviewsRestClient(@Qualifier("reviewsWebClient") WebClient webClient,
+                             MeterRegistry meterRegistry, RestClientProperties restClientProperties,
+                             @Value("${restClient.collapsing.enabled:true}") boolean collapsingEnabled) {
         this.webClient = webClient;
+        this.resiliencePipeline = new ResiliencePipeline("reviews", restClientProperties.getReviews(),
+                ReviewsServerException.class, ReviewsServerException::new, meterRegistry);
+        this.requestCollapser = new RequestCollapser<>("reviews", collapsingEnabled, meterRegistry);
+        this.summaryCollapser = new RequestCollapser<>("reviewSummaries", collapsingEnabled, meterRegistry);
+        this.pageCache = new ConditionalCache<>("reviewPages", restClientProperties.getReviews().getCache(),
+                meterRegistry);
     }
 
-    public Flux<Review> retrieveMovieInfo(String movieId) {
+    /**
+     * One keyset page of a movie's reviews in id order, {@code after} is the cursor of the previous
+     * page or null for the first one. The page carries the summary of all the movie's reviews, null
+     * when the reviews service did not send it.
+     */
+    public Mono<ReviewPage> retrieveReviewPage(String movieId, int limit, String after) {
+
+        if(!isReviewable(movieId)) {
+            return Mono.just(new ReviewPage(List.of(), null, noReviewsSummary()));
+        }
+        var url = reviewsUrl.concat("?movieInfoId={movieInfoId}&limit={limit}");
+        var uriVariables = new HashMap<String, Object>(Map.of("movieInfoId", movieId, "limit", limit));
+        if(after != null) {
+            url = url.concat("&after={after}");
+            uriVariables.put("after", after);
+        }
+        return collapsedPage(movieId + "?limit=" + limit + "&after=" + after, url, uriVariables);
+    }
 
-        var url = UriComponentsBuilder.fromHttpUrl(reviewsUrl)
-                .queryParam("movieInfoId", movieId)
-                .buildAndExpand().toUriString();
+    /**
+     * The {@code limit} best rated reviews of a movie as a page without a cursor, the reviews
+     * service reads no more than these.
+     */
+    public Mono<ReviewPage> retrieveTopReviews(String movieId, int limit) {
+
+        if(!isReviewable(movieId)) {
+            return Mono.just(new ReviewPage(List.of(), null, noReviewsSummary()));
+        }
+        return collapsedPage(movieId + "?sort=-rating&limit=" + limit,
+                reviewsUrl.concat("?movieInfoId={movieInfoId}&sort=-rating&limit={limit}"),
+                Map.of("movieInfoId", movieId, "limit", limit));
+    }
+
+    /**
+     * Every review of a movie, decoded as the reviews service streams them rather than buffered.
+     * Only the call up to the response headers is retried, a stream failing midway errors out.
+     */
+    public Flux<Review> streamReviews(String movieId) {
+
+        if(!isReviewable(movieId)) {
+            return Flux.empty();
+        }
+        return resiliencePipeline.apply(retrieve(webClient.get()
+                                .uri(reviewsUrl.concat("?movieInfoId={movieInfoId}"), movieId)
+                                .accept(MediaType.APPLICATION_NDJSON))
+                        .toEntityFlux(Review.class))
+                .flatMapMany(response -> response.getBody() == null ? Flux.empty() : response.getBody())
+                .transformDeferredContextual(SignalTracing.flux("reviews.stream"));
+    }
+
+    /**
+     * Count and mean rating over all of a movie's reviews, maintained by the reviews service on
+     * every write so reading them costs a single lookup. The pages of reviews carry it already,
+     * this is only needed without one.
+     */
+    public Mono<ReviewSummary> retrieveReviewSummary(String movieId) {
+
+        if(!isReviewable(movieId)) {
+            return Mono.just(noReviewsSummary());
+        }
+        return summaryCollapser.collapse(movieId, () -> resiliencePipeline.apply(retrieve(webClient.get()
+                        .uri(reviewsUrl.concat("/stats?movieInfoId={movieInfoId}"), movieId))
+                .bodyToMono(ReviewSummary.class)
+                .transformDeferredContextual(SignalTracing.mono("reviews.stats"))));
+    }
+
+    /**
+     * Review.movieInfoId is numeric, movie infos with any other id (e.g. an ObjectId) never have
+     * reviews. They are answered without calling the reviews service, which rejects such ids.
+     */
+    static boolean isReviewable(String movieId) {
+
+        return movieId != null && !movieId.isEmpty() && movieId.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * What the reviews service answers for a movie without reviews.
+     */
+    private static ReviewSummary noReviewsSummary() {
+
+        return new ReviewSummary(0L, null, 0L);
+    }
+
+    private Mono<ReviewPage> collapsedPage(String key, String url, Map<String, ?> uriVariables) {
+
+        // collapsed callers share the page, the resilience pipeline runs once per downstream call
+        return requestCollapser.collapse(key, () -> resiliencePipeline.apply(fetchReviewPage(key, url, uriVariables)));
+    }
+
+    private Mono<ReviewPage> fetchReviewPage(String key, String url, Map<String, ?> uriVariables) {
+
+        // a template rather than the expanded url keeps the uri tag of http.client.requests bounded.
+        // A 304 reuses the cached page, its summary included, both change with the same version
+        return pageCache.get(key, eTag -> retrieve(conditionalGet(url, uriVariables, eTag))
+                        .toEntityList(Review.class)
+                        .map(response -> new ResponseEntity<>(response.getStatusCode() == HttpStatus.NOT_MODIFIED
+                                ? null
+                                : new ReviewPage(response.getBody(), response.getHeaders().getFirst(ReviewPage.NEXT_CURSOR_HEADER),
+                                        reviewSummary(response.getHeaders())),
+                                response.getHeaders(), response.getStatusCode())))
+                .transformDeferredContextual(SignalTracing.mono("reviews.page"));
+    }
+
+    static ReviewSummary reviewSummary(HttpHeaders headers) {
+
+        var count = headers.getFirst(ReviewSummary.COUNT_HEADER);
+        if(count == null) {
+            return null;
+        }
+        var mean = headers.getFirst(ReviewSummary.MEAN_HEADER);
+        var version = headers.getFirst(ReviewSummary.VERSION_HEADER);
+        return new ReviewSummary(Long.valueOf(count), mean == null ? null : Double.valueOf(mean),
+                version == null ? null : Long.valueOf(version));
+    }
+
+    /**
+     * At most {@code limit} reviews of each of the movies, the first of the movie's pages in id
+     * order, so a batch never holds more than {@code limit} reviews per movie. Ids that can have
+     * no reviews are left out of the call.
+     */
+    public Flux<Review> retrieveReviews(List<String> movieIds, int limit) {
+
+        var reviewableIds = reviewableIds(movieIds);
+        if(reviewableIds.isEmpty()) {
+            return Flux.empty();
+        }
+        return resiliencePipeline.apply(fetchReviews(reviewableIds, limit).collectList())
+                .flatMapIterable(reviews -> reviews);
+    }
+
+    private Flux<Review> fetchReviews(List<String> movieIds, int limit) {
+
+        var url = reviewsUrl.concat("?movieInfoIds={movieInfoIds}&limit={limit}");
+
+        return retrieve(webClient.get()
+                        .uri(url, String.join(",", movieIds), limit))
+                .bodyToFlux(Review.class)
+                .transformDeferredContextual(SignalTracing.flux("reviews.byMovieInfoIds"));
+    }
+
+    /**
+     * The summaries of the movies by movie id, in a single call. Ids that can have no reviews are
+     * answered without it.
+     */
+    public Mono<Map<String, ReviewSummary>> retrieveReviewSummaries(List<String> movieIds) {
+
+        var reviewableIds = reviewableIds(movieIds);
+        var summaries = reviewableIds.isEmpty()
+                ? Mono.just(List.<MovieReviewSummary>of())
+                : resiliencePipeline.apply(retrieve(webClient.get()
+                                .uri(reviewsUrl.concat("/stats?movieInfoIds={movieInfoIds}"), String.join(",", reviewableIds)))
+                        .bodyToFlux(MovieReviewSummary.class)
+                        .collectList()
+                        .transformDeferredContextual(SignalTracing.mono("reviews.stats.byMovieInfoIds")));
+        return summaries.map(movieSummaries -> {
+            var summariesByMovie = new HashMap<String, ReviewSummary>();
+            movieIds.forEach(movieId -> summariesByMovie.put(movieId, noReviewsSummary()));
+            movieSummaries.forEach(summary -> summariesByMovie.put(String.valueOf(summary.getMovieInfoId()),
+                    new ReviewSummary(summary.getCount(), summary.getMean(), summary.getVersion())));
+            return summariesByMovie;
+        });
+    }
+
+    private static List<String> reviewableIds(List<String> movieIds) {
+
+        return movieIds.stream()
+                .filter(ReviewsRestClient::isReviewable)
+                .collect(Collectors.toList());
+    }
+
+    private WebClient.RequestHeadersSpec<?> conditionalGet(String url, Map<String, ?> uriVariables, String eTag) {
 
         return webClient.get()
-                .uri(url)
-                .retrieve()
+                .uri(url, uriVariables)
+                .headers(headers -> {
+                    if(eTag != null) {
+                        headers.setIfNoneMatch(eTag);
+                    }
+                });
+    }
+
+    private WebClient.ResponseSpec retrieve(WebClient.RequestHeadersSpec<?> request) {
+
+        return request.retrieve()
                 .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
                     if(clientResponse.statusCode().equals(HttpStatus.NOT_FOUND)) {
                         return Mono.empty();
@@ -49,8 +248,19 @@ public class ReviewsRestClient {
                         clientResponse.bodyToMono(String.class)
                                 .flatMap(responseMessage -> Mono.error(new ReviewsServerException(
                                         "Server Exception in ReviewsService " + responseMessage
-                                ))))
-                .bodyToFlux(Review.class)
-                .log();
+                                ))));
+    }
+
+    /**
+     * A summary as the reviews service lists them, along with the movie it is of.
+     */
+    @Data
+    @NoArgsConstructor
+    static class MovieReviewSummary {
+
+        private Long movieInfoId;
+        private Long count;
+        private Double mean;
+        private Long version;
     }
 }
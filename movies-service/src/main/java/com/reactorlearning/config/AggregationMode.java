@@ -0,0 +1,17 @@
+package com.reactorlearning.config;
+
+/**
+ * How {@code MoviesController} combines the MovieInfo and Reviews downstream calls.
+ */
+public enum AggregationMode {
+
+    /**
+     * Fetch the MovieInfo first and only then ask for its reviews.
+     */
+    SEQUENTIAL,
+
+    /**
+     * Subscribe to both downstream calls together and zip the results.
+     */
+    PARALLEL
+}
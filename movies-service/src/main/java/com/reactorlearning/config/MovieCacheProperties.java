@@ -0,0 +1,47 @@
+package com.reactorlearning.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Settings of the cache of assembled movies, bound from {@code movieCache.*}.
+ */
+@Data
+@ConfigurationProperties(prefix = "movie-cache")
+public class MovieCacheProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * A movie read when it is older than this is reloaded in the background, the cached one is
+     * served until the reload completes.
+     */
+    private Duration refreshAfter = Duration.ofSeconds(30);
+
+    /**
+     * A movie that was not reloaded for this long is dropped, so movies nobody reads stop being
+     * refreshed and leave the cache.
+     */
+    private Duration ttl = Duration.ofMinutes(5);
+
+    /**
+     * How long a movie assembled without its reviews, because the reviews service failed, is
+     * cached. Long enough that readers do not all retry the failing service, short enough that the
+     * reviews show up soon after it recovers.
+     */
+    private Duration degradedTtl = Duration.ofSeconds(5);
+
+    /**
+     * Budget of the on-heap tier, measured as the size of the movies serialized to JSON.
+     */
+    private DataSize heapMaxSize = DataSize.ofMegabytes(16);
+
+    /**
+     * Budget of the off-heap tier holding the movies evicted from the heap. Counts against
+     * {@code -XX:MaxDirectMemorySize}, which Netty's buffers share.
+     */
+    private DataSize offHeapMaxSize = DataSize.ofMegabytes(128);
+}
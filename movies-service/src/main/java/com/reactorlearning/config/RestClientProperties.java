@@ -0,0 +1,162 @@
+package com.reactorlearning.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Connection settings for the downstream services, bound from {@code restClient.moviesInfo.*}
+ * and {@code restClient.reviews.*}. Each downstream gets its own connection pool so a slow
+ * service cannot starve the other one of connections.
+ */
+@Data
+@ConfigurationProperties(prefix = "rest-client")
+public class RestClientProperties {
+
+    /**
+     * Sent as {@code X-Api-Key}, so the admission control of the downstreams can give this service
+     * a rate of its own rather than the one of a single user.
+     */
+    private String apiKey;
+
+    private Downstream moviesInfo = new Downstream();
+    private Downstream reviews = new Downstream();
+
+    @Data
+    public static class Downstream {
+
+        /**
+         * Maximum number of connections to the downstream, per event loop group.
+         */
+        private int maxConnections = 50;
+
+        /**
+         * Maximum number of requests waiting for a connection, further requests fail fast.
+         */
+        private int pendingAcquireMaxCount = 500;
+
+        /**
+         * How long a request may wait for a free connection.
+         */
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+
+        /**
+         * Idle connections are closed after this long.
+         */
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+
+        /**
+         * Connections are closed after this long regardless of activity.
+         */
+        private Duration maxLifeTime = Duration.ofMinutes(5);
+
+        /**
+         * How often idle and expired connections are evicted in the background.
+         */
+        private Duration evictInterval = Duration.ofSeconds(30);
+
+        private Duration connectTimeout = Duration.ofSeconds(2);
+
+        /**
+         * Time allowed between sending the request and receiving the response headers.
+         */
+        private Duration responseTimeout = Duration.ofSeconds(5);
+
+        private boolean keepAlive = true;
+
+        /**
+         * Negotiate HTTP/2 cleartext (h2c) with the downstream, falling back to HTTP/1.1.
+         */
+        private boolean http2 = false;
+
+        /**
+         * Ask the downstream for gzip encoded responses.
+         */
+        private boolean compress = false;
+
+        /**
+         * Publish reactor.netty connection pool and client metrics.
+         */
+        private boolean metrics = true;
+
+        /**
+         * Overall time budget for a call, including retries and backoff.
+         */
+        private Duration deadline = Duration.ofSeconds(3);
+
+        private RetryProperties retry = new RetryProperties();
+        private CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+        private BulkheadProperties bulkhead = new BulkheadProperties();
+        private CacheProperties cache = new CacheProperties();
+    }
+
+    @Data
+    public static class RetryProperties {
+
+        /**
+         * Retries after the first attempt, only server errors are retried.
+         */
+        private int maxRetries = 2;
+
+        /**
+         * First backoff, doubled on every further retry.
+         */
+        private Duration minBackoff = Duration.ofMillis(100);
+
+        private Duration maxBackoff = Duration.ofSeconds(1);
+
+        /**
+         * Fraction of each backoff that is randomized, between 0 and 1.
+         */
+        private double jitter = 0.5;
+    }
+
+    @Data
+    public static class CircuitBreakerProperties {
+
+        /**
+         * Failure percentage over the sliding window that opens the breaker.
+         */
+        private float failureRateThreshold = 50;
+
+        /**
+         * Number of most recent calls the failure rate is computed over.
+         */
+        private int slidingWindowSize = 20;
+
+        private int minimumNumberOfCalls = 10;
+
+        /**
+         * How long the breaker stays open before letting trial calls through.
+         */
+        private Duration waitDurationInOpenState = Duration.ofSeconds(10);
+
+        private int permittedNumberOfCallsInHalfOpenState = 3;
+    }
+
+    @Data
+    public static class BulkheadProperties {
+
+        /**
+         * Maximum number of concurrent calls to the downstream.
+         */
+        private int maxConcurrentCalls = 25;
+
+        /**
+         * How long a call may wait for a free slot before being rejected.
+         */
+        private Duration maxWaitDuration = Duration.ZERO;
+    }
+
+    @Data
+    public static class CacheProperties {
+
+        /**
+         * Keep ETagged responses and revalidate them with conditional GETs.
+         */
+        private boolean enabled = true;
+
+        private long maxEntries = 10000;
+    }
+}
@@ -1,14 +1,104 @@
 package com.reactorlearning.config;
 
+import com.reactorlearning.logging.RequestLoggingFilter;
+import com.reactorlearning.logging.SignalTracing;
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @Component
+@EnableConfigurationProperties(RestClientProperties.class)
 public class WebClientConfig {
 
+    static final String API_KEY_HEADER = "X-Api-Key";
+
+    private RestClientProperties restClientProperties;
+
+    public WebClientConfig(RestClientProperties restClientProperties) {
+        this.restClientProperties = restClientProperties;
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider moviesInfoConnectionProvider() {
+        return connectionProvider("moviesInfo", restClientProperties.getMoviesInfo());
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider reviewsConnectionProvider() {
+        return connectionProvider("reviews", restClientProperties.getReviews());
+    }
+
+    @Bean
+    public WebClient moviesInfoWebClient(WebClient.Builder builder,
+                                         @Qualifier("moviesInfoConnectionProvider") ConnectionProvider connectionProvider) {
+        return webClient(builder, "moviesInfo", connectionProvider, restClientProperties.getMoviesInfo());
+    }
+
     @Bean
-    public WebClient webClient(WebClient.Builder builder) {
-        return builder.build();
+    public WebClient reviewsWebClient(WebClient.Builder builder,
+                                      @Qualifier("reviewsConnectionProvider") ConnectionProvider connectionProvider) {
+        return webClient(builder, "reviews", connectionProvider, restClientProperties.getReviews());
+    }
+
+    private ConnectionProvider connectionProvider(String name, RestClientProperties.Downstream downstream) {
+
+        // metrics are published as reactor.netty.connection.provider.* tagged with the pool name
+        return ConnectionProvider.builder(name)
+                .maxConnections(downstream.getMaxConnections())
+                .pendingAcquireMaxCount(downstream.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(downstream.getPendingAcquireTimeout())
+                .maxIdleTime(downstream.getMaxIdleTime())
+                .maxLifeTime(downstream.getMaxLifeTime())
+                .evictInBackground(downstream.getEvictInterval())
+                .metrics(downstream.isMetrics())
+                .build();
+    }
+
+    /**
+     * Forwards the id of the incoming request, so one request id can be logged and traced across services.
+     */
+    private static Mono<ClientResponse> propagateRequestId(ClientRequest request, ExchangeFunction next) {
+
+        return Mono.deferContextual(contextView -> contextView.<String>getOrEmpty(SignalTracing.REQUEST_ID)
+                .map(requestId -> next.exchange(ClientRequest.from(request)
+                        .header(RequestLoggingFilter.REQUEST_ID_HEADER, requestId)
+                        .build()))
+                .orElseGet(() -> next.exchange(request)));
+    }
+
+    private WebClient webClient(WebClient.Builder builder, String name, ConnectionProvider connectionProvider,
+                                RestClientProperties.Downstream downstream) {
+
+        var httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) downstream.getConnectTimeout().toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, downstream.isKeepAlive())
+                .responseTimeout(downstream.getResponseTimeout())
+                .compress(downstream.isCompress())
+                // the uri tag is fixed per downstream, request paths carry ids and would explode the tag cardinality
+                .metrics(downstream.isMetrics(), uri -> name);
+
+        if(downstream.isHttp2()) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+
+        if(restClientProperties.getApiKey() != null) {
+            builder = builder.defaultHeader(API_KEY_HEADER, restClientProperties.getApiKey());
+        }
+
+        return builder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .filter(WebClientConfig::propagateRequestId)
+                .build();
     }
 }
@@ -1,36 +1,326 @@
 package com.reactorlearning.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactorlearning.cache.MovieCache;
 import com.reactorlearning.client.MovieInfoRestClient;
 import com.reactorlearning.client.ReviewsRestClient;
+import com.reactorlearning.config.AggregationMode;
+import com.reactorlearning.config.MovieCacheProperties;
 import com.reactorlearning.domain.Movie;
 import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.domain.MoviePart;
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.domain.ReviewPage;
+import com.reactorlearning.domain.ReviewSummary;
+import com.reactorlearning.exception.MovieDataException;
+import com.reactorlearning.exception.ReviewsServerException;
+import com.reactorlearning.util.KeysetCursor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
 @RestController
+@Slf4j
 @RequestMapping("/v1/movies")
+@EnableConfigurationProperties(MovieCacheProperties.class)
 public class MoviesController {
 
+    // stands in for the reviews when the reviews service failed, the movie is flagged rather than cached as is
+    private static final ReviewPage UNAVAILABLE_REVIEWS = new ReviewPage(List.of(), null);
+    private static final Map<String, Collection<Review>> UNAVAILABLE_BATCH_REVIEWS = Collections.unmodifiableMap(new HashMap<>());
+
     private MovieInfoRestClient movieInfoRestClient;
     private ReviewsRestClient reviewsRestClient;
+    private MeterRegistry meterRegistry;
+    private MovieCache movieCache;
+
+    @Value("${moviesService.aggregationMode:PARALLEL}")
+    private AggregationMode aggregationMode;
+
+    @Value("${restClient.batchSize:50}")
+    private Integer batchSize;
+
+    @Value("${moviesService.maxIds:200}")
+    private Integer maxIds;
+
+    @Value("${moviesService.batchConcurrency:4}")
+    private Integer batchConcurrency;
+
+    @Value("${moviesService.reviewsFallback:true}")
+    private boolean reviewsFallback;
 
-    public MoviesController(MovieInfoRestClient movieInfoRestClient, ReviewsRestClient reviewsRestClient) {
+    @Value("${moviesService.reviewsLimit:0}")
+    private Integer reviewsLimit;
+
+    @Value("${moviesService.maxEmbeddedReviews:100}")
+    private Integer maxEmbeddedReviews;
+
+    public MoviesController(MovieInfoRestClient movieInfoRestClient, ReviewsRestClient reviewsRestClient,
+                            MeterRegistry meterRegistry, MovieCacheProperties movieCacheProperties,
+                            ObjectMapper objectMapper) {
         this.movieInfoRestClient = movieInfoRestClient;
         this.reviewsRestClient = reviewsRestClient;
+        this.meterRegistry = meterRegistry;
+        if(movieCacheProperties.isEnabled()) {
+            this.movieCache = new MovieCache(this::assembleMovie, movieCacheProperties, objectMapper, meterRegistry);
+        }
     }
 
     @GetMapping("/{id}")
-    public Mono<Movie> retrieveMovieById(@PathVariable("id") String movieId) {
+    public Mono<ResponseEntity<Movie>> retrieveMovieById(@PathVariable("id") String movieId) {
+
+        // a movie missing its reviews is cached too, briefly, so an outage of the reviews service costs one
+        // movie info call per movie rather than one per request
+        var movieMono = movieCache == null ? assembleMovie(movieId) : movieCache.get(movieId);
+
+        // a matching If-None-Match is answered with 304 by the ResponseEntity handling, the body is not written
+        return movieMono
+                .map(movie -> {
+                    var response = ResponseEntity.ok().cacheControl(CacheControl.noCache());
+                    var eTag = eTag(movie);
+                    if(eTag != null) {
+                        response.eTag(eTag);
+                    }
+                    return response.body(movie);
+                });
+    }
+
+    /**
+     * The reviews of a movie one page at a time, in the order of the page linked as
+     * {@code nextReviews} by the movie. The cursor of the following page is returned as
+     * {@code X-Next-Cursor}, absent on the last page.
+     */
+    @GetMapping("/{id}/reviews")
+    public Mono<ResponseEntity<List<Review>>> retrieveMovieReviews(@PathVariable("id") String movieId,
+                                                                   @RequestParam(value = "limit", required = false) Integer limit,
+                                                                   @RequestParam(value = "after", required = false) String after) {
+
+        var pageLimit = limit == null ? maxEmbeddedReviews : Math.min(limit, maxEmbeddedReviews);
+        return reviewsRestClient.retrieveReviewPage(movieId, pageLimit, after)
+                .map(page -> {
+                    var response = ResponseEntity.ok();
+                    if(page.getNextCursor() != null) {
+                        response.header(ReviewPage.NEXT_CURSOR_HEADER, page.getNextCursor());
+                    }
+                    return response.body(page.getReviews());
+                });
+    }
+
+    /**
+     * The movie as a stream of parts, the movie info first and then every review of the movie as
+     * the reviews service streams it, so no review count is too large to be served and neither
+     * service holds all of them at once.
+     */
+    @GetMapping(value = "/{id}/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MoviePart> streamMovieById(@PathVariable("id") String movieId) {
+
+        var movieInfoFlux = movieInfoRestClient.retrieveMovieInfo(movieId)
+                .map(MoviePart::of)
+                .flux();
+        var reviewsFlux = withReviewsFallback(reviewsRestClient.streamReviews(movieId))
+                .map(MoviePart::of);
+
+        // both calls start together, reviews arriving before the movie info are held back in the prefetch queue
+        return Flux.mergeSequential(movieInfoFlux, reviewsFlux);
+    }
+
+    private Mono<Movie> assembleMovie(String movieId) {
+
+        var movieInfoMono = timeLeg("movieInfo", movieInfoRestClient.retrieveMovieInfo(movieId));
+        var reviewsLegMono = timeLeg("reviews", withReviewsFallback(embeddedReviews(movieId), UNAVAILABLE_REVIEWS));
+
+        Mono<Movie> movieMono;
+        if(aggregationMode == AggregationMode.SEQUENTIAL) {
+            movieMono = movieInfoMono
+                    .flatMap(movieInfo -> reviewsLegMono.map(reviewPage -> movie(movieInfo, reviewPage)));
+        } else {
+            // zip subscribes to both legs up front and cancels the other one as soon as either fails
+            movieMono = Mono.zip(movieInfoMono, reviewsLegMono, this::movie);
+        }
+
+        return timeLeg("total", movieMono);
+    }
+
+    /**
+     * The reviews embedded in the movie along with the summary of all of them, the page carries it
+     * so a movie costs a single call to the reviews service.
+     */
+    private Mono<ReviewPage> embeddedReviews(String movieId) {
 
-        return movieInfoRestClient.retrieveMovieInfo(movieId)
-                .flatMap(movieInfo -> {
-                    var reviewsListMono = reviewsRestClient.retrieveMovieInfo(movieId)
-                            .collectList();
+        // with a limit only the best rated reviews are read and transferred, not every review of the movie
+        var reviewPageMono = reviewsLimit > 0
+                ? reviewsRestClient.retrieveTopReviews(movieId, Math.min(reviewsLimit, maxEmbeddedReviews))
+                : reviewsRestClient.retrieveReviewPage(movieId, maxEmbeddedReviews, null);
+        return reviewPageMono
+                .defaultIfEmpty(new ReviewPage(List.of(), null))
+                .flatMap(reviewPage -> reviewPage.getSummary() != null
+                        ? Mono.just(reviewPage)
+                        // a reviews service that does not send the summary along costs a call of its own
+                        : reviewsRestClient.retrieveReviewSummary(movieId)
+                                .map(summary -> new ReviewPage(reviewPage.getReviews(), reviewPage.getNextCursor(), summary))
+                                .defaultIfEmpty(reviewPage));
+    }
+
+    private Movie movie(MovieInfo movieInfo, ReviewPage reviewPage) {
+
+        var reviews = reviewPage.getReviews() == null ? List.<Review>of() : reviewPage.getReviews();
+        var reviewSummary = Optional.ofNullable(reviewPage.getSummary());
+        String nextReviews = null;
+        if(reviewPage.getNextCursor() != null) {
+            nextReviews = reviewsLink(movieInfo.getMovieInfoId()) + "&after=" + reviewPage.getNextCursor();
+        } else if(reviewSummary.map(summary -> summary.getCount() != null && summary.getCount() > reviews.size()).orElse(false)) {
+            // the best rated reviews carry no cursor, the link leads to all of them from the start
+            nextReviews = reviewsLink(movieInfo.getMovieInfoId());
+        }
+        return new Movie(movieInfo, reviews, reviewSummary.orElse(null), nextReviews, reviewPage == UNAVAILABLE_REVIEWS);
+    }
+
+    private String reviewsLink(String movieId) {
+
+        // cursors are URL-safe base64, they need no encoding
+        return "/v1/movies/" + movieId + "/reviews?limit=" + maxEmbeddedReviews;
+    }
+
+    /**
+     * Derived from the versions of the movie info, of every review in list order and of the review
+     * summary, so it changes whenever any part of the aggregate does, a review being added or
+     * removed included.
+     */
+    static String eTag(Movie movie) {
+
+        if(movie.getMovieInfo().getVersion() == null) {
+            return null;
+        }
+        var versions = new StringBuilder().append(movie.getMovieInfo().getVersion());
+        for(var review : movie.getReviewList()) {
+            if(review.getVersion() == null) {
+                return null;
+            }
+            versions.append(',').append(review.getReviewId()).append(':').append(review.getVersion());
+        }
+        if(movie.getReviewSummary() != null) {
+            versions.append(';').append(movie.getReviewSummary().getVersion());
+        }
+        return DigestUtils.md5DigestAsHex(versions.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<Movie> retrieveMoviesByIds(@RequestParam("ids") List<String> movieIds) {
+
+        if(movieIds.size() > maxIds) {
+            throw new MovieDataException("ids must not hold more than " + maxIds + " ids");
+        }
+        // every batch costs one MovieInfo request and two Reviews requests (the reviews and their summaries),
+        // movies are emitted in request order
+        return Flux.fromIterable(movieIds)
+                .filter(movieId -> !movieId.isBlank())
+                .distinct()
+                .buffer(batchSize)
+                .flatMapSequential(this::retrieveMovieBatch, batchConcurrency);
+    }
+
+    /**
+     * The movies of one batch, each embedding at most {@code maxEmbeddedReviews} reviews and linking
+     * to the rest like a single movie does.
+     */
+    private Flux<Movie> retrieveMovieBatch(List<String> movieIds) {
 
-                    return reviewsListMono.map(reviews -> new Movie(movieInfo, reviews));
+        var movieInfosMono = movieInfoRestClient.retrieveMovieInfos(movieIds).collectList();
+        // ids that can have no reviews are left out of the calls by the client
+        var reviewsByMovieMono = withReviewsFallback(reviewsRestClient.retrieveReviews(movieIds, maxEmbeddedReviews)
+                        .collectMultimap(review -> String.valueOf(review.getMovieInfoId())),
+                UNAVAILABLE_BATCH_REVIEWS);
+        var summariesMono = withReviewsFallback(reviewsRestClient.retrieveReviewSummaries(movieIds),
+                Map.<String, ReviewSummary>of());
+
+        return Mono.zip(movieInfosMono, reviewsByMovieMono, summariesMono)
+                .flatMapIterable(tuple -> {
+                    var reviewsByMovie = tuple.getT2();
+                    var summaries = tuple.getT3();
+                    // the movie infos service answers in its own order
+                    return tuple.getT1().stream()
+                            .sorted(Comparator.comparingInt(movieInfo -> movieIds.indexOf(movieInfo.getMovieInfoId())))
+                            .map(movieInfo -> movie(movieInfo, reviewsByMovie == UNAVAILABLE_BATCH_REVIEWS
+                                    ? UNAVAILABLE_REVIEWS
+                                    : batchReviewPage(reviewsByMovie.getOrDefault(movieInfo.getMovieInfoId(), List.of()),
+                                            summaries.get(movieInfo.getMovieInfoId()))))
+                            .collect(Collectors.toList());
                 });
     }
-}
\ No newline at end of file
+
+    /**
+     * The reviews of a movie in a batch as the first of its pages, they are in the same order.
+     */
+    private ReviewPage batchReviewPage(Collection<Review> reviews, ReviewSummary summary) {
+
+        var reviewList = new ArrayList<>(reviews);
+        // without a summary a full page may be followed by another one
+        var more = summary != null && summary.getCount() != null
+                ? summary.getCount() > reviewList.size()
+                : reviewList.size() >= maxEmbeddedReviews;
+        var nextCursor = more && !reviewList.isEmpty()
+                ? KeysetCursor.encode(reviewList.get(reviewList.size() - 1).getReviewId())
+                : null;
+        return new ReviewPage(reviewList, nextCursor, summary);
+    }
+
+    private Flux<Review> withReviewsFallback(Flux<Review> reviews) {
+
+        if(!reviewsFallback) {
+            return reviews;
+        }
+        // a movie without (all of) its reviews is still worth returning, the reviews received so far are kept
+        return reviews.onErrorResume(ReviewsServerException.class, ex -> {
+            log.warn("Reviews unavailable, returning movies without them : {}", ex.getMessage());
+            meterRegistry.counter("movies.reviews.fallback").increment();
+            return Flux.empty();
+        });
+    }
+
+    private <T> Mono<T> withReviewsFallback(Mono<T> reviews, T fallback) {
+
+        if(!reviewsFallback) {
+            return reviews;
+        }
+        return reviews.onErrorResume(ReviewsServerException.class, ex -> {
+            log.warn("Reviews unavailable, returning movies without them : {}", ex.getMessage());
+            meterRegistry.counter("movies.reviews.fallback").increment();
+            return Mono.just(fallback);
+        });
+    }
+
+    private <T> Mono<T> timeLeg(String leg, Mono<T> legMono) {
+
+        return Mono.defer(() -> {
+            var sample = Timer.start(meterRegistry);
+            return legMono.doFinally(signalType -> sample.stop(meterRegistry.timer("movies.aggregation.leg",
+                    "leg", leg,
+                    "mode", aggregationMode.name(),
+                    "signal", signalType.name())));
+        });
+    }
+}
@@ -1,5 +1,6 @@
 package com.reactorlearning.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,5 +13,34 @@ import java.util.List;
 public class Movie {
 
     private MovieInfo movieInfo;
+
+    /**
+     * At most {@code moviesService.maxEmbeddedReviews} of the movie's reviews.
+     */
     private List<Review> reviewList;
+
+    /**
+     * Aggregates of all the movie's reviews, null when the reviews service could not provide them.
+     */
+    private ReviewSummary reviewSummary;
+
+    /**
+     * Link to the page of reviews following the embedded ones, null when every review is embedded.
+     */
+    private String nextReviews;
+
+    /**
+     * Assembled without its reviews because the reviews service failed, such a movie is only cached
+     * for {@code movieCache.degradedTtl}.
+     */
+    @JsonIgnore
+    private boolean reviewsUnavailable;
+
+    public Movie(MovieInfo movieInfo, List<Review> reviewList) {
+        this(movieInfo, reviewList, null, null);
+    }
+
+    public Movie(MovieInfo movieInfo, List<Review> reviewList, ReviewSummary reviewSummary, String nextReviews) {
+        this(movieInfo, reviewList, reviewSummary, nextReviews, false);
+    }
 }
@@ -0,0 +1,28 @@
+package com.reactorlearning.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of a streamed movie, the first one carries the movie info and every following one a
+ * review.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MoviePart {
+
+    private MovieInfo movieInfo;
+    private Review review;
+
+    public static MoviePart of(MovieInfo movieInfo) {
+        return new MoviePart(movieInfo, null);
+    }
+
+    public static MoviePart of(Review review) {
+        return new MoviePart(null, review);
+    }
+}
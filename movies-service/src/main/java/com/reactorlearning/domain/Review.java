@@ -19,4 +19,9 @@ public class Review {
     private String comment;
     @Min(value = 0L, message = "review.rating: please pass a non-negative value")
     private Double rating;
+    private Long version;
+
+    public Review(String reviewId, Long movieInfoId, String comment, Double rating) {
+        this(reviewId, movieInfoId, comment, rating, null);
+    }
 }
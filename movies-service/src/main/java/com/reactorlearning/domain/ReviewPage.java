@@ -0,0 +1,27 @@
+package com.reactorlearning.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One keyset page of a movie's reviews, {@code nextCursor} is null on the last page.
+ * {@code summary} covers all of the movie's reviews, it is read from the headers of the page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewPage {
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private List<Review> reviews;
+    private String nextCursor;
+    private ReviewSummary summary;
+
+    public ReviewPage(List<Review> reviews, String nextCursor) {
+        this(reviews, nextCursor, null);
+    }
+}
@@ -0,0 +1,24 @@
+package com.reactorlearning.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Review aggregates of one movie as maintained by the reviews service, {@code mean} is null while
+ * no review has a rating. {@code version} changes with every review write of the movie.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewSummary {
+
+    // sent along with the review lists of a movie
+    public static final String COUNT_HEADER = "X-Review-Count";
+    public static final String MEAN_HEADER = "X-Review-Mean";
+    public static final String VERSION_HEADER = "X-Review-Version";
+
+    private Long count;
+    private Double mean;
+    private Long version;
+}
@@ -0,0 +1,11 @@
+package com.reactorlearning.exception;
+
+public class MovieDataException extends RuntimeException {
+
+    private String message;
+
+    public MovieDataException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -1,5 +1,6 @@
 package com.reactorlearning.exceptionhandler;
 
+import com.reactorlearning.exception.MovieDataException;
 import com.reactorlearning.exception.MoviesInfoClientException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -18,6 +19,12 @@ public class GlobalErrorHandler {
         return ResponseEntity.status(HttpStatus.valueOf(ex.getStatusCode())).body(ex.getMessage());
     }
 
+    @ExceptionHandler(MovieDataException.class)
+    public ResponseEntity<String> handleMovieDataException(MovieDataException ex){
+        log.error("Exception caught in handleMovieDataException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<String> handleRuntimeException(RuntimeException ex){
         log.error("Exception caught in handleRuntimeException :  {} " ,ex.getMessage(),  ex);
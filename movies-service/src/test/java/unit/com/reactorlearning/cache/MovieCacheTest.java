@@ -0,0 +1,224 @@
+package com.reactorlearning.cache;
+
+import com.reactorlearning.config.MovieCacheProperties;
+import com.reactorlearning.domain.Movie;
+import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.exception.MoviesInfoClientException;
+import com.reactorlearning.exception.ReviewsServerException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MovieCacheTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    AtomicLong nanoTime = new AtomicLong();
+
+    AtomicInteger loads = new AtomicInteger();
+
+    Mono<Movie> downstream;
+
+    MovieCacheProperties movieCacheProperties = new MovieCacheProperties();
+
+    @Test
+    void get_concurrentMissesShareOneLoad() {
+
+        var assembled = Sinks.<Movie>one();
+        downstream = assembled.asMono();
+        var movieCache = movieCache();
+
+        StepVerifier.create(Mono.zip(movieCache.get("1"), movieCache.get("1")))
+                .then(() -> assembled.tryEmitValue(movie("Batman Begins")))
+                .assertNext(tuple -> assertSame(tuple.getT1(), tuple.getT2()))
+                .verifyComplete();
+
+        StepVerifier.create(movieCache.get("1"))
+                .assertNext(movie -> assertEquals("Batman Begins", movie.getMovieInfo().getName()))
+                .verifyComplete();
+
+        assertEquals(1, loads.get());
+        assertEquals(2.0, meterRegistry.get("cache.gets").tag("cache", "movie").tag("tier", "heap")
+                .tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void get_servesStaleMovieWhileRefreshing() {
+
+        downstream = Mono.just(movie("Batman Begins"));
+        var movieCache = movieCache();
+        movieCache.get("1").block();
+
+        nanoTime.addAndGet(Duration.ofSeconds(31).toNanos());
+        var refreshed = Sinks.<Movie>one();
+        downstream = refreshed.asMono();
+
+        StepVerifier.create(movieCache.get("1"))
+                .assertNext(movie -> assertEquals("Batman Begins", movie.getMovieInfo().getName()))
+                .verifyComplete();
+        StepVerifier.create(movieCache.get("1"))
+                .assertNext(movie -> assertEquals("Batman Begins", movie.getMovieInfo().getName()))
+                .verifyComplete();
+        assertEquals(2, loads.get());
+
+        refreshed.tryEmitValue(movie("Batman Begins (Director's Cut)"));
+
+        StepVerifier.create(movieCache.get("1"))
+                .assertNext(movie -> assertEquals("Batman Begins (Director's Cut)", movie.getMovieInfo().getName()))
+                .verifyComplete();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_failedRefreshKeepsMovie() {
+
+        downstream = Mono.just(movie("Batman Begins"));
+        var movieCache = movieCache();
+        movieCache.get("1").block();
+
+        nanoTime.addAndGet(Duration.ofSeconds(31).toNanos());
+        downstream = Mono.error(new ReviewsServerException("Service unavailable"));
+
+        StepVerifier.create(movieCache.get("1"))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(movieCache.get("1"))
+                .expectNextCount(1)
+                .verifyComplete();
+        assertEquals(3, loads.get());
+
+        downstream = Mono.error(new MoviesInfoClientException("There is no MovieInfo Available for the passed id : 1", 404));
+
+        StepVerifier.create(movieCache.get("1"))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(movieCache.get("1"))
+                .expectError(MoviesInfoClientException.class)
+                .verify();
+    }
+
+    @Test
+    void get_expiresMoviesNotRefreshed() {
+
+        downstream = Mono.just(movie("Batman Begins"));
+        var movieCache = movieCache();
+        movieCache.get("1").block();
+
+        nanoTime.addAndGet(Duration.ofMinutes(6).toNanos());
+        movieCache.get("1").block();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_degradedMovieExpiresSooner() {
+
+        downstream = Mono.just(degraded(movie("Batman Begins")));
+        var movieCache = movieCache();
+        movieCache.get("1").block();
+
+        nanoTime.addAndGet(Duration.ofSeconds(4).toNanos());
+        movieCache.get("1").block();
+        assertEquals(1, loads.get());
+
+        nanoTime.addAndGet(Duration.ofSeconds(2).toNanos());
+        downstream = Mono.just(movie("Batman Begins"));
+        StepVerifier.create(movieCache.get("1"))
+                .assertNext(movie -> assertFalse(movie.isReviewsUnavailable()))
+                .verifyComplete();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_degradedRefreshKeepsMovie() {
+
+        downstream = Mono.just(movie("Batman Begins"));
+        var movieCache = movieCache();
+        movieCache.get("1").block();
+
+        nanoTime.addAndGet(Duration.ofSeconds(31).toNanos());
+        downstream = Mono.just(degraded(movie("Batman Begins")));
+
+        StepVerifier.create(movieCache.get("1"))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(movieCache.get("1"))
+                .assertNext(movie -> {
+                    assertFalse(movie.isReviewsUnavailable());
+                    assertEquals(1, movie.getReviewList().size());
+                })
+                .verifyComplete();
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void get_evictedMoviesMoveOffHeap() {
+
+        // too small for any movie, every one is moved off heap as soon as it is cached
+        movieCacheProperties.setHeapMaxSize(DataSize.ofBytes(1));
+        downstream = Mono.just(movie("Batman Begins"));
+        var movieCache = movieCache();
+        movieCache.get("1").block();
+
+        assertTrue(meterRegistry.get("movieCache.bytes").tag("tier", "offHeap").gauge().value() > 0);
+
+        StepVerifier.create(movieCache.get("1"))
+                .assertNext(movie -> {
+                    assertEquals("Batman Begins", movie.getMovieInfo().getName());
+                    assertEquals(LocalDate.parse("2005-06-15"), movie.getMovieInfo().getRelease_date());
+                    assertEquals(1, movie.getReviewList().size());
+                })
+                .verifyComplete();
+
+        assertEquals(1, loads.get());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "movie").tag("tier", "offHeap")
+                .tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void get_offHeapMoviesKeepTheirAge() {
+
+        movieCacheProperties.setHeapMaxSize(DataSize.ofBytes(1));
+        downstream = Mono.just(movie("Batman Begins"));
+        var movieCache = movieCache();
+        movieCache.get("1").block();
+
+        nanoTime.addAndGet(Duration.ofMinutes(6).toNanos());
+        movieCache.get("1").block();
+
+        assertEquals(2, loads.get());
+    }
+
+    private MovieCache movieCache() {
+
+        return new MovieCache(movieId -> Mono.defer(() -> {
+            loads.incrementAndGet();
+            return downstream;
+        }), movieCacheProperties, Jackson2ObjectMapperBuilder.json().build(), meterRegistry, nanoTime::get, Runnable::run);
+    }
+
+    private Movie degraded(Movie movie) {
+
+        return new Movie(movie.getMovieInfo(), List.of(), null, null, true);
+    }
+
+    private Movie movie(String name) {
+
+        var movieInfo = new MovieInfo("1", name,
+                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"), 1L);
+        return new Movie(movieInfo, List.of(new Review("r1", 1L, "Awesome Movie", 9.0, 0L)));
+    }
+}
@@ -0,0 +1,91 @@
+package com.reactorlearning.client;
+
+import com.reactorlearning.config.RestClientProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConditionalCacheTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    ConditionalCache<String, String> conditionalCache = new ConditionalCache<>("test",
+            new RestClientProperties.CacheProperties(), meterRegistry);
+
+    List<String> ifNoneMatch = new ArrayList<>();
+
+    @Test
+    void get_revalidatesKeptBody() {
+
+        StepVerifier.create(conditionalCache.get("1", downstream("\"1\"", "movie")))
+                .expectNext("movie")
+                .verifyComplete();
+        StepVerifier.create(conditionalCache.get("1", downstream("\"1\"", "movie")))
+                .expectNext("movie")
+                .verifyComplete();
+        StepVerifier.create(conditionalCache.get("1", downstream("\"2\"", "updated movie")))
+                .expectNext("updated movie")
+                .verifyComplete();
+
+        assertEquals(Arrays.asList(null, "\"1\"", "\"1\""), ifNoneMatch);
+        assertEquals(1.0, meterRegistry.get("restClient.revalidations").tag("outcome", "NOT_MODIFIED").counter().count());
+        assertEquals(1.0, meterRegistry.get("restClient.revalidations").tag("outcome", "MODIFIED").counter().count());
+    }
+
+    @Test
+    void get_dropsKeyOnError() {
+
+        StepVerifier.create(conditionalCache.get("1", downstream("\"1\"", "movie")))
+                .expectNext("movie")
+                .verifyComplete();
+        StepVerifier.create(conditionalCache.get("1", eTag -> Mono.error(new RuntimeException("boom"))))
+                .expectErrorMessage("boom")
+                .verify();
+        StepVerifier.create(conditionalCache.get("1", downstream("\"1\"", "movie")))
+                .expectNext("movie")
+                .verifyComplete();
+
+        assertEquals(Arrays.asList(null, null), ifNoneMatch);
+    }
+
+    @Test
+    void get_withoutETag_isNotKept() {
+
+        StepVerifier.create(conditionalCache.get("1", downstream(null, "movie")))
+                .expectNext("movie")
+                .verifyComplete();
+        StepVerifier.create(conditionalCache.get("1", downstream(null, "movie")))
+                .expectNext("movie")
+                .verifyComplete();
+
+        assertEquals(Arrays.asList(null, null), ifNoneMatch);
+    }
+
+    /**
+     * Answers 304 when the If-None-Match matches the current ETag, like a downstream would.
+     */
+    private Function<String, Mono<ResponseEntity<String>>> downstream(String currentETag, String body) {
+
+        return eTag -> Mono.fromSupplier(() -> {
+            ifNoneMatch.add(eTag);
+            if(eTag != null && eTag.equals(currentETag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(currentETag).build();
+            }
+            var response = ResponseEntity.ok();
+            if(currentETag != null) {
+                response.eTag(currentETag);
+            }
+            return response.body(body);
+        });
+    }
+}
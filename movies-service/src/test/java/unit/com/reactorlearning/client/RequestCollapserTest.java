@@ -0,0 +1,101 @@
+package com.reactorlearning.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCollapserTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    RequestCollapser<String, String> requestCollapser = new RequestCollapser<>("test", true, meterRegistry);
+
+    @Test
+    void collapse_sharesInFlightCall() {
+
+        var calls = new AtomicInteger();
+        var downstream = Sinks.<String>one();
+
+        var first = requestCollapser.collapse("1", () -> downstream.asMono().doOnSubscribe(s -> calls.incrementAndGet()));
+        var second = requestCollapser.collapse("1", () -> downstream.asMono().doOnSubscribe(s -> calls.incrementAndGet()));
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> downstream.tryEmitValue("movie"))
+                .assertNext(tuple -> {
+                    assertEquals("movie", tuple.getT1());
+                    assertEquals("movie", tuple.getT2());
+                })
+                .verifyComplete();
+
+        assertEquals(1, calls.get());
+        assertEquals(2.0, requestCollapser.collapseRatio());
+        assertEquals(2.0, meterRegistry.get("restClient.collapsing.requests").counter().count());
+        assertEquals(1.0, meterRegistry.get("restClient.collapsing.executions").counter().count());
+    }
+
+    @Test
+    void collapse_cancelledSubscriberDoesNotCancelSharedCall() {
+
+        var cancelled = new AtomicBoolean();
+        var downstream = Sinks.<String>one();
+        var call = downstream.asMono().doOnCancel(() -> cancelled.set(true));
+
+        var remaining = requestCollapser.collapse("1", () -> call).toFuture();
+        StepVerifier.create(requestCollapser.collapse("1", () -> call))
+                .thenCancel()
+                .verify();
+
+        downstream.tryEmitValue("movie");
+        assertEquals("movie", remaining.join());
+        assertFalse(cancelled.get());
+    }
+
+    @Test
+    void collapse_lastSubscriberCancelsSharedCall() {
+
+        var calls = new AtomicInteger();
+        var cancelled = new AtomicBoolean();
+        var downstream = Sinks.<String>one();
+        var call = downstream.asMono()
+                .doOnSubscribe(s -> calls.incrementAndGet())
+                .doOnCancel(() -> cancelled.set(true));
+
+        // as when the movie info call fails and the zip assembling the movie cancels its reviews
+        StepVerifier.create(Mono.zip(requestCollapser.collapse("1", () -> call), Mono.error(new RuntimeException("boom"))))
+                .expectErrorMessage("boom")
+                .verify();
+        assertTrue(cancelled.get());
+
+        // the cancelled call is no longer joined, the next caller starts its own
+        StepVerifier.create(requestCollapser.collapse("1", () -> call))
+                .then(() -> downstream.tryEmitValue("movie"))
+                .expectNext("movie")
+                .verifyComplete();
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void collapse_startsNewCallOnceTerminated() {
+
+        var calls = new AtomicInteger();
+
+        StepVerifier.create(requestCollapser.collapse("1", () -> Mono.just("movie").doOnSubscribe(s -> calls.incrementAndGet())))
+                .expectNext("movie")
+                .verifyComplete();
+        StepVerifier.create(requestCollapser.collapse("1", () -> Mono.<String>error(new RuntimeException("boom"))
+                        .delaySubscription(Duration.ofMillis(10))
+                        .doOnSubscribe(s -> calls.incrementAndGet())))
+                .expectErrorMessage("boom")
+                .verify();
+
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,142 @@
+package com.reactorlearning.client;
+
+import com.reactorlearning.config.RestClientProperties;
+import com.reactorlearning.exception.ReviewsClientException;
+import com.reactorlearning.exception.ReviewsServerException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResiliencePipelineTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void apply_retriesServerErrors() {
+
+        var resiliencePipeline = resiliencePipeline(new RestClientProperties.Downstream());
+        var attempts = new AtomicInteger();
+
+        var call = Mono.defer(() -> attempts.incrementAndGet() < 3
+                ? Mono.<String>error(new ReviewsServerException("boom"))
+                : Mono.just("reviews"));
+
+        StepVerifier.create(resiliencePipeline.apply(call))
+                .expectNext("reviews")
+                .verifyComplete();
+
+        assertEquals(3, attempts.get());
+        assertEquals(2.0, meterRegistry.get("restClient.retries").counter().count());
+    }
+
+    @Test
+    void apply_doesNotRetryClientErrors() {
+
+        var resiliencePipeline = resiliencePipeline(new RestClientProperties.Downstream());
+        var attempts = new AtomicInteger();
+
+        var call = Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.<String>error(new ReviewsClientException("bad request"));
+        });
+
+        StepVerifier.create(resiliencePipeline.apply(call))
+                .expectError(ReviewsClientException.class)
+                .verify();
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void apply_deadline() {
+
+        var downstream = new RestClientProperties.Downstream();
+        downstream.setDeadline(Duration.ofMillis(100));
+        var resiliencePipeline = resiliencePipeline(downstream);
+
+        StepVerifier.create(resiliencePipeline.apply(Mono.<String>never()))
+                .expectErrorSatisfies(throwable -> {
+                    assertTrue(throwable instanceof ReviewsServerException);
+                    assertTrue(throwable.getMessage().contains("no response within 100ms"));
+                })
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void apply_opensCircuitBreaker() {
+
+        var downstream = new RestClientProperties.Downstream();
+        downstream.getRetry().setMaxRetries(0);
+        downstream.getCircuitBreaker().setSlidingWindowSize(4);
+        downstream.getCircuitBreaker().setMinimumNumberOfCalls(4);
+        var resiliencePipeline = resiliencePipeline(downstream);
+        var attempts = new AtomicInteger();
+
+        var call = Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.<String>error(new ReviewsServerException("boom"));
+        });
+
+        for(int i = 0; i < 4; i++) {
+            StepVerifier.create(resiliencePipeline.apply(call))
+                    .expectError(ReviewsServerException.class)
+                    .verify();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, resiliencePipeline.circuitBreakerState());
+
+        StepVerifier.create(resiliencePipeline.apply(call))
+                .expectErrorSatisfies(throwable -> {
+                    assertTrue(throwable instanceof ReviewsServerException);
+                    assertTrue(throwable.getMessage().startsWith("Service unavailable"));
+                })
+                .verify();
+        assertEquals(4, attempts.get());
+    }
+
+    @Test
+    void apply_timesCallsByOutcome() {
+
+        var downstream = new RestClientProperties.Downstream();
+        downstream.getRetry().setMaxRetries(1);
+        var resiliencePipeline = resiliencePipeline(downstream);
+
+        StepVerifier.create(resiliencePipeline.apply(Mono.just("reviews")))
+                .expectNext("reviews")
+                .verifyComplete();
+        StepVerifier.create(resiliencePipeline.apply(Mono.<String>error(new ReviewsClientException("bad request"))))
+                .expectError(ReviewsClientException.class)
+                .verify();
+        StepVerifier.create(resiliencePipeline.apply(Mono.<String>error(new ReviewsServerException("boom"))))
+                .expectError(ReviewsServerException.class)
+                .verify();
+
+        assertEquals(1, requests("SUCCESS"));
+        assertEquals(1, requests("CLIENT_ERROR"));
+        // the retried attempt is part of the same call
+        assertEquals(1, requests("SERVER_ERROR"));
+        assertEquals(0, requests("UNAVAILABLE"));
+    }
+
+    private long requests(String outcome) {
+
+        return meterRegistry.get("restClient.requests")
+                .tag("client", "reviews")
+                .tag("outcome", outcome)
+                .timer()
+                .count();
+    }
+
+    private ResiliencePipeline resiliencePipeline(RestClientProperties.Downstream downstream) {
+
+        downstream.getRetry().setMinBackoff(Duration.ofMillis(1));
+        return new ResiliencePipeline("reviews", downstream,
+                ReviewsServerException.class, ReviewsServerException::new, meterRegistry);
+    }
+}
@@ -0,0 +1,107 @@
+package com.reactorlearning.client;
+
+import com.reactorlearning.config.RestClientProperties;
+import com.reactorlearning.domain.ReviewPage;
+import com.reactorlearning.domain.ReviewSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReviewsRestClientTest {
+
+    List<URI> requests = new CopyOnWriteArrayList<>();
+
+    HttpHeaders responseHeaders = new HttpHeaders();
+
+    @Test
+    void retrieveReviewPage_collapsesAndCarriesSummary() {
+
+        responseHeaders.set(ReviewPage.NEXT_CURSOR_HEADER, "cjE");
+        responseHeaders.set(ReviewSummary.COUNT_HEADER, "3");
+        responseHeaders.set(ReviewSummary.MEAN_HEADER, "8.5");
+        responseHeaders.set(ReviewSummary.VERSION_HEADER, "4");
+        var reviewsRestClient = reviewsRestClient();
+
+        StepVerifier.create(Mono.zip(reviewsRestClient.retrieveReviewPage("1", 1, null),
+                        reviewsRestClient.retrieveReviewPage("1", 1, null)))
+                .assertNext(pages -> {
+                    assertSame(pages.getT1(), pages.getT2());
+                    assertEquals(1, pages.getT1().getReviews().size());
+                    assertEquals("cjE", pages.getT1().getNextCursor());
+                    assertEquals(new ReviewSummary(3L, 8.5, 4L), pages.getT1().getSummary());
+                })
+                .verifyComplete();
+
+        assertEquals(1, requests.size());
+        assertEquals("/v1/reviews?movieInfoId=1&limit=1", requests.get(0).toString());
+    }
+
+    @Test
+    void retrieveTopReviews_withoutSummaryHeaders() {
+
+        var reviewsRestClient = reviewsRestClient();
+
+        StepVerifier.create(reviewsRestClient.retrieveTopReviews("1", 1))
+                .assertNext(page -> {
+                    assertEquals(1, page.getReviews().size());
+                    assertNull(page.getNextCursor());
+                    assertNull(page.getSummary());
+                })
+                .verifyComplete();
+
+        assertEquals("/v1/reviews?movieInfoId=1&sort=-rating&limit=1", requests.get(0).toString());
+    }
+
+    @Test
+    void retrieveReviewPage_nonNumericIdSkipsTheReviewsService() {
+
+        var reviewsRestClient = reviewsRestClient();
+
+        StepVerifier.create(reviewsRestClient.retrieveReviewPage("62a1f0c2e4b0a1b2c3d4e5f6", 1, null))
+                .assertNext(page -> {
+                    assertTrue(page.getReviews().isEmpty());
+                    assertNull(page.getNextCursor());
+                    assertEquals(0L, page.getSummary().getCount());
+                })
+                .verifyComplete();
+        StepVerifier.create(reviewsRestClient.retrieveReviews(List.of("abc", "", "1"), 100))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertEquals(1, requests.size());
+        assertEquals("/v1/reviews?movieInfoIds=1&limit=100", requests.get(0).toString());
+    }
+
+    private ReviewsRestClient reviewsRestClient() {
+
+        // the response is held back long enough for concurrent callers to find the call in flight
+        var webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    requests.add(request.url());
+                    return Mono.delay(Duration.ofMillis(50))
+                            .thenReturn(ClientResponse.create(HttpStatus.OK)
+                                    .headers(headers -> headers.addAll(responseHeaders))
+                                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                                    .body("[{\"reviewId\":\"r1\",\"movieInfoId\":1,\"comment\":\"Awesome Movie\",\"rating\":9.0}]")
+                                    .build());
+                })
+                .build();
+        var reviewsRestClient = new ReviewsRestClient(webClient, new SimpleMeterRegistry(), new RestClientProperties(), true);
+        ReflectionTestUtils.setField(reviewsRestClient, "reviewsUrl", "/v1/reviews");
+        return reviewsRestClient;
+    }
+}
@@ -0,0 +1,47 @@
+package com.reactorlearning.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.http.codec.CodecsAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.reactive.function.client.WebClientAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebClientConfigTest {
+
+    ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(JacksonAutoConfiguration.class,
+                    CodecsAutoConfiguration.class, WebClientAutoConfiguration.class))
+            .withUserConfiguration(WebClientConfig.class);
+
+    @Test
+    void perDownstreamPools() {
+
+        contextRunner
+                .withPropertyValues("restClient.moviesInfo.maxConnections=10",
+                        "restClient.reviews.maxConnections=20",
+                        "restClient.reviews.responseTimeout=750ms",
+                        "restClient.reviews.http2=true")
+                .run(context -> {
+                    var moviesInfoPool = context.getBean("moviesInfoConnectionProvider", ConnectionProvider.class);
+                    var reviewsPool = context.getBean("reviewsConnectionProvider", ConnectionProvider.class);
+
+                    assertNotSame(moviesInfoPool, reviewsPool);
+                    assertEquals(10, moviesInfoPool.maxConnections());
+                    assertEquals(20, reviewsPool.maxConnections());
+
+                    var properties = context.getBean(RestClientProperties.class);
+                    assertEquals(Duration.ofMillis(750), properties.getReviews().getResponseTimeout());
+                    assertTrue(properties.getReviews().isHttp2());
+                    assertFalse(properties.getMoviesInfo().isHttp2());
+
+                    assertEquals(2, context.getBeansOfType(WebClient.class).size());
+                });
+    }
+}
@@ -0,0 +1,440 @@
+package com.reactorlearning.controller;
+
+import com.reactorlearning.client.MovieInfoRestClient;
+import com.reactorlearning.client.ReviewsRestClient;
+import com.reactorlearning.domain.Movie;
+import com.reactorlearning.domain.MovieInfo;
+import com.reactorlearning.domain.MoviePart;
+import com.reactorlearning.domain.Review;
+import com.reactorlearning.domain.ReviewPage;
+import com.reactorlearning.domain.ReviewSummary;
+import com.reactorlearning.exception.MoviesInfoClientException;
+import com.reactorlearning.exception.ReviewsServerException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(controllers = MoviesController.class)
+@AutoConfigureWebTestClient
+@Import(SimpleMeterRegistry.class)
+// every test builds its movies from the mocked downstreams, MovieCacheTest covers the caching
+@TestPropertySource(properties = "movieCache.enabled=false")
+class MoviesControllerTest {
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @MockBean
+    MovieInfoRestClient movieInfoRestClient;
+
+    @MockBean
+    ReviewsRestClient reviewsRestClient;
+
+    @Autowired
+    MoviesController moviesController;
+
+    static String MOVIES_URL = "/v1/movies";
+
+    @BeforeEach
+    void setUp() {
+
+        when(reviewsRestClient.retrieveReviewSummary(anyString()))
+                .thenReturn(Mono.empty());
+    }
+
+    @Test
+    void retrieveMovieById() {
+
+        var movieInfo = new MovieInfo("1", "Batman Begins",
+                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"));
+        when(movieInfoRestClient.retrieveMovieInfo("1"))
+                .thenReturn(Mono.just(movieInfo).delayElement(Duration.ofMillis(50)));
+        when(reviewsRestClient.retrieveReviewPage("1", 100, null))
+                .thenReturn(Mono.just(new ReviewPage(List.of(new Review("r1", 1L, "Awesome Movie", 9.0)), null))
+                        .delayElement(Duration.ofMillis(50)));
+
+        webTestClient
+                .get()
+                .uri(MOVIES_URL+"/{id}", "1")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(Movie.class)
+                .consumeWith(movieEntityExchangeResult -> {
+
+                    var movie = movieEntityExchangeResult.getResponseBody();
+
+                    assertNotNull(movie);
+                    assertEquals("Batman Begins", movie.getMovieInfo().getName());
+                    assertEquals(1, movie.getReviewList().size());
+                    assertNull(movie.getNextReviews());
+                });
+    }
+
+    @Test
+    void retrieveMovieById_conditionalGet() {
+
+        var movieInfo = new MovieInfo("1", "Batman Begins",
+                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"), 3L);
+        when(movieInfoRestClient.retrieveMovieInfo("1"))
+                .thenReturn(Mono.just(movieInfo));
+        when(reviewsRestClient.retrieveReviewPage("1", 100, null))
+                .thenReturn(Mono.just(new ReviewPage(List.of(new Review("r1", 1L, "Awesome Movie", 9.0, 0L)), null)));
+
+        var eTag = webTestClient
+                .get()
+                .uri(MOVIES_URL+"/{id}", "1")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .returnResult(Movie.class)
+                .getResponseHeaders()
+                .getETag();
+
+        webTestClient
+                .get()
+                .uri(MOVIES_URL+"/{id}", "1")
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus()
+                .isNotModified();
+
+        // a second review changes the aggregate although the movie info did not
+        when(reviewsRestClient.retrieveReviewPage("1", 100, null))
+                .thenReturn(Mono.just(new ReviewPage(List.of(new Review("r1", 1L, "Awesome Movie", 9.0, 0L),
+                        new Review("r2", 1L, "Excellent Movie", 8.0, 0L)), null)));
+
+        webTestClient
+                .get()
+                .uri(MOVIES_URL+"/{id}", "1")
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus()
+                .isOk();
+    }
+
+    @Test
+    void retrieveMovieById_topReviews() {
+
+        var movieInfo = new MovieInfo("1", "Batman Begins",
+                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"));
+        when(movieInfoRestClient.retrieveMovieInfo("1"))
+                .thenReturn(Mono.just(movieInfo));
+        when(reviewsRestClient.retrieveTopReviews("1", 2))
+                .thenReturn(Mono.just(new ReviewPage(List.of(new Review("r2", 1L, "Excellent Movie", 10.0),
+                        new Review("r1", 1L, "Awesome Movie", 9.0)), null)));
+
+        ReflectionTestUtils.setField(moviesController, "reviewsLimit", 2);
+        try {
+            webTestClient
+                    .get()
+                    .uri(MOVIES_URL+"/{id}", "1")
+                    .exchange()
+                    .expectStatus()
+                    .is2xxSuccessful()
+                    .expectBody(Movie.class)
+                    .consumeWith(movieEntityExchangeResult -> {
+
+                        var movie = movieEntityExchangeResult.getResponseBody();
+
+                        assertNotNull(movie);
+                        assertEquals(2, movie.getReviewList().size());
+                        assertEquals("r2", movie.getReviewList().get(0).getReviewId());
+                    });
+        } finally {
+            ReflectionTestUtils.setField(moviesController, "reviewsLimit", 0);
+        }
+
+        verify(reviewsRestClient, never()).retrieveReviewPage("1", 100, null);
+    }
+
+    @Test
+    void retrieveMovieById_notFound_cancelsReviews() {
+
+        var reviewsCancelled = new AtomicBoolean();
+        when(movieInfoRestClient.retrieveMovieInfo("def"))
+                .thenReturn(Mono.delay(Duration.ofMillis(50))
+                        .then(Mono.error(new MoviesInfoClientException(
+                                "There is no MovieInfo Available for the passed id : def", 404))));
+        when(reviewsRestClient.retrieveReviewPage("def", 100, null))
+                .thenReturn(Mono.<ReviewPage>never().doOnCancel(() -> reviewsCancelled.set(true)));
+
+        webTestClient
+                .get()
+                .uri(MOVIES_URL+"/{id}", "def")
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+
+        assertTrue(reviewsCancelled.get());
+    }
+
+    @Test
+    void retrieveMovieById_reviewsUnavailable() {
+
+        var movieInfo = new MovieInfo("1", "Batman Begins",
+                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"));
+        when(movieInfoRestClient.retrieveMovieInfo("1"))
+                .thenReturn(Mono.just(movieInfo));
+        when(reviewsRestClient.retrieveReviewPage("1", 100, null))
+                .thenReturn(Mono.error(new ReviewsServerException("Service unavailable : no response within 3000ms")));
+
+        webTestClient
+                .get()
+                .uri(MOVIES_URL+"/{id}", "1")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(Movie.class)
+                .consumeWith(movieEntityExchangeResult -> {
+
+                    var movie = movieEntityExchangeResult.getResponseBody();
+
+                    assertNotNull(movie);
+                    assertEquals("Batman Begins", movie.getMovieInfo().getName());
+                    assertEquals(0, movie.getReviewList().size());
+                });
+    }
+
+    @Test
+    void retrieveMovieById_boundedReviews() {
+
+        var movieInfo = new MovieInfo("1", "Batman Begins",
+                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"));
+        when(movieInfoRestClient.retrieveMovieInfo("1"))
+                .thenReturn(Mono.just(movieInfo));
+        when(reviewsRestClient.retrieveReviewPage("1", 2, null))
+                .thenReturn(Mono.just(new ReviewPage(List.of(new Review("r1", 1L, "Awesome Movie", 9.0),
+                        new Review("r2", 1L, "Excellent Movie", 8.0)), "cjI", new ReviewSummary(3L, 8.0, 3L))));
+
+        ReflectionTestUtils.setField(moviesController, "maxEmbeddedReviews", 2);
+        try {
+            webTestClient
+                    .get()
+                    .uri(MOVIES_URL+"/{id}", "1")
+                    .exchange()
+                    .expectStatus()
+                    .is2xxSuccessful()
+                    .expectBody(Movie.class)
+                    .consumeWith(movieEntityExchangeResult -> {
+
+                        var movie = movieEntityExchangeResult.getResponseBody();
+
+                        assertNotNull(movie);
+                        assertEquals(2, movie.getReviewList().size());
+                        assertEquals(3L, movie.getReviewSummary().getCount());
+                        assertEquals(8.0, movie.getReviewSummary().getMean());
+                        assertEquals("/v1/movies/1/reviews?limit=2&after=cjI", movie.getNextReviews());
+                    });
+        } finally {
+            ReflectionTestUtils.setField(moviesController, "maxEmbeddedReviews", 100);
+        }
+
+        // the summary came with the page
+        verify(reviewsRestClient, never()).retrieveReviewSummary("1");
+    }
+
+    @Test
+    void retrieveMovieReviews() {
+
+        when(reviewsRestClient.retrieveReviewPage("1", 100, "cjI"))
+                .thenReturn(Mono.just(new ReviewPage(List.of(new Review("r3", 1L, "Good Movie", 7.0)), null)));
+
+        webTestClient
+                .get()
+                .uri(MOVIES_URL+"/{id}/reviews?limit={limit}&after={after}", "1", 500, "cjI")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().doesNotExist(ReviewPage.NEXT_CURSOR_HEADER)
+                .expectBodyList(Review.class)
+                .hasSize(1);
+    }
+
+    @Test
+    void streamMovieById() {
+
+        var movieInfo = new MovieInfo("1", "Batman Begins",
+                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"));
+        when(movieInfoRestClient.retrieveMovieInfo("1"))
+                .thenReturn(Mono.just(movieInfo).delayElement(Duration.ofMillis(50)));
+        when(reviewsRestClient.streamReviews("1"))
+                .thenReturn(Flux.just(new Review("r1", 1L, "Awesome Movie", 9.0),
+                        new Review("r2", 1L, "Excellent Movie", 8.0)));
+
+        var parts = webTestClient
+                .get()
+                .uri(MOVIES_URL+"/{id}/stream", "1")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(MoviePart.class)
+                .getResponseBody();
+
+        StepVerifier.create(parts)
+                .assertNext(part -> {
+                    assertEquals("Batman Begins", part.getMovieInfo().getName());
+                    assertNull(part.getReview());
+                })
+                .assertNext(part -> assertEquals("r1", part.getReview().getReviewId()))
+                .assertNext(part -> assertEquals("r2", part.getReview().getReviewId()))
+                .verifyComplete();
+    }
+
+    @Test
+    void retrieveMoviesByIds() {
+
+        when(movieInfoRestClient.retrieveMovieInfos(anyList()))
+                .thenReturn(Flux.just(
+                        new MovieInfo("2", "The Dark Knight",
+                                2008, List.of("Bale", "Ledger"), LocalDate.parse("2008-07-18")),
+                        new MovieInfo("1", "Batman Begins",
+                                2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"))));
+        when(reviewsRestClient.retrieveReviews(anyList(), anyInt()))
+                .thenReturn(Flux.just(
+                        new Review("r1", 1L, "Awesome Movie", 9.0),
+                        new Review("r2", 1L, "Excellent Movie", 8.0)));
+        when(reviewsRestClient.retrieveReviewSummaries(anyList()))
+                .thenReturn(Mono.just(Map.of("1", new ReviewSummary(2L, 8.5, 2L), "2", new ReviewSummary(0L, null, 0L))));
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_URL)
+                        .queryParam("ids", "1,,2,2")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Movie.class)
+                .consumeWith(listEntityExchangeResult -> {
+
+                    var movies = listEntityExchangeResult.getResponseBody();
+
+                    assertNotNull(movies);
+                    assertEquals(2, movies.size());
+                    // in request order, not in the order the movie infos came back
+                    assertEquals("1", movies.get(0).getMovieInfo().getMovieInfoId());
+                    assertEquals(2, movies.get(0).getReviewList().size());
+                    assertEquals("2", movies.get(1).getMovieInfo().getMovieInfoId());
+                    assertEquals(0, movies.get(1).getReviewList().size());
+                });
+        verify(movieInfoRestClient).retrieveMovieInfos(List.of("1", "2"));
+    }
+
+    @Test
+    void retrieveMoviesByIds_boundedReviews() {
+
+        when(movieInfoRestClient.retrieveMovieInfos(anyList()))
+                .thenReturn(Flux.just(new MovieInfo("1", "Batman Begins",
+                        2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"))));
+        when(reviewsRestClient.retrieveReviews(List.of("1"), 2))
+                .thenReturn(Flux.just(
+                        new Review("r1", 1L, "Awesome Movie", 9.0),
+                        new Review("r2", 1L, "Excellent Movie", 8.0)));
+        when(reviewsRestClient.retrieveReviewSummaries(List.of("1")))
+                .thenReturn(Mono.just(Map.of("1", new ReviewSummary(3L, 8.0, 3L))));
+
+        ReflectionTestUtils.setField(moviesController, "maxEmbeddedReviews", 2);
+        try {
+            webTestClient
+                    .get()
+                    .uri(uriBuilder -> uriBuilder.path(MOVIES_URL)
+                            .queryParam("ids", "1")
+                            .build())
+                    .exchange()
+                    .expectStatus()
+                    .is2xxSuccessful()
+                    .expectBodyList(Movie.class)
+                    .consumeWith(listEntityExchangeResult -> {
+
+                        var movie = listEntityExchangeResult.getResponseBody().get(0);
+
+                        assertEquals(2, movie.getReviewList().size());
+                        assertEquals(3L, movie.getReviewSummary().getCount());
+                        // the cursor of the page following the embedded reviews, r2 in URL-safe base64
+                        assertEquals("/v1/movies/1/reviews?limit=2&after=cjI", movie.getNextReviews());
+                    });
+        } finally {
+            ReflectionTestUtils.setField(moviesController, "maxEmbeddedReviews", 100);
+        }
+    }
+
+    @Test
+    void retrieveMoviesByIds_reviewsUnavailable() {
+
+        when(movieInfoRestClient.retrieveMovieInfos(anyList()))
+                .thenReturn(Flux.just(new MovieInfo("1", "Batman Begins",
+                        2005, List.of("Bale", "Cane"), LocalDate.parse("2005-06-15"))));
+        when(reviewsRestClient.retrieveReviews(anyList(), anyInt()))
+                .thenReturn(Flux.error(new ReviewsServerException("Server Exception in ReviewsService")));
+        when(reviewsRestClient.retrieveReviewSummaries(anyList()))
+                .thenReturn(Mono.error(new ReviewsServerException("Server Exception in ReviewsService")));
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_URL)
+                        .queryParam("ids", "1")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Movie.class)
+                .consumeWith(listEntityExchangeResult -> {
+
+                    var movie = listEntityExchangeResult.getResponseBody().get(0);
+
+                    assertEquals("Batman Begins", movie.getMovieInfo().getName());
+                    assertEquals(0, movie.getReviewList().size());
+                    assertNull(movie.getReviewSummary());
+                });
+    }
+
+    @Test
+    void retrieveMoviesByIds_tooManyIds() {
+
+        var ids = IntStream.rangeClosed(1, 201)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(","));
+
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(MOVIES_URL)
+                        .queryParam("ids", ids)
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+        verify(movieInfoRestClient, never()).retrieveMovieInfos(anyList());
+    }
+}